@@ -5,6 +5,7 @@ import org.cytoscape.work.AbstractTask;
 import org.cytoscape.work.TaskMonitor;
 import prefuse.util.force.ForceItem;
 import prefuse.util.force.ForceSimulator;
+import prefuse.util.force.SimulationState;
 import prefuse.util.force.Spring;
 import prefuse.util.force.StateMonitor;
 
@@ -88,14 +89,11 @@ public class AutoLayout extends AbstractTask {
 
     protected ForceSimulator runNewSimulation(int iterations) {
 
-        layout.clearMaps();
+        layout.clearMaps(part);
 
         // Calculate our edge weights
         part.calculateEdgeWeights();
 
-        ForceSimulator m_fsim = new ForceSimulator(layout.integrator.getNewIntegrator(layout.monitor), layout.monitor);
-        layout.addSimulatorForces(m_fsim, part);
-
         List<LayoutNode> nodeList = part.getNodeList();
         List<LayoutEdge> edgeList = part.getEdgeList();
 
@@ -104,36 +102,29 @@ public class AutoLayout extends AbstractTask {
             Collections.sort(edgeList);
         }
 
+        // Sample the graph if larger than 500
+        float sampleRate = nodeList.size() > 500 ? 500f / nodeList.size() : 1f;
+
+        SimulationState state = new SimulationState(Math.min(nodeList.size(), 500), edgeList.size());
+        ForceSimulator m_fsim = new ForceSimulator(state, layout.integrator.getNewIntegrator(layout.monitor), layout.monitor);
+
         Map<LayoutNode, ForceItem> forceItems = new HashMap<>();
 
-        // initialize nodes
+        // initialize nodes, skipping the ones left out of the sample
         for (LayoutNode ln : nodeList) {
 
-            ForceItem fitem = forceItems.get(ln);
+            if (forceItems.containsKey(ln))
+                continue;
 
-            if (fitem == null) {
-                fitem = new ForceItem();
-                forceItems.put(ln, fitem);
-            }
+            if (sampleRate < 1f && Math.random() > sampleRate && !layout.getPoleClassifier(part).isPole(ln))
+                continue;
 
-            fitem.mass = layout.getMassValue(ln);
-            fitem.location[0] = (float) ln.getX();
-            fitem.location[1] = (float) ln.getY();
-            m_fsim.addItem(fitem);
+            ForceItem fitem = state.addItem((float) ln.getX(), (float) ln.getY(), layout.getMassValue(ln));
+            forceItems.put(ln, fitem);
 
-            layout.mapForceItem(ln, fitem);
+            layout.mapForceItem(part, ln, fitem);
         }
 
-        // Sample the graph if larger than 500
-        if (nodeList.size() > 500)
-            for (LayoutNode ln : nodeList) {
-                ForceItem fitem = forceItems.get(ln);
-                if (fitem != null && Math.random() > 500f / nodeList.size() && !layout.poleClassifier.isPole(fitem)) {
-                    m_fsim.removeItem(fitem);
-                    forceItems.remove(ln);
-                }
-            }
-
         // initialize edges
         for (LayoutEdge e : edgeList) {
 
@@ -146,9 +137,11 @@ public class AutoLayout extends AbstractTask {
                 continue;
 
             Spring s = m_fsim.addSpring(f1, f2, layout.getSpringCoefficient(e), layout.getSpringLength(e));
-            layout.mapSpring(e, s);
+            layout.mapSpring(part, e, s);
         }
 
+        layout.addSimulatorForces(m_fsim, part);
+
         // perform layout
 
         long timestep = 1000L;
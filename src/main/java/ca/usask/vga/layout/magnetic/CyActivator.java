@@ -14,8 +14,7 @@ import org.cytoscape.event.CyEventHelper;
 import org.cytoscape.io.util.StreamUtil;
 import org.cytoscape.model.CyNetworkFactory;
 import org.cytoscape.model.CyNetworkManager;
-import org.cytoscape.model.events.NetworkAddedListener;
-import org.cytoscape.model.events.SelectedNodesAndEdgesListener;
+import org.cytoscape.model.events.*;
 import org.cytoscape.model.subnetwork.CyRootNetworkManager;
 import org.cytoscape.service.util.AbstractCyActivator;
 import org.cytoscape.session.CyNetworkNaming;
@@ -81,11 +80,16 @@ public class CyActivator extends AbstractCyActivator {
 		registerService(bc,simpleMagneticLayout,CyLayoutAlgorithm.class, sLayoutProps);
 
 		// Magnetic Poles
-		PoleManager poleManager = new PoleManager(getService(bc, CyNetworkManager.class), undo);
+		PoleManager poleManager = new PoleManager(getService(bc, CyNetworkManager.class), undo,
+				getService(bc, CyEventHelper.class));
 		registerService(bc, poleManager, PoleManager.class);
 		registerService(bc, poleManager, NetworkAddedListener.class);
 		registerService(bc, poleManager, SetCurrentNetworkListener.class);
 		registerService(bc, poleManager, SessionAboutToBeLoadedListener.class);
+		registerService(bc, poleManager, AddedNodesListener.class);
+		registerService(bc, poleManager, AddedEdgesListener.class);
+		registerService(bc, poleManager, AboutToRemoveNodesListener.class);
+		registerService(bc, poleManager, AboutToRemoveEdgesListener.class);
 
 		var am = getService(bc, CyApplicationManager.class);
 		var im = getService(bc, IconManager.class);
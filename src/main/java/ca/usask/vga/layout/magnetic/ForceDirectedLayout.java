@@ -1,9 +1,14 @@
 package ca.usask.vga.layout.magnetic;
 
+import prefuse.util.force.CutoffNBodyForce;
 import prefuse.util.force.EulerIntegrator;
+import prefuse.util.force.FastMultipoleForce;
+import prefuse.util.force.Force;
 import prefuse.util.force.Integrator;
+import prefuse.util.force.NBodyForce;
 import prefuse.util.force.RungeKuttaIntegrator;
 import prefuse.util.force.StateMonitor;
+import prefuse.util.force.VerletIntegrator;
 
 /* Adapted from:
  * #%L
@@ -28,13 +33,13 @@ import prefuse.util.force.StateMonitor;
  */
 
 /**
- * Contains {@link Integrators} enum used for implementations of the layout.
+ * Contains {@link Integrators} and {@link Repulsions} enums used for implementations of the layout.
  * Previously part of the original Prefuse layout implementation.
  */
 public abstract class ForceDirectedLayout {
 
 	public enum Integrators {
-		RUNGEKUTTA("Runge-Kutta"), EULER("Euler");
+		RUNGEKUTTA("Runge-Kutta"), EULER("Euler"), VERLET("Velocity Verlet");
 
 		private String name;
 
@@ -50,8 +55,35 @@ public abstract class ForceDirectedLayout {
 		public Integrator getNewIntegrator(StateMonitor monitor) {
 			if (this == EULER)
 				return new EulerIntegrator(monitor);
+			else if (this == VERLET)
+				return new VerletIntegrator(monitor);
 			else
 				return new RungeKuttaIntegrator(monitor);
 		}
 	}
+
+	public enum Repulsions {
+		BARNES_HUT("Barnes-Hut"), FAST_MULTIPOLE("Fast multipole (1/r force)"), CUTOFF("Cut-off distance");
+
+		private String name;
+
+		Repulsions(String str) {
+			name = str;
+		}
+
+		@Override
+		public String toString() {
+			return name;
+		}
+
+		public Force getNewForce(ForceDirectedLayoutContext context, StateMonitor monitor) {
+			float gravConstant = (float) -context.repulsionCoefficient;
+			if (this == FAST_MULTIPOLE)
+				return new FastMultipoleForce(gravConstant, FastMultipoleForce.DEFAULT_DISTANCE_SCALE, context.multipoleOrder, monitor);
+			else if (this == CUTOFF)
+				return new CutoffNBodyForce(gravConstant, (float) context.repulsionCutoff, monitor);
+			else
+				return new NBodyForce(gravConstant, NBodyForce.DEFAULT_DISTANCE, NBodyForce.DEFAULT_THETA, monitor);
+		}
+	}
 }
@@ -23,6 +23,10 @@ package ca.usask.vga.layout.magnetic;
 
 import org.cytoscape.work.Tunable;
 import org.cytoscape.work.TunableValidator;
+import org.cytoscape.work.util.ListSingleSelection;
+import prefuse.util.force.AdaptiveCooling;
+import prefuse.util.force.CutoffNBodyForce;
+import prefuse.util.force.FastMultipoleForce;
 
 
 import java.io.IOException;
@@ -50,6 +54,38 @@ public class ForceDirectedLayoutContext implements TunableValidator {
 	@Tunable(description="Repulsion Coefficient:", gravity=200.1, groups=PREFUSE_GROUP, context="both", longDescription="Repulsion coefficient, in numeric value", exampleStringValue="1.0")
 	public double repulsionCoefficient = 1.0;
 
+	public ForceDirectedLayout.Repulsions repulsion = ForceDirectedLayout.Repulsions.BARNES_HUT;
+
+	@Tunable(description="Repulsion method:", gravity=200.4, groups=PREFUSE_GROUP, context="both", longDescription="The algorithm used to compute the repulsion between nodes; Barnes-Hut and cut-off distance repel with a force that falls off with the squared distance, fast multipole with a force that falls off with the distance itself, which gives a different, more spread out layout; enum value", exampleStringValue="Barnes-Hut")
+	public ListSingleSelection<ForceDirectedLayout.Repulsions> getRepulsion() {
+		ListSingleSelection<ForceDirectedLayout.Repulsions> t = new ListSingleSelection<>(ForceDirectedLayout.Repulsions.BARNES_HUT, ForceDirectedLayout.Repulsions.FAST_MULTIPOLE, ForceDirectedLayout.Repulsions.CUTOFF);
+		t.setSelectedValue(this.repulsion);
+		return t;
+	}
+
+	public void setRepulsion(ListSingleSelection<ForceDirectedLayout.Repulsions> t) {
+		this.repulsion = (ForceDirectedLayout.Repulsions) t.getSelectedValue();
+	}
+
+	@Tunable(description="Multipole expansion order:", gravity=200.5, groups=PREFUSE_GROUP, context="both", longDescription="Number of terms in the expansions of the fast multipole (1/r force) repulsion, in numeric value", exampleStringValue="12")
+	public int multipoleOrder = FastMultipoleForce.DEFAULT_ORDER;
+
+	@Tunable(description="Repulsion cut-off distance:", gravity=200.6, groups=PREFUSE_GROUP, context="both", longDescription="Distance beyond which nodes do not repel each other with the cut-off distance method, in numeric value", exampleStringValue="200.0")
+	public double repulsionCutoff = CutoffNBodyForce.DEFAULT_DISTANCE;
+
+	public ForceDirectedLayout.Integrators integrator = ForceDirectedLayout.Integrators.RUNGEKUTTA;
+
+	@Tunable(description="Integration method:", gravity=200.7, groups=PREFUSE_GROUP, context="both", longDescription="The method used to move the nodes by the forces in each iteration; Runge-Kutta evaluates the forces four times per iteration, the others once; enum value", exampleStringValue="Runge-Kutta")
+	public ListSingleSelection<ForceDirectedLayout.Integrators> getIntegrator() {
+		ListSingleSelection<ForceDirectedLayout.Integrators> t = new ListSingleSelection<>(ForceDirectedLayout.Integrators.RUNGEKUTTA, ForceDirectedLayout.Integrators.VERLET, ForceDirectedLayout.Integrators.EULER);
+		t.setSelectedValue(this.integrator);
+		return t;
+	}
+
+	public void setIntegrator(ListSingleSelection<ForceDirectedLayout.Integrators> t) {
+		this.integrator = (ForceDirectedLayout.Integrators) t.getSelectedValue();
+	}
+
 	//@Tunable(description="Force deterministic layouts (slower):", context="both", longDescription="Force deterministic layouts (slower); boolean values only, ```true``` or ```false```; defaults to ```false```", exampleStringValue="false")
 	public boolean isDeterministic;
 
@@ -60,6 +96,30 @@ public class ForceDirectedLayoutContext implements TunableValidator {
 	@Tunable(description="Number of Iterations:", gravity=800.9, context="both", longDescription="Number of Iterations, in numeric value", exampleStringValue="100")
 	public int numIterations = 100;
 
+	@Tunable(description="Stop early when converged:", gravity=800.91, context="both", longDescription="Adapt the timestep to the motion of the nodes, and stop before the number of iterations once the layout has settled; boolean values only, ```true``` or ```false```; defaults to ```false```", exampleStringValue="false")
+	public boolean stopWhenConverged = false;
+
+	@Tunable(description="Convergence tolerance:", gravity=800.92, context="both", dependsOn="stopWhenConverged=true", longDescription="Average movement of the nodes in one iteration, relative to their typical spacing, below which the layout counts as converged, in numeric value", exampleStringValue="0.05")
+	public double convergenceTolerance = AdaptiveCooling.DEFAULT_TOLERANCE;
+
+	@Tunable(description="Multilevel layout:", gravity=800.93, context="both", longDescription="Lay out large networks by coarsening them first, then refining the layout level by level; boolean values only, ```true``` or ```false```; defaults to ```false```", exampleStringValue="false")
+	public boolean useMultilevel = false;
+
+	@Tunable(description="Iterations per refinement level:", gravity=800.94, context="both", dependsOn="useMultilevel=true", longDescription="Number of iterations used to refine each level of a multilevel layout, in numeric value", exampleStringValue="30")
+	public int refineIterations = 30;
+
+	@Tunable(description="Incremental re-layout:", gravity=800.95, context="both", longDescription="Continue from the previous layout of the network, relaxing only the nodes that were added or changed since and their neighbours; boolean values only, ```true``` or ```false```; defaults to ```false```", exampleStringValue="false")
+	public boolean incremental = false;
+
+	@Tunable(description="Incremental iterations:", gravity=800.96, context="both", dependsOn="incremental=true", longDescription="Number of iterations used to relax the changed part of the network in an incremental re-layout, in numeric value", exampleStringValue="30")
+	public int incrementalIterations = 30;
+
+	@Tunable(description="Number of threads:", gravity=800.8, context="both", longDescription="Number of threads used to compute large layouts, in numeric value", exampleStringValue="4")
+	public int numThreads = Runtime.getRuntime().availableProcessors();
+
+	@Tunable(description="Lay out components concurrently:", gravity=800.81, context="both", longDescription="Lay out the disconnected components of the network on multiple threads at once, the largest first; boolean values only, ```true``` or ```false```; defaults to ```false```", exampleStringValue="false")
+	public boolean concurrentPartitions = false;
+
 	@Tunable(description="ANIMATE", gravity=900.02, context="both", longDescription="Apply animation to the layout; boolean values only", exampleStringValue="false")
 	public boolean useAnimation = false;
 
@@ -68,18 +128,36 @@ public class ForceDirectedLayoutContext implements TunableValidator {
 		try {
 		if (!isPositive(numIterations))
 			errMsg.append("Number of iterations must be > 0; current value = "+numIterations);
+		if (!isPositive(numThreads))
+			errMsg.append("Number of threads must be > 0; current value = "+numThreads);
 		if (!isNonNegative(defaultSpringCoefficient))
 			errMsg.append("Spring coefficient must be >= 0; current value = "+defaultSpringCoefficient);
 		if (!isNonNegative(defaultSpringLength))
 			errMsg.append("Spring length must be >= 0; current value = "+defaultSpringLength);
 		if (!isPositive(defaultNodeMass))
 			errMsg.append("Node mass must be > 0; current value = "+defaultNodeMass);
+		if (!isPositive(repulsionCutoff))
+			errMsg.append("Repulsion cut-off distance must be > 0; current value = "+repulsionCutoff);
+		if (!isPositive(incrementalIterations))
+			errMsg.append("Incremental iterations must be > 0; current value = "+incrementalIterations);
+		if (!isPositive(refineIterations))
+			errMsg.append("Iterations per refinement level must be > 0; current value = "+refineIterations);
+		if (!isPositive(convergenceTolerance))
+			errMsg.append("Convergence tolerance must be > 0; current value = "+convergenceTolerance);
+		if (!isValidOrder(multipoleOrder))
+			errMsg.append("Multipole expansion order must be between "+FastMultipoleForce.MIN_ORDER+" and "+FastMultipoleForce.MAX_ORDER+"; current value = "+multipoleOrder);
 		} catch (IOException e) {}
-		return isPositive(numIterations) && isNonNegative(defaultSpringCoefficient)
-		       && isNonNegative(defaultSpringLength) && isPositive(defaultNodeMass)
+		return isPositive(numIterations) && isPositive(numThreads) && isNonNegative(defaultSpringCoefficient)
+		       && isNonNegative(defaultSpringLength) && isPositive(defaultNodeMass) && isPositive(repulsionCutoff)
+		       && isPositive(convergenceTolerance) && isPositive(refineIterations) && isPositive(incrementalIterations)
+		       && isValidOrder(multipoleOrder)
 			? ValidationState.OK : ValidationState.INVALID;
 	}
 
+	private static boolean isValidOrder(final int n) {
+		return n >= FastMultipoleForce.MIN_ORDER && n <= FastMultipoleForce.MAX_ORDER;
+	}
+
 	private static boolean isPositive(final int n) {
 		return n > 0;
 	}
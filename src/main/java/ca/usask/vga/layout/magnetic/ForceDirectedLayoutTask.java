@@ -1,16 +1,26 @@
 package ca.usask.vga.layout.magnetic;
 
+import org.cytoscape.model.CyNetwork;
 import org.cytoscape.model.CyNode;
 import org.cytoscape.view.layout.*;
 import org.cytoscape.view.model.CyNetworkView;
 import org.cytoscape.view.model.View;
+import org.cytoscape.work.TaskMonitor;
 import org.cytoscape.work.undo.UndoSupport;
+import ca.usask.vga.layout.magnetic.util.GraphCoarsening;
+import prefuse.util.force.AdaptiveCooling;
+import prefuse.util.force.Force;
 import prefuse.util.force.ForceItem;
 import prefuse.util.force.ForceSimulator;
+import prefuse.util.force.SimulationState;
 import prefuse.util.force.Spring;
 import prefuse.util.force.StateMonitor;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /* Adapted from:
  * Cytoscape Prefuse Layout Impl (layout-prefuse-impl)
@@ -40,14 +50,38 @@ import java.util.*;
  * @see <a href="http://prefuse.org">Prefuse web site</a>
  */
 public abstract class ForceDirectedLayoutTask extends AbstractPartitionLayoutTask {
-	// In the future it would be good to allow for parallel computation here
 
 	protected static final int ANIMATION_FRAME_PERIOD = 10;
 
+	// Partitions smaller than this are simulated on a single thread
+	protected static final int PARALLEL_MIN_NODES = 2000;
+
+	// Partitions smaller than this are laid out in one level even in multilevel mode
+	protected static final int MULTILEVEL_MIN_NODES = 1000;
+
+	// Incremental layouts relax the changed nodes and their neighbours up to this many hops away
+	protected static final int INCREMENTAL_HOPS = 2;
+	// Incremental layouts fall back to a full layout when more of the partition than this is affected
+	protected static final double INCREMENTAL_MAX_FRACTION = 0.5;
+	// Incremental layouts start cooler, since the rest of the layout is already in place
+	protected static final long INCREMENTAL_TIMESTEP = 250L;
+	// Nodes that moved further than this since the previous layout count as changed
+	private static final double MOVED_DISTANCE = 1.0;
+
+	// Distance between a representative and the nodes merged into it, relative to the spring length
+	private static final double PROLONG_SPREAD = 0.25;
+	private static final double GOLDEN_ANGLE = Math.PI * (3 - Math.sqrt(5));
+
 	// private ForceSimulator m_fsim;
 	protected ForceDirectedLayout.Integrators integrator;
 	protected final ForceDirectedLayoutContext context;
 	protected final StateMonitor monitor;
+	protected LayoutHistory history;
+
+	// Locations found by laying out the partitions concurrently, keyed by node
+	private Map<CyNode, double[]> concurrentLayout;
+	// Pool shared by the partitions while they are laid out concurrently
+	private ForkJoinPool partitionPool;
 
 	/**
 	 * Creates a new ForceDirectedLayout object.
@@ -72,23 +106,134 @@ public abstract class ForceDirectedLayoutTask extends AbstractPartitionLayoutTas
 		monitor = new StateMonitor();
 	}
 
+	/**
+	 * Adds the forces to a simulation of the given partition. This is called once all of its
+	 * items and springs have been added and passed to {@link #mapForceItem} and {@link #mapSpring}.
+	 */
 	protected abstract void addSimulatorForces(ForceSimulator m_fsim, LayoutPartition part);
 
-	protected void mapForceItem(LayoutNode ln, ForceItem fitem) {}
-	protected void mapSpring(LayoutEdge le, Spring spring) {}
-	protected void clearMaps() {}
+	// The partition is passed along so that partitions can be laid out concurrently
+	protected void mapForceItem(LayoutPartition part, LayoutNode ln, ForceItem fitem) {}
+	protected void mapSpring(LayoutPartition part, LayoutEdge le, Spring spring) {}
+	protected void clearMaps(LayoutPartition part) {}
+
+	/**
+	 * Sets where the outcome of this layout is remembered, so that an incremental
+	 * layout can continue from it later.
+	 */
+	public void setLayoutHistory(LayoutHistory history) {
+		this.history = history;
+	}
+
+	/**
+	 * Returns true if the partitions can be laid out concurrently, i.e. nothing
+	 * shared between them is modified during a layout.
+	 */
+	protected boolean supportsConcurrentPartitions() {
+		return true;
+	}
+
+	@Override
+	public void doLayout(TaskMonitor taskMonitor) {
+		// a later incremental layout must not continue from records this layout leaves stale
+		if (!context.incremental && history != null)
+			history.clear(networkView.getModel());
+
+		if (context.concurrentPartitions && !context.singlePartition && context.numThreads > 1
+				&& supportsConcurrentPartitions()) {
+			this.taskMonitor = taskMonitor;
+			concurrentLayout = layoutPartitionsConcurrently();
+			if (cancelled)
+				return;
+		}
+		// Arranges the partitions, which only copies the concurrent locations over
+		super.doLayout(taskMonitor);
+	}
+
+	/**
+	 * Lays out all the partitions on a work stealing pool, the largest first. Large
+	 * partitions also split their simulation steps across the same pool, so the
+	 * threads that finish the small partitions help with the large ones.
+	 * @return the new locations of the nodes
+	 */
+	private Map<CyNode, double[]> layoutPartitionsConcurrently() {
+		List<LayoutPartition> partitions = new ArrayList<>(PartitionUtil.partition(networkView, nodesToLayOut, edgeWeighter));
+		partitions.removeIf(part -> part.nodeCount() < 2);  // single nodes are only placed
+		partitions.sort(Comparator.comparingInt(LayoutPartition::nodeCount).reversed());
+
+		int total = 0;
+		for (LayoutPartition part : partitions)
+			total += part.nodeCount();
+		double totalNodes = total;
+		AtomicInteger done = new AtomicInteger();
+
+		Map<CyNode, double[]> locations = new ConcurrentHashMap<>();
+		partitionPool = new ForkJoinPool(context.numThreads);
+		try {
+			List<ForkJoinTask<?>> tasks = new ArrayList<>();
+			for (LayoutPartition part : partitions) {
+				tasks.add(partitionPool.submit(() -> {
+					if (cancelled)
+						return;
+					layoutPartition(part);
+					for (LayoutNode ln : part.getNodeList())
+						locations.put(ln.getNode(), new double[] { ln.getX(), ln.getY() });
+					// the only progress reported while partitions run concurrently; never goes backwards
+					synchronized (done) {
+						taskMonitor.setProgress(done.addAndGet(part.nodeCount()) / totalNodes);
+					}
+				}));
+			}
+			for (ForkJoinTask<?> task : tasks)
+				task.join();
+		} finally {
+			partitionPool.shutdown();
+			partitionPool = null;
+		}
+		return locations;
+	}
+
+	/**
+	 * Moves the nodes of the partition to the locations found by the concurrent
+	 * layout, if there was one.
+	 * @return true if the partition has been laid out concurrently
+	 */
+	protected boolean applyConcurrentLayout(LayoutPartition part) {
+		if (concurrentLayout == null)
+			return false;
+
+		part.resetNodes(); // reset the nodes so we get the new average location
+		for (LayoutNode ln : part.getNodeList()) {
+			double[] location = concurrentLayout.get(ln.getNode());
+			if (location != null && !ln.isLocked()) {
+				ln.setX(location[0]);
+				ln.setY(location[1]);
+			}
+			part.moveNodeToLocation(ln);
+		}
+		return true;
+	}
+
+	/**
+	 * Returns anything besides the location and the degree of the node that the
+	 * forces depend on. An incremental layout relaxes the nodes for which this
+	 * changed since the previous layout. By default, nothing.
+	 */
+	protected Object getClassification(LayoutNode ln) {
+		return null;
+	}
 
 	@Override
 	public void layoutPartition(LayoutPartition part) {
 
-		clearMaps();
+		if (applyConcurrentLayout(part))
+			return;
+
+		clearMaps(part);
 
 		// Calculate our edge weights
 		part.calculateEdgeWeights();
 
-		ForceSimulator m_fsim = new ForceSimulator(integrator.getNewIntegrator(monitor), monitor);
-		addSimulatorForces(m_fsim, part);
-
 		List<LayoutNode> nodeList = part.getNodeList();
 		List<LayoutEdge> edgeList = part.getEdgeList();
 
@@ -97,6 +242,32 @@ public abstract class ForceDirectedLayoutTask extends AbstractPartitionLayoutTas
 			Collections.sort(edgeList);
 		}
 
+		// concurrent partitions share the aggregate progress of layoutPartitionsConcurrently
+		if (partitionPool == null)
+			taskMonitor.setProgress(0);
+
+		// Only relax what changed since the previous layout, when possible
+		if (context.incremental && history != null && history.contains(networkView.getModel())
+				&& layoutIncrementally(part, nodeList, edgeList))
+			return;
+
+		// Lay out coarsened versions of large partitions first, to start from their global shape
+		int iterations = context.numIterations;
+		float[][] start = null;
+		if (context.useMultilevel && nodeList.size() >= MULTILEVEL_MIN_NODES) {
+			start = layoutCoarseLevels(part, nodeList, edgeList);
+			if (cancelled)
+				return;
+			if (start != null)
+				iterations = context.refineIterations;
+		}
+
+		clearMaps(part);
+
+		// Packed simulation state, sized for the whole partition up front
+		SimulationState state = new SimulationState(nodeList.size(), edgeList.size());
+		ForceSimulator m_fsim = new ForceSimulator(state, integrator.getNewIntegrator(monitor), monitor);
+
 		Map<LayoutNode,ForceItem> forceItems = new HashMap<>();
 		
 		// initialize nodes
@@ -104,19 +275,17 @@ public abstract class ForceDirectedLayoutTask extends AbstractPartitionLayoutTas
 			if (cancelled)
 				return;
 			
-			ForceItem fitem = forceItems.get(ln);
-			
-			if (fitem == null) {
-				fitem = new ForceItem();
-				forceItems.put(ln, fitem);
-			}
-			
-			fitem.mass = getMassValue(ln);
-			fitem.location[0] = (float) ln.getX();
-			fitem.location[1] = (float) ln.getY();
-			m_fsim.addItem(fitem);
+			if (forceItems.containsKey(ln))
+				continue;
 
-			mapForceItem(ln, fitem);
+			// items are added in the same order as the nodes of the finest coarsening level
+			int i = state.getItemCount();
+			float x = start != null ? start[0][i] : (float) ln.getX();
+			float y = start != null ? start[1][i] : (float) ln.getY();
+			ForceItem fitem = state.addItem(x, y, getMassValue(ln));
+			forceItems.put(ln, fitem);
+
+			mapForceItem(part, ln, fitem);
 		}
 
 		// initialize edges
@@ -133,58 +302,407 @@ public abstract class ForceDirectedLayoutTask extends AbstractPartitionLayoutTas
 				continue;
 
 			Spring s = m_fsim.addSpring(f1, f2, getSpringCoefficient(e), getSpringLength(e));
-			mapSpring(e, s);
+			mapSpring(part, e, s);
 		}
 
+		// forces are added once every item and spring is mapped
+		addSimulatorForces(m_fsim, part);
+
 		// perform layout
-		long timestep = 1000L;
+		Runnable frame = () -> {
+			// update positions
+			part.resetNodes(); // reset the nodes so we get the new average location
+			part.offset(0, 0); // removes "dontMove" flag
+
+			for (LayoutNode ln : part.getNodeList()) {
+				if (cancelled)
+					return;
+
+				if (!ln.isLocked()) {
+					ForceItem fitem = forceItems.get(ln);
+					ln.setX(fitem.getX());
+					ln.setY(fitem.getY());
+					part.moveNodeToLocation(ln);
+				}
+			}
+		};
+		if (!runSimulator(m_fsim, iterations, 1000L, state.getItemCount(), frame))
+			return;
 
-		taskMonitor.setProgress(0);
+		// update positions
+		part.resetNodes(); // reset the nodes so we get the new average location
 
-		for (int i = 0; i < context.numIterations; i++) {
+		for (LayoutNode ln : part.getNodeList()) {
 			if (cancelled)
 				return;
 
-			if (context.useAnimation && (i % ANIMATION_FRAME_PERIOD == 0 || context.numIterations <= ANIMATION_FRAME_PERIOD)) {
-				// update positions
-				part.resetNodes(); // reset the nodes so we get the new average location
-				part.offset(0, 0); // removes "dontMove" flag
+			if (!ln.isLocked()) {
+				ForceItem fitem = forceItems.get(ln);
+				ln.setX(fitem.getX());
+				ln.setY(fitem.getY());
+				part.moveNodeToLocation(ln);
+			}
+		}
+
+		// only incremental layouts use the history; the first one seeds it with a full layout
+		if (context.incremental && history != null) {
+			for (Map.Entry<LayoutNode, ForceItem> entry : forceItems.entrySet())
+				remember(entry.getKey(), entry.getValue().getVelocityX(), entry.getValue().getVelocityY());
+		}
+	}
 
-				for (LayoutNode ln : part.getNodeList()) {
-					if (cancelled)
-						return;
+	private void remember(LayoutNode ln, float vx, float vy) {
+		history.put(networkView.getModel(), ln.getNode(), new LayoutHistory.NodeRecord((float) ln.getX(),
+				(float) ln.getY(), vx, vy, ln.getDegree(), getClassification(ln)));
+	}
 
-					if (!ln.isLocked()) {
-						ForceItem fitem = forceItems.get(ln);
-						ln.setX(fitem.location[0]);
-						ln.setY(fitem.location[1]);
-						part.moveNodeToLocation(ln);
+	/**
+	 * Lays out only the nodes that changed since the previous layout of the network,
+	 * and their neighbours, starting from their previous state. The rest of the
+	 * partition, the poles included, takes part in the simulation but stays where it
+	 * is, so that the relaxed nodes are still pulled by their poles and pushed away
+	 * from everything else.
+	 * @return false if too much of the partition changed, in which case a full
+	 * layout should be done instead
+	 */
+	private boolean layoutIncrementally(LayoutPartition part, List<LayoutNode> nodeList, List<LayoutEdge> edgeList) {
+		CyNetwork network = networkView.getModel();
+
+		Map<LayoutNode, Integer> index = new HashMap<>();
+		List<LayoutNode> nodes = new ArrayList<>();
+		for (LayoutNode ln : nodeList) {
+			if (index.putIfAbsent(ln, nodes.size()) == null)
+				nodes.add(ln);
+		}
+		int n = nodes.size();
+		List<List<Integer>> neighbours = new ArrayList<>(n);
+		for (int i = 0; i < n; i++)
+			neighbours.add(new ArrayList<>());
+		for (LayoutEdge e : edgeList) {
+			Integer s = index.get(e.getSource()), t = index.get(e.getTarget());
+			if (s != null && t != null && !s.equals(t)) {
+				neighbours.get(s).add(t);
+				neighbours.get(t).add(s);
+			}
+		}
+
+		// The partition may have been moved as a whole since; measure that by the median shift
+		LayoutHistory.NodeRecord[] records = new LayoutHistory.NodeRecord[n];
+		float[] shiftX = new float[n], shiftY = new float[n];
+		int known = 0;
+		for (int i = 0; i < n; i++) {
+			LayoutNode ln = nodes.get(i);
+			records[i] = history.get(network, ln.getNode());
+			if (records[i] != null) {
+				shiftX[known] = (float) ln.getX() - records[i].x;
+				shiftY[known++] = (float) ln.getY() - records[i].y;
+			}
+		}
+		if (known == 0)
+			return false;
+		Arrays.sort(shiftX, 0, known);
+		Arrays.sort(shiftY, 0, known);
+		float dx = shiftX[known / 2], dy = shiftY[known / 2];
+
+		boolean[] changed = new boolean[n];
+		int changedCount = 0;
+		for (int i = 0; i < n; i++) {
+			LayoutNode ln = nodes.get(i);
+			LayoutHistory.NodeRecord r = records[i];
+			changed[i] = r == null || r.isChanged(ln.getDegree(), getClassification(ln))
+					|| Math.hypot(ln.getX() - r.x - dx, ln.getY() - r.y - dy) > MOVED_DISTANCE;
+			if (changed[i])
+				changedCount++;
+		}
+		if (changedCount == 0)
+			return true;
+
+		// Seed new nodes next to their neighbours, spreading out from the nodes already placed
+		float[] x = new float[n], y = new float[n];
+		boolean[] placed = new boolean[n];
+		for (int i = 0; i < n; i++) {
+			x[i] = (float) nodes.get(i).getX();
+			y[i] = (float) nodes.get(i).getY();
+			placed[i] = records[i] != null || nodes.get(i).isLocked();
+		}
+		float spread = (float) (PROLONG_SPREAD * context.defaultSpringLength);
+		for (boolean progress = true; progress; ) {
+			progress = false;
+			for (int i = 0; i < n; i++) {
+				if (placed[i])
+					continue;
+				float sx = 0, sy = 0;
+				int count = 0;
+				for (int j : neighbours.get(i)) {
+					if (placed[j]) {
+						sx += x[j];
+						sy += y[j];
+						count++;
 					}
 				}
+				if (count == 0)
+					continue;
+				double angle = i * GOLDEN_ANGLE;
+				x[i] = sx / count + spread * (float) Math.cos(angle);
+				y[i] = sy / count + spread * (float) Math.sin(angle);
+				placed[i] = true;
+				progress = true;
+			}
+		}
+
+		// The affected region: the changed nodes and their neighbours, but not the poles next to them
+		int[] hops = new int[n];
+		Arrays.fill(hops, -1);
+		Deque<Integer> queue = new ArrayDeque<>();
+		for (int i = 0; i < n; i++) {
+			if (changed[i] && !nodes.get(i).isLocked()) {
+				hops[i] = 0;
+				queue.add(i);
+			}
+		}
+		boolean[] inRegion = new boolean[n];
+		List<Integer> region = new ArrayList<>();
+		while (!queue.isEmpty()) {
+			int i = queue.poll();
+			if (hops[i] > INCREMENTAL_HOPS || nodes.get(i).isLocked()
+					|| hops[i] > 0 && isFixedRepresentative(nodes.get(i)))
+				continue;
+			inRegion[i] = true;
+			region.add(i);
+			for (int j : neighbours.get(i)) {
+				if (hops[j] < 0) {
+					hops[j] = hops[i] + 1;
+					queue.add(j);
+				}
 			}
+		}
+		if (region.size() > INCREMENTAL_MAX_FRACTION * n)
+			return false;
 
+		clearMaps(part);
 
-			timestep *= (1.0 - i / (double) context.numIterations);
-			long step = timestep + 50;
-			m_fsim.runSimulator(step);
-			// setTaskStatus((int) (((double) i / (double) context.numIterations) * 90. + 5));
-			taskMonitor.setProgress((double) i / (double) context.numIterations);
+		SimulationState state = new SimulationState(n, edgeList.size());
+		ForceSimulator m_fsim = new ForceSimulator(state, integrator.getNewIntegrator(monitor), monitor);
+
+		// the region first, the frozen rest of the partition after it
+		List<Integer> frozen = new ArrayList<>(n - region.size());
+		for (int i = 0; i < n; i++) {
+			if (!inRegion[i])
+				frozen.add(i);
+		}
+		Map<LayoutNode, ForceItem> forceItems = new HashMap<>();
+		for (List<Integer> group : Arrays.asList(region, frozen)) {
+			for (int i : group) {
+				LayoutNode ln = nodes.get(i);
+				ForceItem fitem = state.addItem(x[i], y[i], getMassValue(ln));
+				if (records[i] != null && group == region)
+					fitem.setVelocity(records[i].vx, records[i].vy);
+				forceItems.put(ln, fitem);
+				mapForceItem(part, ln, fitem);
+			}
+		}
+		for (LayoutEdge e : edgeList) {
+			ForceItem f1 = forceItems.get(e.getSource());
+			ForceItem f2 = forceItems.get(e.getTarget());
+			if (f1 == null || f2 == null)
+				continue;
+			Spring s = m_fsim.addSpring(f1, f2, getSpringCoefficient(e), getSpringLength(e));
+			mapSpring(part, e, s);
 		}
 
-		// update positions
+		addSimulatorForces(m_fsim, part);
+		if (!runSimulator(m_fsim, context.incrementalIterations, INCREMENTAL_TIMESTEP, region.size(), null))
+			return true;
+
+		// update positions, and the nodes that were seeded outside the region
 		part.resetNodes(); // reset the nodes so we get the new average location
+		for (int i = 0; i < n; i++) {
+			LayoutNode ln = nodes.get(i);
+			ForceItem fitem = forceItems.get(ln);
+			if (!ln.isLocked()) {
+				ln.setX(inRegion[i] ? fitem.getX() : x[i]);
+				ln.setY(inRegion[i] ? fitem.getY() : y[i]);
+			}
+			part.moveNodeToLocation(ln);
+
+			// remember every node, so that all records share the current origin
+			if (inRegion[i])
+				remember(ln, fitem.getVelocityX(), fitem.getVelocityY());
+			else if (records[i] != null)
+				remember(ln, records[i].vx, records[i].vy);
+			else
+				remember(ln, 0, 0);
+		}
+		return true;
+	}
 
-		for (LayoutNode ln : part.getNodeList()) {
-			if (cancelled)
-				return;
+	/**
+	 * Runs the simulation for the given number of iterations, or until it
+	 * converges when {@link ForceDirectedLayoutContext#stopWhenConverged} is set.
+	 * @param timestep the timestep of the first iteration
+	 * @param frozen the items from this index on are held in place
+	 * @param frame updates the view when animating; null on coarse levels and
+	 * incremental layouts, which are neither animated nor reported as progress,
+	 * and neither are partitions laid out concurrently
+	 * @return false if the task was cancelled
+	 */
+	private boolean runSimulator(ForceSimulator m_fsim, int iterations, long timestep, int frozen, Runnable frame) {
+		AdaptiveCooling cooling = context.stopWhenConverged
+				? new AdaptiveCooling(m_fsim, (float) context.convergenceTolerance, timestep,
+						AdaptiveCooling.DEFAULT_MIN_TIMESTEP, AdaptiveCooling.DEFAULT_MAX_TIMESTEP,
+						AdaptiveCooling.DEFAULT_PATIENCE, AdaptiveCooling.DEFAULT_SWING_TOLERANCE) : null;
+
+		SimulationState state = m_fsim.getState();
+		int n = state.getItemCount();
+		float[] frozenX = Arrays.copyOfRange(state.x, frozen, n);
+		float[] frozenY = Arrays.copyOfRange(state.y, frozen, n);
+
+		// split large partitions across multiple threads, sharing the pool of concurrent partitions
+		ForkJoinPool pool = null;
+		if (context.numThreads > 1 && n >= PARALLEL_MIN_NODES) {
+			pool = partitionPool != null ? partitionPool : new ForkJoinPool(context.numThreads);
+			m_fsim.setPool(pool);
+		}
 
-			if (!ln.isLocked()) {
-				ForceItem fitem = forceItems.get(ln);
-				ln.setX(fitem.location[0]);
-				ln.setY(fitem.location[1]);
-				part.moveNodeToLocation(ln);
+		try {
+			for (int i = 0; i < iterations; i++) {
+				if (cancelled)
+					return false;
+
+				if (frame != null && context.useAnimation && partitionPool == null && (i % ANIMATION_FRAME_PERIOD == 0 || iterations <= ANIMATION_FRAME_PERIOD))
+					frame.run();
+
+				if (cooling != null) {
+					// numIterations only caps the run, which ends once the nodes settle
+					cooling.beforeStep();
+					m_fsim.runSimulator(cooling.getTimestep());
+					cooling.afterStep();
+					if (cooling.isConverged())
+						break;
+				} else {
+					timestep *= (1.0 - i / (double) iterations);
+					long step = timestep + 50;
+					m_fsim.runSimulator(step);
+				}
+				if (frozen < n) {
+					System.arraycopy(frozenX, 0, state.x, frozen, n - frozen);
+					System.arraycopy(frozenY, 0, state.y, frozen, n - frozen);
+					Arrays.fill(state.vx, frozen, n, 0);
+					Arrays.fill(state.vy, frozen, n, 0);
+				}
+				// setTaskStatus((int) (((double) i / (double) context.numIterations) * 90. + 5));
+				if (frame != null && partitionPool == null)
+					taskMonitor.setProgress((double) i / (double) iterations);
+			}
+		} finally {
+			if (pool != null) {
+				if (pool != partitionPool)
+					pool.shutdown();
+				m_fsim.setPool(null);
+			}
+		}
+		return !cancelled;
+	}
+
+	/**
+	 * Coarsens the partition, lays out the coarsest level with the full number of
+	 * iterations and refines every finer level with a few more, keeping fixed nodes
+	 * such as the poles as representatives.
+	 * @return the locations of the nodes of the finest level, to start the final
+	 * refinement from, or null if the partition could not be coarsened
+	 */
+	private float[][] layoutCoarseLevels(LayoutPartition part, List<LayoutNode> nodeList, List<LayoutEdge> edgeList) {
+		GraphCoarsening coarsening = new GraphCoarsening(nodeList, edgeList, this::isFixedRepresentative);
+		int levels = coarsening.getLevelCount();
+		if (levels < 2)
+			return null;
+
+		// Start each coarse node at the centre of the nodes it was made from
+		GraphCoarsening.Level fine = coarsening.getLevel(0);
+		float[] x = new float[fine.getNodeCount()], y = new float[fine.getNodeCount()];
+		for (int i = 0; i < x.length; i++) {
+			x[i] = (float) fine.nodes.get(i).getX();
+			y[i] = (float) fine.nodes.get(i).getY();
+		}
+		for (int l = 1; l < levels; l++) {
+			GraphCoarsening.Level coarse = coarsening.getLevel(l);
+			float[] cx = new float[coarse.getNodeCount()], cy = new float[coarse.getNodeCount()];
+			for (int i = 0; i < x.length; i++) {
+				int p = fine.getParent(i);
+				cx[p] += x[i] * fine.size[i] / coarse.size[p];
+				cy[p] += y[i] * fine.size[i] / coarse.size[p];
+			}
+			x = cx;
+			y = cy;
+			fine = coarse;
+		}
+
+		for (int l = levels - 1; l > 0; l--) {
+			GraphCoarsening.Level level = coarsening.getLevel(l);
+			if (!layoutLevel(part, level, x, y, l == levels - 1 ? context.numIterations : context.refineIterations))
+				return null;
+
+			// Place the nodes of the finer level around their representative
+			fine = coarsening.getLevel(l - 1);
+			float[] fx = new float[fine.getNodeCount()], fy = new float[fine.getNodeCount()];
+			float spread = (float) (PROLONG_SPREAD * context.defaultSpringLength);
+			for (int i = 0; i < fx.length; i++) {
+				int p = fine.getParent(i);
+				fx[i] = x[p];
+				fy[i] = y[p];
+				if (fine.nodes.get(i) != level.nodes.get(p)) {
+					double angle = i * GOLDEN_ANGLE;
+					fx[i] += spread * (float) Math.cos(angle);
+					fy[i] += spread * (float) Math.sin(angle);
+				}
 			}
+			x = fx;
+			y = fy;
 		}
+		return new float[][] { x, y };
+	}
+
+	/**
+	 * Lays out one coarse level, with the forces of the partition applied to the
+	 * representative nodes and edges.
+	 * @param x the locations of the nodes, updated in place
+	 * @return false if the task was cancelled
+	 */
+	private boolean layoutLevel(LayoutPartition part, GraphCoarsening.Level level, float[] x, float[] y, int iterations) {
+		clearMaps(part);
+
+		SimulationState state = new SimulationState(level.getNodeCount(), level.getEdgeCount());
+		ForceSimulator m_fsim = new ForceSimulator(state, integrator.getNewIntegrator(monitor), monitor);
+
+		ForceItem[] items = new ForceItem[level.getNodeCount()];
+		for (int i = 0; i < items.length; i++) {
+			LayoutNode ln = level.nodes.get(i);
+			items[i] = state.addItem(x[i], y[i], getMassValue(ln) * level.size[i]);
+			mapForceItem(part, ln, items[i]);
+		}
+		for (int e = 0; e < level.getEdgeCount(); e++) {
+			LayoutEdge le = level.edges.get(e);
+			Spring s = m_fsim.addSpring(items[level.source[e]], items[level.target[e]],
+					getSpringCoefficient(le) * level.multiplicity[e], getSpringLength(le));
+			mapSpring(part, le, s);
+		}
+
+		addSimulatorForces(m_fsim, part);
+		if (!runSimulator(m_fsim, iterations, 1000L, items.length, null))
+			return false;
+
+		System.arraycopy(state.x, 0, x, 0, items.length);
+		System.arraycopy(state.y, 0, y, 0, items.length);
+		return true;
+	}
+
+	/**
+	 * Returns true if the given node has to stay its own representative when
+	 * the partition is coarsened for a multilevel layout. By default, these are
+	 * the locked nodes.
+	 */
+	protected boolean isFixedRepresentative(LayoutNode ln) {
+		return ln.isLocked();
 	}
 	
 	@Override
@@ -231,4 +749,13 @@ public abstract class ForceDirectedLayoutTask extends AbstractPartitionLayoutTas
 	protected float getSpringCoefficient(LayoutEdge e) {
 		return (float)context.defaultSpringCoefficient;
 	}
+
+	/**
+	 * Get the force that pushes nodes apart, using the repulsion method
+	 * selected in the context.
+	 * @return a new repulsion force
+	 */
+	protected Force getRepulsionForce() {
+		return context.repulsion.getNewForce(context, monitor);
+	}
 }
@@ -0,0 +1,68 @@
+package ca.usask.vga.layout.magnetic;
+
+import org.cytoscape.model.CyNetwork;
+import org.cytoscape.model.CyNode;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.WeakHashMap;
+
+/**
+ * Remembers the outcome of the previous layout of each network, so that the next layout
+ * can start from it and only relax the part of the network that has changed since.
+ * Networks that are no longer in use are forgotten along with their records.
+ */
+public class LayoutHistory {
+
+    private final Map<CyNetwork, Map<CyNode, NodeRecord>> networks = new WeakHashMap<>();
+
+    /**
+     * The state of a node at the end of the previous layout.
+     */
+    public static class NodeRecord {
+        public final float x, y, vx, vy;
+        public final int degree;
+        /** Anything the forces depend on besides the location, e.g. the closest poles */
+        public final Object classification;
+
+        public NodeRecord(float x, float y, float vx, float vy, int degree, Object classification) {
+            this.x = x;
+            this.y = y;
+            this.vx = vx;
+            this.vy = vy;
+            this.degree = degree;
+            this.classification = classification;
+        }
+
+        /**
+         * Returns true if the node has gained or lost edges, or has been classified differently.
+         */
+        public boolean isChanged(int degree, Object classification) {
+            return this.degree != degree || !Objects.equals(this.classification, classification);
+        }
+    }
+
+    /**
+     * Returns the record of the given node, or null if it has not been laid out before.
+     */
+    public synchronized NodeRecord get(CyNetwork network, CyNode node) {
+        Map<CyNode, NodeRecord> records = networks.get(network);
+        return records != null ? records.get(node) : null;
+    }
+
+    public synchronized void put(CyNetwork network, CyNode node, NodeRecord record) {
+        networks.computeIfAbsent(network, n -> new HashMap<>()).put(node, record);
+    }
+
+    /**
+     * Returns true if any node of the given network has been laid out before.
+     */
+    public synchronized boolean contains(CyNetwork network) {
+        return networks.containsKey(network);
+    }
+
+    public synchronized void clear(CyNetwork network) {
+        networks.remove(network);
+    }
+}
@@ -18,6 +18,7 @@ public class PoleMagneticLayout extends AbstractLayoutAlgorithm {
 
     protected static final String ALGORITHM_ID = "magnetic-layout-poles";
     static final String ALGORITHM_DISPLAY_NAME = "Magnetic Layout - Poles";
+    private final LayoutHistory history = new LayoutHistory();
     private final PoleManager poleManager;
 
     public PoleMagneticLayout(PoleManager poleManager, UndoSupport undo) {
@@ -28,8 +29,10 @@ public class PoleMagneticLayout extends AbstractLayoutAlgorithm {
     @Override
     public TaskIterator createTaskIterator(CyNetworkView networkView, Object context, Set<View<CyNode>> nodesToLayOut,
                                            String attrName) {
-        return new TaskIterator(new PoleMagneticLayoutTask(toString(), networkView, nodesToLayOut,
-                (ForceDirectedLayoutContext) context, ForceDirectedLayout.Integrators.RUNGEKUTTA, attrName, undoSupport, poleManager));
+        PoleMagneticLayoutTask task = new PoleMagneticLayoutTask(toString(), networkView, nodesToLayOut,
+                (ForceDirectedLayoutContext) context, ((ForceDirectedLayoutContext) context).integrator, attrName, undoSupport, poleManager);
+        task.setLayoutHistory(history);
+        return new TaskIterator(task);
     }
 
     @Override
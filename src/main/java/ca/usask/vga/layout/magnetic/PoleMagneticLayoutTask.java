@@ -3,6 +3,7 @@ package ca.usask.vga.layout.magnetic;
 import ca.usask.vga.layout.magnetic.force.*;
 import ca.usask.vga.layout.magnetic.poles.PoleManager;
 import ca.usask.vga.layout.magnetic.util.*;
+import org.cytoscape.model.CyNetwork;
 import org.cytoscape.model.CyNode;
 import org.cytoscape.view.layout.LayoutEdge;
 import org.cytoscape.view.layout.LayoutNode;
@@ -13,9 +14,10 @@ import org.cytoscape.work.swing.DialogTaskManager;
 import org.cytoscape.work.undo.UndoSupport;
 import prefuse.util.force.*;
 
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 
 /**
@@ -26,29 +28,36 @@ import java.util.Set;
 public class PoleMagneticLayoutTask extends ForceDirectedLayoutTask {
 
     private final PoleManager poleManager;
-    protected MapPoleClassifier poleClassifier;
-    private Map<LayoutPartition, ErrorCalculator> errorCalc;
+    private final Map<LayoutPartition, MapPoleClassifier> poleClassifiers;
+    private final Map<LayoutPartition, ErrorCalculator> errorCalc;
 
     public PoleMagneticLayoutTask(String displayName, CyNetworkView networkView, Set<View<CyNode>> nodesToLayOut, ForceDirectedLayoutContext context, ForceDirectedLayout.Integrators integrator, String attrName, UndoSupport undo, PoleManager poleManager) {
         super(displayName, networkView, nodesToLayOut, context, integrator, attrName, undo);
         this.poleManager = poleManager;
-        poleClassifier = new MapPoleClassifier(networkView.getModel(), poleManager);
-        errorCalc = new HashMap<>();
+        poleClassifiers = new ConcurrentHashMap<>();
+        errorCalc = new ConcurrentHashMap<>();
     }
 
     @Override
-    protected void mapForceItem(LayoutNode ln, ForceItem fitem) {
-        poleClassifier.mapNode(fitem, ln);
+    protected void mapForceItem(LayoutPartition part, LayoutNode ln, ForceItem fitem) {
+        getPoleClassifier(part).mapNode(fitem, ln);
     }
 
     @Override
-    protected void mapSpring(LayoutEdge le, Spring spring) {
-        poleClassifier.mapEdge(spring, le);
+    protected void mapSpring(LayoutPartition part, LayoutEdge le, Spring spring) {
+        getPoleClassifier(part).mapEdge(spring, le);
     }
 
     @Override
-    protected void clearMaps() {
-        poleClassifier = new MapPoleClassifier(networkView.getModel(), poleManager);
+    protected void clearMaps(LayoutPartition part) {
+        poleClassifiers.put(part, new MapPoleClassifier(networkView.getModel(), poleManager));
+    }
+
+    /**
+     * Returns the pole classifier of the simulation currently set up for the given partition.
+     */
+    public MapPoleClassifier getPoleClassifier(LayoutPartition part) {
+        return poleClassifiers.computeIfAbsent(part, p -> new MapPoleClassifier(networkView.getModel(), poleManager));
     }
 
     @Override
@@ -57,12 +66,17 @@ public class PoleMagneticLayoutTask extends ForceDirectedLayoutTask {
         // REGISTERING FORCES
 
         // Default prefuse layout forces
-        m_fsim.addForce(new NBodyForce((float) -context.repulsionCoefficient, NBodyForce.DEFAULT_DISTANCE, NBodyForce.DEFAULT_THETA, monitor));  // Repulsion
+        m_fsim.addForce(getRepulsionForce());  // Repulsion
         m_fsim.addForce(new SpringForce());  // Spring Attraction (ideal dist)
         m_fsim.addForce(new DragForce());  // Dampening
 
         PoleMagneticLayoutContext context = (PoleMagneticLayoutContext) this.context;
 
+        // Freeze the classification of the mapped items, so that the forces look it up in constant time
+        boolean usesPoles = context.magnetEnabled && context.useMagneticPoles || context.pinPoles
+                || context.usePoleAttraction || context.useHierarchyForce;
+        PoleClassifier poleClassifier = usesPoles ? getPoleClassifier(part).compile(m_fsim.getState()) : null;
+
         // Magnetic force
         MagneticForce mf = null;
         if (context.magnetEnabled) {
@@ -102,8 +116,39 @@ public class PoleMagneticLayoutTask extends ForceDirectedLayoutTask {
 
     }
 
+    /**
+     * Returns the closest poles of the node and the distance to them, which
+     * the magnetic and hierarchy forces depend on.
+     */
+    @Override
+    protected Object getClassification(LayoutNode ln) {
+        CyNetwork network = networkView.getModel();
+        return Arrays.asList(poleManager.getClosestPoles(network, ln.getNode()),
+                poleManager.getClosestPoleDistance(network, ln.getNode()));
+    }
+
+    /**
+     * Keeps the poles as representatives of their groups in a multilevel layout,
+     * so that they keep acting as poles on every level.
+     */
+    @Override
+    protected boolean isFixedRepresentative(LayoutNode ln) {
+        return super.isFixedRepresentative(ln) || poleManager.isPole(networkView.getModel(), ln.getNode());
+    }
+
+    /**
+     * Returns false when auto layout is used, since it tunes the shared context for each partition.
+     */
+    @Override
+    protected boolean supportsConcurrentPartitions() {
+        return !((PoleMagneticLayoutContext) context).useAutoLayout;
+    }
+
     @Override
     public void layoutPartition(LayoutPartition part) {
+        if (applyConcurrentLayout(part))
+            return;
+
         PoleMagneticLayoutContext context = (PoleMagneticLayoutContext) this.context;
         if (context.useAutoLayout)
             new AutoLayout(this, part, monitor).run(taskMonitor);
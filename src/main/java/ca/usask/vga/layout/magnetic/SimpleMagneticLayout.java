@@ -17,6 +17,7 @@ public class SimpleMagneticLayout extends AbstractLayoutAlgorithm {
 
     protected static final String ALGORITHM_ID = "magnetic-layout-simple";
     static final String ALGORITHM_DISPLAY_NAME = "Magnetic Layout - Simple";
+    private final LayoutHistory history = new LayoutHistory();
 
     public SimpleMagneticLayout(UndoSupport undo) {
         super(ALGORITHM_ID, ALGORITHM_DISPLAY_NAME, undo);
@@ -25,8 +26,10 @@ public class SimpleMagneticLayout extends AbstractLayoutAlgorithm {
     @Override
     public TaskIterator createTaskIterator(CyNetworkView networkView, Object context, Set<View<CyNode>> nodesToLayOut,
                                            String attrName) {
-        return new TaskIterator(new SimpleMagneticLayoutTask(toString(), networkView, nodesToLayOut,
-                (ForceDirectedLayoutContext) context, ForceDirectedLayout.Integrators.RUNGEKUTTA, attrName, undoSupport));
+        SimpleMagneticLayoutTask task = new SimpleMagneticLayoutTask(toString(), networkView, nodesToLayOut,
+                (ForceDirectedLayoutContext) context, ((ForceDirectedLayoutContext) context).integrator, attrName, undoSupport);
+        task.setLayoutHistory(history);
+        return new TaskIterator(task);
     }
 
     @Override
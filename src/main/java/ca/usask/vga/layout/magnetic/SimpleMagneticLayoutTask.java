@@ -9,12 +9,11 @@ import org.cytoscape.view.model.View;
 import org.cytoscape.work.undo.UndoSupport;
 import prefuse.util.force.DragForce;
 import prefuse.util.force.ForceSimulator;
-import prefuse.util.force.NBodyForce;
 import prefuse.util.force.SpringForce;
 
-import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 
 /**
@@ -22,11 +21,11 @@ import java.util.Set;
  */
 public class SimpleMagneticLayoutTask extends ForceDirectedLayoutTask {
 
-    private Map<LayoutPartition, ErrorCalculator> errorCalc;
+    private final Map<LayoutPartition, ErrorCalculator> errorCalc;
 
     public SimpleMagneticLayoutTask(String displayName, CyNetworkView networkView, Set<View<CyNode>> nodesToLayOut, ForceDirectedLayoutContext context, ForceDirectedLayout.Integrators integrator, String attrName, UndoSupport undo) {
         super(displayName, networkView, nodesToLayOut, context, integrator, attrName, undo);
-        errorCalc = new HashMap<>();
+        errorCalc = new ConcurrentHashMap<>();
     }
 
     @Override
@@ -35,7 +34,7 @@ public class SimpleMagneticLayoutTask extends ForceDirectedLayoutTask {
         // REGISTERING FORCES
 
         // Default prefuse layout forces
-        m_fsim.addForce(new NBodyForce((float) -context.repulsionCoefficient, NBodyForce.DEFAULT_DISTANCE, NBodyForce.DEFAULT_THETA, monitor));  // Repulsion
+        m_fsim.addForce(getRepulsionForce());  // Repulsion
         m_fsim.addForce(new SpringForce());  // Attraction (ideal dist)
         m_fsim.addForce(new DragForce());  // Dampening
 
@@ -33,6 +33,35 @@ public enum FieldType {
         return function.getFieldAt(pos);
     }
 
+    /**
+     * Returns the x component of {@link #getFieldAt(Vector)} without allocating.
+     */
+    public float getFieldX(float x, float y) {
+        switch (this) {
+            case HORIZONTAL: return 1;
+            case VERTICAL: return 0;
+            case POLAR: return normalize(x, x, y);
+            default: return normalize(y, x, y);
+        }
+    }
+
+    /**
+     * Returns the y component of {@link #getFieldAt(Vector)} without allocating.
+     */
+    public float getFieldY(float x, float y) {
+        switch (this) {
+            case HORIZONTAL: return 0;
+            case VERTICAL: return 1;
+            case POLAR: return normalize(y, x, y);
+            default: return normalize(-x, x, y);
+        }
+    }
+
+    private static float normalize(float component, float x, float y) {
+        float magnitude = (float) Math.sqrt(x*x + y*y);
+        return magnitude == 0 ? 0 : component / magnitude;
+    }
+
     public interface FieldFunction {
         Vector getFieldAt(Vector pos);
     }
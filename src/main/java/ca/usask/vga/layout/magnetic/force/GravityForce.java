@@ -35,14 +35,17 @@ public class GravityForce extends AbstractForce {
     }
 
     @Override
-    public void getForce(ForceItem item) {
+    public boolean isThreadSafe() {
+        return true;
+    }
 
-        Vector nodePos = new Vector(item.location[0], item.location[1]);
+    @Override
+    public void getForce(ForceItem item) {
 
-        Vector disp = centerPos.subtract(nodePos).times(gravityConstant);
+        float dx = (centerPos.x - item.getX()) * gravityConstant;
+        float dy = (centerPos.y - item.getY()) * gravityConstant;
 
-        item.force[0] += disp.x;
-        item.force[1] += disp.y;
+        item.addForce(dx, dy);
 
     }
 }
@@ -1,7 +1,6 @@
 package ca.usask.vga.layout.magnetic.force;
 
 import ca.usask.vga.layout.magnetic.util.PoleClassifier;
-import ca.usask.vga.layout.magnetic.util.Vector;
 import org.cytoscape.view.layout.LayoutPartition;
 import org.jetbrains.annotations.NotNull;
 import prefuse.util.force.AbstractForce;
@@ -50,6 +49,15 @@ public class HierarchyForce extends AbstractForce {
         return true;
     }
 
+    /**
+     * Returns true if the pole classifier can be queried concurrently.
+     * @see prefuse.util.force.Force#isThreadSafe()
+     */
+    @Override
+    public boolean isThreadSafe() {
+        return classifier.isThreadSafe();
+    }
+
     public static float getSuggestedRadius(LayoutPartition part) {
         float circle_radius = (float) Math.max(part.getWidth(), part.getHeight()) / 2;
         return circle_radius / 5; // Enough for 5 rings
@@ -63,28 +71,30 @@ public class HierarchyForce extends AbstractForce {
         ForceItem pole = classifier.closestPole(item);
         if (pole == null) return;
 
-        Vector nodePos = Vector.convert(item.location);
-        Vector polePos = Vector.convert(pole.location);
-        Vector disp = nodePos.subtract(polePos);
-        float dist = disp.magnitude();
+        float dx = item.getX() - pole.getX();
+        float dy = item.getY() - pole.getY();
+        float dist = (float) Math.sqrt(dx*dx + dy*dy);
+
+        // The force acts along the direction away from the pole
+        if (dist == 0) return;
+        float ux = dx / dist, uy = dy / dist;
 
-        Vector force = new Vector();
+        float magnitude = 0;
 
         if (type == Type.BASED_ON_HOP_DISTANCE) {
             int hop_distance = classifier.closestPoleDistance(item);
             float desired_dist = hop_distance * hierarchyRadius;
-            force = disp.normalized().times((desired_dist - dist) * forceStrength);
+            magnitude = (desired_dist - dist) * forceStrength;
         } else if (type == Type.SINE_FUNCTION) {
             if (dist < hierarchyRadius * 0.75) {
                 // Do not attract to the pole
-                force = disp.normalized().times(forceStrength / (0.75f));
+                magnitude = forceStrength / (0.75f);
             } else {
-                force = disp.normalized().times((float) Math.sin(2 * Math.PI * dist / hierarchyRadius)
-                        * forceStrength * (-hierarchyRadius / dist));
+                magnitude = (float) Math.sin(2 * Math.PI * dist / hierarchyRadius)
+                        * forceStrength * (-hierarchyRadius / dist);
             }
         }
 
-        item.force[0] += force.x;
-        item.force[1] += force.y;
+        item.addForce(ux * magnitude, uy * magnitude);
     }
 }
@@ -4,9 +4,6 @@ import ca.usask.vga.layout.magnetic.util.PoleClassifier;
 import ca.usask.vga.layout.magnetic.util.Vector;
 import prefuse.util.force.*;
 
-import static ca.usask.vga.layout.magnetic.util.Vector.powf;
-import static ca.usask.vga.layout.magnetic.util.Vector.sign;
-
 
 /**
  * Magnetic force aligns directed edges with a magnetic field.
@@ -21,6 +18,10 @@ public class MagneticForce extends AbstractForce {
     final PoleClassifier classifier;
     final boolean usePoles;
 
+    /** Field of the springs evaluated at once by each thread, grown to the largest batch */
+    private static final ThreadLocal<float[][]> FIELD =
+            ThreadLocal.withInitial(() -> new float[][] { new float[64], new float[64] });
+
     /**
      * Constructor for the {@link MagneticForce} class.
      * Uses a simplified version of the Magnetic Force calculation.
@@ -68,73 +69,96 @@ public class MagneticForce extends AbstractForce {
         return true;
     }
 
+    /**
+     * Returns true unless poles are used with a classifier that may fill its caches lazily.
+     * @see prefuse.util.force.Force#isThreadSafe()
+     */
+    @Override
+    public boolean isThreadSafe() {
+        return !usePoles || classifier == null || classifier.isThreadSafe();
+    }
+
+    /**
+     * Returns true when the force is thread-safe, so that whole batches of springs
+     * are evaluated at once by {@link ForceKernels#magneticForces}.
+     * @see prefuse.util.force.Force#isBulkForce()
+     */
+    @Override
+    public boolean isBulkForce() {
+        return isThreadSafe();
+    }
+
     /**
      * Calculates the force vector acting on the items due to the magnetic force.
+     * Works on the coordinates directly, so that no vectors are allocated per spring.
      * @param s the Spring (Edge) for which to compute the force
      * @see prefuse.util.force.Force#getForce(prefuse.util.force.Spring)
      */
     public void getForce(Spring s) {
-
-        // Initialize variables
-        ForceItem item1 = s.item1;
-        ForceItem item2 = s.item2;
-
-        Vector pos_n = new Vector(item1.location[0], item1.location[1]);
-        Vector pos_t = new Vector(item2.location[0], item2.location[1]);
-
-        Vector disp = pos_n.displacement(pos_t);
-        float dist = disp.magnitude();
-
-        if (dist == 0.0)
-            // No force is applied
+        SimulationState st = s.getState();
+        int index = s.getIndex();
+        float[][] field = FIELD.get();
+        if (!getField(st, index, field[0], field[1], 0))
             return;
+        ForceKernels.magneticForce(st, index, field[0][0], field[1][0], field_strength, alpha, beta, bi_directional);
+    }
 
-        Vector field_direction;
-        Vector midpoint = getCenter(pos_n, pos_t);
-
-        if (!usePoles) {
-            field_direction = field_type.getFieldAt(midpoint);
-        } else {
-            field_direction = getMultiPoleFieldFor(midpoint, s);
+    /**
+     * Calculates the magnetic force on the springs springs[from] to springs[to-1]. The field
+     * at each spring is looked up here, and the force itself is computed by the kernels in
+     * use, several springs at a time when vectorised.
+     * @see prefuse.util.force.Force#getSpringForces(prefuse.util.force.SimulationState, int[], int, int)
+     */
+    @Override
+    public void getSpringForces(SimulationState state, int[] springs, int from, int to) {
+        float[][] field = FIELD.get();
+        if (field[0].length < to - from)
+            FIELD.set(field = new float[][] { new float[to - from], new float[to - from] });
+        float[] mx = field[0], my = field[1];
+        for (int k = from; k < to; k++) {
+            if (!getField(state, springs[k], mx, my, k - from))
+                mx[k - from] = my[k - from] = 0; // no force
         }
+        ForceKernels.magneticForces(state, springs, from, to, mx, my, field_strength, alpha, beta, bi_directional);
+    }
 
-        int edge_dir = 1; // Edge direction is always the same since item2 is the target
-        field_direction = field_direction.times(edge_dir);
-
-        if (field_direction.magnitude() == 0.0)
-            return; // Cannot compute the angle when zero
+    /**
+     * Stores the direction of the magnetic field at the middle of the given spring, or
+     * towards (or away from) its pole, at the given position of the arrays.
+     * @return false if the spring has no single pole to be aligned with
+     */
+    private boolean getField(SimulationState st, int s, float[] mx, float[] my, int at) {
+        int i1 = st.source[s];
+        int i2 = st.target[s];
 
-        // CALCULATE FORCE
-        Vector force_on_n = magnetic_equation(field_direction, disp, field_strength, alpha, beta);
+        // Field direction at the midpoint (other center calculations can be added)
+        float cx = (st.x[i1] + st.x[i2]) * 0.5f, cy = (st.y[i1] + st.y[i2]) * 0.5f;
 
-        Vector force_on_t = force_on_n.times(-1);
+        if (!usePoles) {
+            mx[at] = field_type.getFieldX(cx, cy);
+            my[at] = field_type.getFieldY(cx, cy);
+            return true;
+        }
+        ForceItem pole = getFieldPole(st.getSpring(s));
+        if (pole == null)
+            return false;
+        float sign = classifier.isPoleOutwards(pole) ? -1 : 1;
+        mx[at] = sign * (pole.getX() - cx);
+        my[at] = sign * (pole.getY() - cy);
+        return true;
+    }
 
-        item1.force[0] += force_on_n.x;
-        item1.force[1] += force_on_n.y;
-        item2.force[0] += force_on_t.x;
-        item2.force[1] += force_on_t.y;
+    private static float clamp(float cos) {
+        return Math.min(Math.max(cos, -1.0f), 1.0f);
     }
 
     /**
-     * Calculates the force vector acting on the nodes due to the magnetic force.
-     * @param m Magnetic field vector
-     * @param d Vector direction of the edge
-     * @param b Strength of the magnetic field
-     * @param alpha Exponent of the distance term
-     * @param beta Exponent of the angle term
-     * @return Vector representing the force on the node
+     * Returns the pole the given edge is aligned with, or null if the edge has no single closest pole.
      */
-    private Vector magnetic_equation(Vector m, Vector d, float b, float alpha, float beta)
-    {
-        float dist = (float) Math.sqrt(d.magnitude());
-        Vector force_on_n;
-        if (!bi_directional)
-            force_on_n = d.rotate90clockwise().times(-(b * powf(dist, alpha-1) *
-                    powf(m.angleCos(d), beta) * sign(m.cross(d))));
-        else
-            force_on_n = d.rotate90clockwise().times(-(b * powf(dist, alpha-1) *
-                    powf(Math.abs(m.angleSin(d)), beta) * sign(m.cross(d) * m.dot(d))));
-        return force_on_n;
+    private ForceItem getFieldPole(Spring edge) {
+        if (classifier == null || !classifier.isClosestToOne(edge))
+            return null;
+        return classifier.poleOf(edge);
     }
 
     /**
@@ -145,16 +169,11 @@ public class MagneticForce extends AbstractForce {
      */
     public Vector getMultiPoleFieldFor(Vector pos, Spring edge) {
 
-        if (classifier == null)
-            return new Vector();
-
-        if (!classifier.isClosestToOne(edge))
+        ForceItem closestPole = getFieldPole(edge);
+        if (closestPole == null)
             return new Vector();
 
-        ForceItem closestPole = classifier.poleOf(edge);
-        assert closestPole != null;
-
-        Vector polePos = new Vector(closestPole.location[0], closestPole.location[1]);
+        Vector polePos = Vector.convert(closestPole);
 
         Vector disp = polePos.subtract(pos);
         if (classifier.isPoleOutwards(closestPole))
@@ -162,17 +181,6 @@ public class MagneticForce extends AbstractForce {
         return disp;
     }
 
-    /**
-     * Returns the center of the spring given the two nodes.
-     * @param from Position of the source node
-     * @param to Position of the target node
-     * @return Vector representing the center position of the edge
-     */
-    protected Vector getCenter(Vector from, Vector to) {
-        // Midpoint (other center calculations can be added)
-        return from.add(to).times(0.5f);
-    }
-
     /**
      * Utility function to calculate edge misalignment.
      * @param s Spring to be evaluated
@@ -180,25 +188,36 @@ public class MagneticForce extends AbstractForce {
      */
     public float getEdgeMisalignment(Spring s) {
 
-        ForceItem item1 = s.item1;
-        ForceItem item2 = s.item2;
-
-        Vector pos_n = new Vector(item1.location[0], item1.location[1]);
-        Vector pos_t = new Vector(item2.location[0], item2.location[1]);
-
-        Vector disp = pos_n.displacement(pos_t);
+        SimulationState st = s.getState();
+        int i1 = st.source[s.getIndex()];
+        int i2 = st.target[s.getIndex()];
+        float x1 = st.x[i1], y1 = st.y[i1];
+        float x2 = st.x[i2], y2 = st.y[i2];
 
-        Vector field_direction;
-        Vector midpoint = getCenter(pos_n, pos_t);
+        float dx = x2 - x1, dy = y2 - y1;
+        float cx = (x1 + x2) * 0.5f, cy = (y1 + y2) * 0.5f;
+        float mx = 0, my = 0;
 
         if (!usePoles) {
-            field_direction = field_type.getFieldAt(midpoint);
+            mx = field_type.getFieldX(cx, cy);
+            my = field_type.getFieldY(cx, cy);
         } else {
-            field_direction = getMultiPoleFieldFor(midpoint, s);
+            ForceItem pole = getFieldPole(s);
+            if (pole != null) {
+                mx = pole.getX() - cx;
+                my = pole.getY() - cy;
+                if (classifier.isPoleOutwards(pole)) {
+                    mx = -mx;
+                    my = -my;
+                }
+            }
         }
 
-        float angle = field_direction.angleCos(disp);
-        return Math.abs(angle);
+        float m = (float) Math.sqrt(mx*mx + my*my);
+        float d = (float) Math.sqrt(dx*dx + dy*dy);
+        if (m == 0 || d == 0)
+            return 0;
+        return (float) Math.acos(clamp((mx*dx + my*dy) / (m * d)));
 
     }
 
@@ -122,10 +122,10 @@ public class PinForce extends AbstractForce {
 
         if(isPinned(item)) {
 
-            Vector currentPos = new Vector(item.location[0], item.location[1]);
+            Vector originalPos = savedPolePos.get(item);
 
-            if (!savedPolePos.containsKey(item)) {
-                savedPolePos.put(item, currentPos);
+            if (originalPos == null) {
+                savedPolePos.put(item, Vector.convert(item));
                 if (circlePin)
                     pinAroundCircle(shapeCenter, shape_size);
                 if (polygonPin)
@@ -133,11 +133,10 @@ public class PinForce extends AbstractForce {
                 return;
             }
 
-            Vector originalPos = savedPolePos.get(item);
-            Vector disp = originalPos.subtract(currentPos).times(soft_pin_factor);
+            float dx = (originalPos.x - item.getX()) * soft_pin_factor;
+            float dy = (originalPos.y - item.getY()) * soft_pin_factor;
 
-            item.force[0] += disp.x;
-            item.force[1] += disp.y;
+            item.addForce(dx, dy);
 
         }
 
@@ -1,7 +1,6 @@
 package ca.usask.vga.layout.magnetic.force;
 
 import ca.usask.vga.layout.magnetic.util.PoleClassifier;
-import ca.usask.vga.layout.magnetic.util.Vector;
 import org.jetbrains.annotations.NotNull;
 import prefuse.util.force.AbstractForce;
 import prefuse.util.force.ForceItem;
@@ -33,10 +32,17 @@ public class PoleGravityForce extends AbstractForce {
         return true;
     }
 
+    /**
+     * Returns true if the pole classifier can be queried concurrently.
+     * @see prefuse.util.force.Force#isThreadSafe()
+     */
     @Override
-    public void getForce(ForceItem item) {
+    public boolean isThreadSafe() {
+        return classifier.isThreadSafe();
+    }
 
-        Vector nodePos = new Vector(item.location[0], item.location[1]);
+    @Override
+    public void getForce(ForceItem item) {
 
         ForceItem pole = classifier.closestPole(item);
 
@@ -46,12 +52,10 @@ public class PoleGravityForce extends AbstractForce {
 
         if (distanceToPole == 0) return;
 
-        Vector polePos = new Vector(pole.location[0], pole.location[1]);
-
-        Vector disp = polePos.subtract(nodePos).times(gravityConstant).divide(distanceToPole);
+        float dx = (pole.getX() - item.getX()) * gravityConstant / distanceToPole;
+        float dy = (pole.getY() - item.getY()) * gravityConstant / distanceToPole;
 
-        item.force[0] += disp.x;
-        item.force[1] += disp.y;
+        item.addForce(dx, dy);
 
     }
 }
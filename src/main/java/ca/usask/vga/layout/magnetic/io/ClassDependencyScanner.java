@@ -0,0 +1,201 @@
+package ca.usask.vga.layout.magnetic.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.function.Consumer;
+
+/**
+ * Finds the classes that a compiled class depends on, straight from the bytes of its class file.
+ * Only the constant pool is read, which lists every class the code refers to, so no methods
+ * or instructions are parsed. The classes are named as in Java, e.g. java.lang.String or
+ * package.Outer$Inner, and array classes are left out, the same as the class references
+ * of the {@link gr.gousiosg.javacg.stat.ClassVisitor}.
+ * <p>
+ * Classes that are only named in descriptors and generic signatures, such as the element
+ * types of collections, are not referred to as classes. They can be included optionally,
+ * at the cost of reading the fields, methods and attributes of the class as well.
+ */
+public class ClassDependencyScanner {
+
+    private static final int MAGIC = 0xCAFEBABE;
+
+    private static final int UTF8 = 1, INTEGER = 3, FLOAT = 4, LONG = 5, DOUBLE = 6, CLASS = 7, STRING = 8,
+            FIELD_REF = 9, METHOD_REF = 10, INTERFACE_METHOD_REF = 11, NAME_AND_TYPE = 12, METHOD_HANDLE = 15,
+            METHOD_TYPE = 16, DYNAMIC = 17, INVOKE_DYNAMIC = 18, MODULE = 19, PACKAGE = 20;
+
+    private final boolean includeSignatures;
+
+    /**
+     * @param includeSignatures whether to also include the classes named in the descriptors
+     *                          and generic signatures of the class
+     */
+    public ClassDependencyScanner(boolean includeSignatures) {
+        this.includeSignatures = includeSignatures;
+    }
+
+    /**
+     * Scans a class file and passes every class it refers to to the consumer, including the
+     * class itself. A class may be passed more than once.
+     * @return the name of the scanned class
+     * @throws IOException if the bytes are not a valid class file
+     */
+    public String scan(byte[] classFile, Consumer<String> references) throws IOException {
+        try {
+            return new Pool(ByteBuffer.wrap(classFile)).scan(references);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+            throw new IOException("Truncated class file", e);
+        }
+    }
+
+    /**
+     * The constant pool of a single class file, of which only the offsets are kept.
+     */
+    private final class Pool {
+        private final ByteBuffer in;
+        private final byte[] tags;
+        /** Position of the data of every constant, after its tag */
+        private final int[] offsets;
+
+        Pool(ByteBuffer in) throws IOException {
+            this.in = in;
+            if (in.getInt() != MAGIC)
+                throw new IOException("Not a class file");
+            in.getInt(); // minor and major version
+
+            int count = u2();
+            tags = new byte[count];
+            offsets = new int[count];
+            for (int i = 1; i < count; i++) {
+                int tag = in.get();
+                tags[i] = (byte) tag;
+                offsets[i] = in.position();
+                switch (tag) {
+                    case UTF8: skip(u2()); break;
+                    case CLASS: case STRING: case METHOD_TYPE: case MODULE: case PACKAGE: skip(2); break;
+                    case METHOD_HANDLE: skip(3); break;
+                    case INTEGER: case FLOAT: case FIELD_REF: case METHOD_REF: case INTERFACE_METHOD_REF:
+                    case NAME_AND_TYPE: case DYNAMIC: case INVOKE_DYNAMIC: skip(4); break;
+                    case LONG: case DOUBLE: skip(8); i++; break; // takes two entries
+                    default: throw new IOException("Unknown constant pool tag " + tag);
+                }
+            }
+        }
+
+        String scan(Consumer<String> references) throws IOException {
+            for (int i = 1; i < tags.length; i++) {
+                if (tags[i] == CLASS) {
+                    String name = utf8(in.getShort(offsets[i]) & 0xFFFF);
+                    // Skip array class names
+                    if (!name.startsWith("["))
+                        references.accept(name.replace('/', '.'));
+                }
+            }
+            in.getShort(); // access flags
+            int thisClass = u2();
+            String className = utf8(in.getShort(offsets[thisClass]) & 0xFFFF).replace('/', '.');
+
+            if (includeSignatures)
+                scanSignatures(references);
+            return className;
+        }
+
+        /**
+         * Reads the descriptors of the constant pool, and the descriptors and signatures
+         * of the class and its fields and methods.
+         */
+        private void scanSignatures(Consumer<String> references) throws IOException {
+            for (int i = 1; i < tags.length; i++) {
+                if (tags[i] == NAME_AND_TYPE)
+                    scanSignature(utf8(in.getShort(offsets[i] + 2) & 0xFFFF), references);
+                else if (tags[i] == METHOD_TYPE)
+                    scanSignature(utf8(in.getShort(offsets[i]) & 0xFFFF), references);
+            }
+            in.getShort(); // super class
+            skip(2 * u2()); // interfaces
+            for (int members = 0; members < 2; members++) {
+                int count = u2();
+                for (int m = 0; m < count; m++) {
+                    in.getShort(); // access flags
+                    in.getShort(); // name
+                    scanSignature(utf8(u2()), references);
+                    scanAttributes(references);
+                }
+            }
+            scanAttributes(references);
+        }
+
+        private void scanAttributes(Consumer<String> references) throws IOException {
+            int count = u2();
+            for (int a = 0; a < count; a++) {
+                String name = utf8(u2());
+                int length = in.getInt();
+                if (name.equals("Signature")) {
+                    scanSignature(utf8(in.getShort(in.position()) & 0xFFFF), references);
+                }
+                skip(length);
+            }
+        }
+
+        private String utf8(int index) throws IOException {
+            if (index <= 0 || index >= tags.length || tags[index] != UTF8)
+                throw new IOException("Invalid constant pool reference " + index);
+            int offset = offsets[index], length = in.getShort(offset) & 0xFFFF;
+            byte[] bytes = in.array();
+            int start = in.arrayOffset() + offset + 2;
+            char[] chars = new char[length];
+            for (int k = 0; k < length; k++) {
+                byte b = bytes[start + k];
+                if (b <= 0) // not ASCII, decode modified UTF-8
+                    return new DataInputStream(new ByteArrayInputStream(bytes, start - 2, length + 2)).readUTF();
+                chars[k] = (char) b;
+            }
+            return new String(chars);
+        }
+
+        private int u2() {
+            return in.getShort() & 0xFFFF;
+        }
+
+        private void skip(int n) throws IOException {
+            if (n < 0 || n > in.remaining())
+                throw new IOException("Truncated class file");
+            in.position(in.position() + n);
+        }
+    }
+
+    /**
+     * Passes every class named in a field or method descriptor, or in a generic signature.
+     * Type variables and the names of type parameters are skipped, and the classes of
+     * inner types of parameterized types, like Outer&lt;T&gt;.Inner, are not completed.
+     */
+    static void scanSignature(String s, Consumer<String> references) {
+        int i = 0, n = s.length();
+        while (i < n) {
+            char c = s.charAt(i);
+            if (c == 'L' || c == 'T') {
+                int j = i + 1;
+                while (j < n && ";<.:".indexOf(s.charAt(j)) < 0)
+                    j++;
+                if (j < n && s.charAt(j) == ':') {
+                    // The name of a type parameter, followed by its bounds
+                    i = j + 1;
+                    continue;
+                }
+                if (c == 'L')
+                    references.accept(s.substring(i + 1, j).replace('/', '.'));
+                if (j < n && s.charAt(j) == '.') {
+                    // The simple name of an inner type
+                    j++;
+                    while (j < n && ";<.".indexOf(s.charAt(j)) < 0)
+                        j++;
+                }
+                i = j;
+            } else {
+                i++;
+            }
+        }
+    }
+}
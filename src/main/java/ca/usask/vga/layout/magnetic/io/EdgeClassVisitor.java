@@ -1,11 +1,13 @@
 package ca.usask.vga.layout.magnetic.io;
 
+import com.github.javaparser.JavaParser;
 import com.github.javaparser.ParserConfiguration;
 import com.github.javaparser.ast.CompilationUnit;
 import com.github.javaparser.ast.body.*;
 import com.github.javaparser.ast.expr.*;
 import com.github.javaparser.ast.nodeTypes.NodeWithType;
 import com.github.javaparser.ast.type.ClassOrInterfaceType;
+import com.github.javaparser.ast.type.Type;
 import com.github.javaparser.ast.visitor.GenericListVisitorAdapter;
 import com.github.javaparser.symbolsolver.JavaSymbolSolver;
 import com.github.javaparser.symbolsolver.resolution.typesolvers.*;
@@ -13,9 +15,11 @@ import com.github.javaparser.utils.SourceRoot;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.InvalidPathException;
-import java.nio.file.Path;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
 import java.util.function.Supplier;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -28,12 +32,24 @@ public class EdgeClassVisitor extends GenericListVisitorAdapter<String, Map<Stri
 
     private String currentClassName;
 
+    /** Types resolved by the symbol solver, by the class they are used in and their name, see {@link #resolveCached} */
+    private final Map<String, String> resolvedTypes;
+    private static final String UNRESOLVED = "";
+
+    /** If not null, types are looked up among these classes instead of being resolved, see {@link #resolveByName} */
+    private final Set<String> knownClasses;
+    private String currentPackage = "";
+    private final Map<String, String> singleTypeImports = new HashMap<>();
+    private final List<String> onDemandImports = new ArrayList<>();
+
     private String USES = "USES", CALL = "CALL", CREATION = "CREATION", DECLARATION = "DECLARATION",
             RETURN = "RETURN", PARAMETER = "PARAMETER", EXTENDS = "EXTENDS", IMPLEMENTS = "IMPLEMENTS",
             FIELD = "FIELD", INSIDEOF = "INSIDEOF";
 
     private static final Pattern INNER_CLASS = Pattern.compile("\\.[A-Z][A-Za-z0-9]*(?=\\.[A-Z0-9])");
 
+    private static final Pattern JAVA_IDENTIFIER = Pattern.compile("\\p{javaJavaIdentifierStart}\\p{javaJavaIdentifierPart}*");
+
     /**
      * A way to get around the fact that JavaParser doesn't handle inner classes
      * the same way compiled Java does. This replaces every occurrence of . after the outer class with $.
@@ -77,15 +93,16 @@ public class EdgeClassVisitor extends GenericListVisitorAdapter<String, Map<Stri
                 return super.put(key, value);
             }
         };
+        Map<String, String> resolvedTypes = new HashMap<>();
         for (var cu : compilations) {
-            new EdgeClassVisitor(allInteractions).visit(cu, classDefinitions);
+            new EdgeClassVisitor(allInteractions, resolvedTypes, null).visit(cu, classDefinitions);
             if (hasBeenCancelled.get()) {
                 System.out.println("\nCancelled by user."); return null;
             }
         }
         Set<String> edges = new HashSet<>();
         for (var cu : compilations) {
-            edges.addAll(new EdgeClassVisitor(allInteractions).visit(cu, classDefinitions));
+            edges.addAll(new EdgeClassVisitor(allInteractions, resolvedTypes, null).visit(cu, classDefinitions));
             if (hasBeenCancelled.get()) {
                 System.out.println("\nCancelled by user."); return null;
             }
@@ -129,6 +146,22 @@ public class EdgeClassVisitor extends GenericListVisitorAdapter<String, Map<Stri
 
         Path pathToSource = new File(srcFolder).toPath();
 
+        SourceRoot sourceRoot = new SourceRoot(pathToSource, createParserConfiguration(pathToSource));
+        try {
+            sourceRoot.tryToParse();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        return sourceRoot.getCompilationUnits();
+    }
+
+    /**
+     * Creates a parser configuration that resolves types with its own symbol solver, which
+     * looks at the JDK classes and the source files in the given folder. The caches of a
+     * symbol solver are not thread-safe, so every thread must use its own configuration.
+     */
+    private static ParserConfiguration createParserConfiguration(Path pathToSource) {
         // Set up a minimal type solver that only looks at the classes used to run this sample.
         CombinedTypeSolver combinedTypeSolver = new CombinedTypeSolver();
         combinedTypeSolver.add(new ReflectionTypeSolver());
@@ -138,15 +171,177 @@ public class EdgeClassVisitor extends GenericListVisitorAdapter<String, Map<Stri
         JavaSymbolSolver symbolSolver = new JavaSymbolSolver(combinedTypeSolver);
         ParserConfiguration config = new ParserConfiguration();
         config.setSymbolResolver(symbolSolver);
+        return config;
+    }
 
-        SourceRoot sourceRoot = new SourceRoot(pathToSource, config);
+    /**
+     * Parses and visits all Java source files in the given folder on a pool of threads, and returns a set
+     * of both nodes and edges, like {@link #visitAll(Collection, boolean, Supplier)} does for the compilation
+     * units returned by {@link #parseSRCFolder(String)}. The files are split between the threads, which each
+     * parse their files, collect their class definitions into a shared map, and once all class definitions
+     * are known, collect the edges of their files.
+     * <p>
+     * In fast mode, the symbol solver is not used. The class definitions are taken from the declarations
+     * alone, and the edges are collected in a single pass, finding the classes by their names among the
+     * imports, the same package and the class definitions. Method calls are not followed, and names that
+     * are hidden by nested or local declarations may be matched to the wrong class.
+     * @param srcFolder the Java src folder
+     * @param allInteractions whether to include all interaction names or remove redundant edges
+     * @param fastMode whether to look up types by name instead of resolving them
+     * @param numThreads the number of threads to use
+     * @param hasBeenCancelled a function that returns true if the operation has been cancelled
+     * @return two sets of nodes and edges, or null if the operation has been cancelled
+     */
+    public static Set<String>[] parseAndVisitAll(String srcFolder, boolean allInteractions, boolean fastMode,
+                                                 int numThreads, Supplier<Boolean> hasBeenCancelled) {
+        Path pathToSource = new File(getPackagesFolder(srcFolder)).toPath();
+        List<Path> files = findSourceFiles(pathToSource);
+
+        numThreads = Math.max(1, Math.min(numThreads, files.size()));
+        List<SourceWorker> workers = new ArrayList<>();
+        for (int w = 0; w < numThreads; w++)
+            workers.add(new SourceWorker(fastMode ? new ParserConfiguration() : createParserConfiguration(pathToSource)));
+        for (int i = 0; i < files.size(); i++)
+            workers.get(i % numThreads).files.add(files.get(i));
+
+        Set<String> nodes = ConcurrentHashMap.newKeySet();
+        Map<String, String> classDefinitions = new ConcurrentHashMap<>() {
+            @Override
+            public String put(String key, String value) {
+                nodes.add(value);
+                return super.put(key, value);
+            }
+        };
+
+        Map<String, String> resolvedTypes = new ConcurrentHashMap<>();
+        Supplier<EdgeClassVisitor> visitors = () -> new EdgeClassVisitor(allInteractions, resolvedTypes, fastMode ? nodes : null);
+
+        ForkJoinPool pool = new ForkJoinPool(numThreads);
         try {
-            sourceRoot.tryToParse();
+            // Every pass must be finished by all workers before the next one starts
+            boolean completed = runAll(pool, workers, w -> w.parse(hasBeenCancelled), hasBeenCancelled);
+            if (fastMode) {
+                completed = completed
+                        && runAll(pool, workers, w -> w.defineClasses(classDefinitions, hasBeenCancelled), hasBeenCancelled);
+            } else {
+                completed = completed
+                        && runAll(pool, workers, w -> w.visit(visitors, classDefinitions, null, hasBeenCancelled), hasBeenCancelled);
+            }
+            completed = completed
+                    && runAll(pool, workers, w -> w.visit(visitors, classDefinitions, w.edges, hasBeenCancelled), hasBeenCancelled);
+            if (!completed) {
+                System.out.println("\nCancelled by user."); return null;
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        Set<String> edges = new HashSet<>();
+        for (var w : workers)
+            edges.addAll(w.edges);
+        System.out.println("\nDone Java class import!");
+        return new Set[]{new HashSet<>(nodes), edges};
+    }
+
+    /**
+     * Runs the given pass on all workers at the same time and waits for them to finish.
+     * @return false if the operation has been cancelled
+     */
+    private static boolean runAll(ForkJoinPool pool, List<SourceWorker> workers, Consumer<SourceWorker> pass,
+                                  Supplier<Boolean> hasBeenCancelled) {
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (var w : workers)
+            tasks.add(() -> { pass.accept(w); return null; });
+        for (var task : pool.invokeAll(tasks)) {
+            try {
+                task.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            } catch (ExecutionException e) {
+                throw new RuntimeException(e.getCause());
+            }
+        }
+        return !hasBeenCancelled.get();
+    }
+
+    /**
+     * Finds all Java source files in the given folder, skipping the same folders as {@link SourceRoot}:
+     * hidden folders and folders that are not valid package names.
+     */
+    private static List<Path> findSourceFiles(Path root) {
+        List<Path> files = new ArrayList<>();
+        try {
+            Files.walkFileTree(root, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                    if (!dir.equals(root) && (Files.isHidden(dir)
+                            || !JAVA_IDENTIFIER.matcher(dir.getFileName().toString()).matches()))
+                        return FileVisitResult.SKIP_SUBTREE;
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    if (file.toString().endsWith(".java"))
+                        files.add(file);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
+        return files;
+    }
 
-        return sourceRoot.getCompilationUnits();
+    /**
+     * The source files of one thread, with their own parser and symbol solver.
+     */
+    private static final class SourceWorker {
+        final List<Path> files = new ArrayList<>();
+        final List<CompilationUnit> compilations = new ArrayList<>();
+        final Set<String> edges = new HashSet<>();
+        final JavaParser parser;
+
+        SourceWorker(ParserConfiguration config) {
+            parser = new JavaParser(config);
+        }
+
+        void parse(Supplier<Boolean> hasBeenCancelled) {
+            for (var file : files) {
+                if (hasBeenCancelled.get()) return;
+                try {
+                    var result = parser.parse(file);
+                    if (result.isSuccessful())
+                        result.getResult().ifPresent(compilations::add);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        }
+
+        /**
+         * Adds the classes declared in the compilation units of the worker to the class definitions.
+         */
+        void defineClasses(Map<String, String> classDefinitions, Supplier<Boolean> hasBeenCancelled) {
+            for (var cu : compilations) {
+                if (hasBeenCancelled.get()) return;
+                EdgeClassVisitor.defineClasses(cu, classDefinitions);
+            }
+        }
+
+        /**
+         * Visits all compilation units of the worker, adding the edges to the given set, if any.
+         */
+        void visit(Supplier<EdgeClassVisitor> visitors, Map<String, String> classDefinitions, Set<String> edges,
+                   Supplier<Boolean> hasBeenCancelled) {
+            for (var cu : compilations) {
+                if (hasBeenCancelled.get()) return;
+                List<String> result = visitors.get().visit(cu, classDefinitions);
+                if (edges != null)
+                    edges.addAll(result);
+            }
+        }
     }
 
     /**
@@ -154,6 +349,19 @@ public class EdgeClassVisitor extends GenericListVisitorAdapter<String, Map<Stri
      * all interactions are set to USES, and duplicates are removed.
      */
     public EdgeClassVisitor(boolean allInteractions) {
+        this(allInteractions, new HashMap<>(), null);
+    }
+
+    /**
+     * Constructor that sets the interaction types to use, and how to resolve types.
+     * @param allInteractions whether to include all interaction names or remove redundant edges
+     * @param resolvedTypes a cache of resolved types, which may be shared by the visitors of the same project
+     * @param knownClasses all classes of the project, to look up types by name without the symbol solver,
+     *                     or null to resolve them with the symbol solver
+     */
+    public EdgeClassVisitor(boolean allInteractions, Map<String, String> resolvedTypes, Set<String> knownClasses) {
+        this.resolvedTypes = resolvedTypes;
+        this.knownClasses = knownClasses;
         if (!allInteractions) {
             USES = "USES"; CALL = USES; CREATION = USES; DECLARATION = USES; RETURN = USES;
             PARAMETER = USES; EXTENDS = USES; IMPLEMENTS = USES; FIELD = USES; INSIDEOF = USES;
@@ -166,11 +374,17 @@ public class EdgeClassVisitor extends GenericListVisitorAdapter<String, Map<Stri
      * with a class in the existing map (less accurate).
      */
     public void resolveOrMatchType(NodeWithType n, List<String> edges, Map<String, String> arg, String interaction) {
-        String resolved = null;
-        try {
-            resolved = n.getType().resolve().describe();
-        } catch (Exception | StackOverflowError ignored) {
-            if (arg != null) resolved = arg.get(n.getTypeAsString());
+        String resolved;
+        Type type = n.getType();
+        if (knownClasses != null) {
+            Type element = type.getElementType();
+            resolved = element.isClassOrInterfaceType()
+                    ? resolveByName(element.asClassOrInterfaceType().getNameWithScope(), arg) : null;
+        } else if (type.isVarType()) {
+            // The type of var depends on the initializer, so it is not cached
+            resolved = resolveOrMatch(() -> type.resolve().describe(), arg, n.getTypeAsString());
+        } else {
+            resolved = resolveCached(n.getTypeAsString(), () -> type.resolve().describe(), arg, n.getTypeAsString());
         }
         if (resolved != null) {
             edges.addAll(createEdge(currentClassName, resolved, interaction));
@@ -184,14 +398,90 @@ public class EdgeClassVisitor extends GenericListVisitorAdapter<String, Map<Stri
      */
     public void resolveOrMatchClass(ClassOrInterfaceType n, List<String> edges, Map<String, String> arg, String interaction) {
         if (interaction.equals(USES)) return; // Skip generic uses
-        String resolved = null;
+        String resolved;
+        if (knownClasses != null)
+            resolved = resolveByName(n.getNameWithScope(), arg);
+        else
+            resolved = resolveCached(n.asString(), () -> n.resolve().describe(), arg, n.getNameAsString());
+        if (resolved != null) {
+            edges.addAll(createEdge(currentClassName, resolved, interaction));
+        }
+    }
+
+    /**
+     * Resolves a type with the symbol solver, or if that fails, matches its name with a class in the map.
+     */
+    private static String resolveOrMatch(Supplier<String> resolve, Map<String, String> arg, String name) {
         try {
-            resolved = n.resolve().describe();
+            return resolve.get();
         } catch (Exception | StackOverflowError ignored) {
-            if (arg != null) resolved = arg.get(n.getNameAsString());
+            return arg != null ? arg.get(name) : null;
         }
-        if (resolved != null) {
-            edges.addAll(createEdge(currentClassName, resolved, interaction));
+    }
+
+    /**
+     * Like {@link #resolveOrMatch}, but remembers what the symbol solver resolves the type to in the
+     * current class, as the same types are used many times. If the symbol solver fails, the
+     * type is matched with the map every time, as the map may still be incomplete.
+     */
+    private String resolveCached(String type, Supplier<String> resolve, Map<String, String> arg, String name) {
+        String key = currentClassName + " " + type;
+        String resolved = resolvedTypes.get(key);
+        if (resolved == null) {
+            try {
+                resolved = resolve.get();
+            } catch (Exception | StackOverflowError ignored) {
+            }
+            resolvedTypes.put(key, resolved != null ? resolved : UNRESOLVED);
+        }
+        if (resolved == null || resolved.equals(UNRESOLVED))
+            return arg != null ? arg.get(name) : null;
+        return resolved;
+    }
+
+    /**
+     * Finds a class by the name it is used with, looking in order at the single type imports,
+     * the same package, the on-demand imports and the class definitions in the map.
+     * Names that start with a lower case letter are assumed to be fully qualified.
+     */
+    private String resolveByName(String name, Map<String, String> arg) {
+        int dot = name.indexOf('.');
+        String first = dot < 0 ? name : name.substring(0, dot), rest = dot < 0 ? "" : name.substring(dot);
+        if (first.isEmpty() || Character.isLowerCase(first.charAt(0)))
+            return name;
+
+        String outer = singleTypeImports.get(first);
+        if (outer == null && knownClasses.contains(currentPackage + first))
+            outer = currentPackage + first;
+        for (int i = 0; outer == null && i < onDemandImports.size(); i++) {
+            if (knownClasses.contains(onDemandImports.get(i) + "." + first))
+                outer = onDemandImports.get(i) + "." + first;
+        }
+        if (outer == null && arg != null)
+            outer = arg.get(first);
+        return outer != null ? outer + rest : null;
+    }
+
+    /**
+     * Returns the qualified name of the given class or enum declaration.
+     */
+    private String qualifiedNameOf(TypeDeclaration<?> n) {
+        if (knownClasses != null)
+            return n.getFullyQualifiedName().orElse(n.getNameAsString());
+        return n instanceof EnumDeclaration ? ((EnumDeclaration) n).resolve().getQualifiedName()
+                : ((ClassOrInterfaceDeclaration) n).resolve().getQualifiedName();
+    }
+
+    /**
+     * Adds the classes and enums declared in the given compilation unit to the class definitions,
+     * the same way as visiting it does, but without resolving anything.
+     */
+    public static void defineClasses(CompilationUnit cu, Map<String, String> classDefinitions) {
+        for (var n : cu.findAll(TypeDeclaration.class)) {
+            if (n instanceof ClassOrInterfaceDeclaration || n instanceof EnumDeclaration) {
+                TypeDeclaration<?> t = n;
+                classDefinitions.put(t.getNameAsString(), innerClassToDollar(t.getFullyQualifiedName().orElse(t.getNameAsString())));
+            }
         }
     }
 
@@ -201,6 +491,16 @@ public class EdgeClassVisitor extends GenericListVisitorAdapter<String, Map<Stri
      */
     @Override
     public List<String> visit(CompilationUnit n, Map<String, String> arg) {
+        if (knownClasses != null) {
+            currentPackage = n.getPackageDeclaration().map(p -> p.getNameAsString() + ".").orElse("");
+            for (var i : n.getImports()) {
+                if (i.isStatic()) continue;
+                if (i.isAsterisk())
+                    onDemandImports.add(i.getNameAsString());
+                else
+                    singleTypeImports.put(i.getName().getIdentifier(), i.getNameAsString());
+            }
+        }
         try {
             return super.visit(n, arg);
         } catch (StackOverflowError ignored) {
@@ -226,7 +526,7 @@ public class EdgeClassVisitor extends GenericListVisitorAdapter<String, Map<Stri
     @Override
     public List<String> visit(ClassOrInterfaceDeclaration n, Map<String, String> arg) {
         String lastClassName = currentClassName;
-        currentClassName = innerClassToDollar(n.resolve().getQualifiedName());
+        currentClassName = innerClassToDollar(qualifiedNameOf(n));
         if (arg != null) {
             arg.put(n.getNameAsString(), currentClassName);
             //System.out.println(n.getNameAsString() + " -> " + currentClassName);
@@ -254,7 +554,7 @@ public class EdgeClassVisitor extends GenericListVisitorAdapter<String, Map<Stri
     @Override
     public List<String> visit(EnumDeclaration n, Map<String, String> arg) {
         String lastClassName = currentClassName;
-        currentClassName = innerClassToDollar(n.resolve().getQualifiedName());
+        currentClassName = innerClassToDollar(qualifiedNameOf(n));
         if (arg != null) {
             arg.put(n.getNameAsString(), currentClassName);
             //System.out.println(n.getNameAsString() + " -> " + currentClassName);
@@ -305,6 +605,7 @@ public class EdgeClassVisitor extends GenericListVisitorAdapter<String, Map<Stri
     @Override
     public List<String> visit(MethodCallExpr n, Map<String, String> arg) {
         List<String> edges = super.visit(n, arg);
+        if (knownClasses != null) return edges; // Calls can only be followed with the symbol solver
         //System.out.println("Call: " + n + " | ");
         try {
             var t = n.resolve().declaringType().getQualifiedName();
@@ -0,0 +1,123 @@
+package ca.usask.vga.layout.magnetic.io;
+
+import org.cytoscape.model.*;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import static ca.usask.vga.layout.magnetic.io.JavaReader.*;
+
+/**
+ * Builds the network of classes read by the {@link JavaReader}. Every node is kept by
+ * its name, so that the ends of an edge are found without searching the node table,
+ * and the name and interaction columns are only created once.
+ */
+public class JavaNetworkBuilder {
+
+    private final CyNetwork network;
+    private final CyTable nodeTable, edgeTable;
+    private final Map<String, CyNode> nodesByName;
+
+    /**
+     * Creates a builder that adds nodes and edges to the given network.
+     */
+    public JavaNetworkBuilder(CyNetwork network) {
+        this.network = network;
+        nodeTable = network.getDefaultNodeTable();
+        edgeTable = network.getDefaultEdgeTable();
+        nodesByName = new HashMap<>();
+
+        if (nodeTable.getColumn(NODE_NAME) == null)
+            nodeTable.createColumn(NODE_NAME, String.class, false);
+        if (edgeTable.getColumn(EDGE_NAME) == null)
+            edgeTable.createColumn(EDGE_NAME, String.class, false);
+        if (edgeTable.getColumn(EDGE_INTERACTION) == null)
+            edgeTable.createColumn(EDGE_INTERACTION, String.class, false);
+    }
+
+    /**
+     * Returns the network being built.
+     */
+    public CyNetwork getNetwork() {
+        return network;
+    }
+
+    /**
+     * Returns the node with the given class name, or null if it has not been added.
+     */
+    public CyNode getNode(String fullName) {
+        return nodesByName.get(fullName);
+    }
+
+    /**
+     * Adds a node with the given class name, unless there already is one.
+     * @return the node with the given name
+     */
+    public CyNode addNode(String fullName) {
+        CyNode node = nodesByName.get(fullName);
+        if (node == null) {
+            node = network.addNode();
+            nodeTable.getRow(node.getSUID()).set(NODE_NAME, fullName);
+            nodesByName.put(fullName, node);
+        }
+        return node;
+    }
+
+    /**
+     * Adds a node for every class name that does not have one yet.
+     */
+    public void addNodes(Collection<String> fullNames) {
+        for (String name : fullNames)
+            addNode(name);
+    }
+
+    /**
+     * Adds an edge between the given classes. Self edges and edges from an inner class to its
+     * outer class are ignored. A missing source class is added as a node, but an edge to a
+     * missing target class is skipped, as it is outside the imported classes.
+     * @param interaction the interaction type, or null or empty for none
+     * @return the new edge, or null if it was skipped
+     */
+    public CyEdge addEdge(String from, String to, String interaction) {
+        // Ignore self edges
+        if (from.equals(to))
+            return null;
+
+        // Ignore edges from inner class to parent
+        if (from.contains("$") && from.startsWith(to))
+            return null;
+
+        CyNode target = nodesByName.get(to);
+        if (target == null)
+            return null; // Skip classes outside the domain
+
+        CyEdge edge = network.addEdge(addNode(from), target, true);
+        CyRow row = edgeTable.getRow(edge.getSUID());
+        row.set(EDGE_NAME, from + " > " + to);
+        if (interaction != null && !interaction.isEmpty())
+            row.set(EDGE_INTERACTION, interaction);
+        return edge;
+    }
+
+    /**
+     * Adds every edge of the given collection, written as "source target" or "source target interaction".
+     * @see #addEdge(String, String, String)
+     */
+    public void addEdges(Collection<String> edges) {
+        for (String e : edges) {
+            int first = e.indexOf(' ');
+            if (first < 0)
+                continue;
+            int second = e.indexOf(' ', first + 1);
+            String from = e.substring(0, first);
+            if (second < 0) {
+                addEdge(from, e.substring(first + 1), null);
+            } else {
+                int third = e.indexOf(' ', second + 1);
+                addEdge(from, e.substring(first + 1, second),
+                        e.substring(second + 1, third < 0 ? e.length() : third));
+            }
+        }
+    }
+}
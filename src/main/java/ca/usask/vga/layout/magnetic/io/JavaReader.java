@@ -1,7 +1,5 @@
 package ca.usask.vga.layout.magnetic.io;
 
-import gr.gousiosg.javacg.stat.ClassVisitor;
-import org.apache.bcel.classfile.ClassParser;
 import org.cytoscape.equations.EquationCompiler;
 import org.cytoscape.io.BasicCyFileFilter;
 import org.cytoscape.io.CyFileFilter;
@@ -19,9 +17,9 @@ import org.cytoscape.work.TaskIterator;
 import org.cytoscape.work.TaskMonitor;
 
 import java.io.*;
+import java.net.URI;
 import java.util.*;
 import java.util.function.Consumer;
-import java.util.jar.JarInputStream;
 import java.util.stream.Collectors;
 
 /**
@@ -128,13 +126,14 @@ public class JavaReader extends AbstractInputStreamTaskFactory {
         private InputStream inputStream = null;
         private String inputName = null;
         private String srcFolder = null;
+        private File jarFile = null;
 
         private final JavaReader.CyAccess cy;
         private Set<String> nodes = null;
         private Set<String> edges = null;
         private Consumer<ReaderTask> afterComplete = c -> {};
 
-        private boolean cancelled;
+        private volatile boolean cancelled;
 
         private final List<CyNetwork> newNetworks;
         private boolean inMainJavaFolder = false;
@@ -160,6 +159,15 @@ public class JavaReader extends AbstractInputStreamTaskFactory {
         // @Tunable(description="Hide anonymous classes:")
         public boolean hideAnonymousClasses = true;
 
+        // @Tunable(description="Include classes named only in signatures (JAR files):")
+        public boolean includeSignatures = false;
+
+        // @Tunable(description="Match types by name instead of resolving them (source folders):")
+        public boolean fastSourceImport = false;
+
+        // @Tunable(description="Number of threads used to read classes and source files:")
+        public int numThreads = Runtime.getRuntime().availableProcessors();
+
         /**
          * Creates a new ReaderTask for a JAR file only, given the input stream and the name of the file.
          */
@@ -177,9 +185,9 @@ public class JavaReader extends AbstractInputStreamTaskFactory {
             this.inputName = filename;
             this.afterComplete = afterComplete;
             if (filename.endsWith(".jar")) {
-                try {
-                    this.inputStream = new FileInputStream(filename);
-                } catch (FileNotFoundException e) {throw new RuntimeException(e);}
+                jarFile = new File(filename);
+                if (!jarFile.isFile())
+                    throw new RuntimeException(new FileNotFoundException(filename));
             } else {
                 srcFolder = filename;
             }
@@ -234,8 +242,8 @@ public class JavaReader extends AbstractInputStreamTaskFactory {
             taskMonitor.setStatusMessage("Importing from: " + shortInputName(inputName));
 
             if (edges == null || nodes == null) {
-                nodes = new HashSet<>();
-                edges = new HashSet<>();
+                nodes = ParallelJarReader.newConcurrentSet();
+                edges = ParallelJarReader.newConcurrentSet();
                 if (srcFolder == null)
                     readFromJar(nodes, edges);
                 else
@@ -247,14 +255,9 @@ public class JavaReader extends AbstractInputStreamTaskFactory {
             // Create network
             CyNetwork network = cy.nf.createNetwork();
 
-            for (var n : nodes) {
-                newNode(network, n);
-            }
-
-            for (var e : edges) {
-                var split = e.split(" ");
-                newEdge(network, split[0], split[1], split.length >= 3 ? split[2] : null);
-            }
+            var builder = new JavaNetworkBuilder(network);
+            builder.addNodes(nodes);
+            builder.addEdges(edges);
 
             initJavaColumns(network);
             newNetworks.add(network);
@@ -361,8 +364,8 @@ public class JavaReader extends AbstractInputStreamTaskFactory {
             if (!EdgeClassVisitor.isValidSRC(srcFolder))
                 throw new RuntimeException("Invalid SRC folder");
 
-            var parsed = EdgeClassVisitor.parseSRCFolder(srcFolder);
-            var result = EdgeClassVisitor.visitAll(parsed, false, () -> cancelled);
+            var result = EdgeClassVisitor.parseAndVisitAll(srcFolder, false, fastSourceImport, numThreads,
+                    () -> cancelled);
 
             if (result == null || cancelled) return;
 
@@ -374,105 +377,46 @@ public class JavaReader extends AbstractInputStreamTaskFactory {
         }
 
         /**
-         * Reads the inputStream and adds all the edges and nodes to the sets.
-         * Uses {@link ClassVisitor} to parse the inputStream into a list of edges.
+         * Reads the JAR file or the inputStream and adds all the edges and nodes to the sets,
+         * which must allow concurrent additions. Uses {@link ParallelJarReader} to scan the
+         * classes on {@link #numThreads} threads.
          */
         private void readFromJar(Set<String> nodes, Set<String> edges) {
-
-            PrintStream ps = new PrintStream(new OutputStream() {
-                public void write(int b) {
-                }
-            }) {
-                public void print(String s) {
-                    s = formatEdgeString(s);
-                    if (s == null) return;
-
-                    // Only add source nodes
-                    nodes.add(s.split(" ")[0]);
-                    edges.add(s);
-                }
-            };
-
-
-            try (var jar = new JarInputStream(inputStream)) {
-                var e = jar.getNextJarEntry();
-                while (e != null) {
-
-                    if (cancelled) return;
-
-                    if (!e.isDirectory() && e.getName().endsWith(".class")) {
-
-                        ClassParser cp = new ClassParser(jar, e.getName());
-                        var classVisitor = new ClassVisitor(cp.parse());
-                        classVisitor.setPrintStream(ps);
-                        classVisitor.start();
-                    }
-
-                    e = jar.getNextJarEntry();
+            var reader = new ParallelJarReader(numThreads, includeSignatures, this::formatEdgeString, () -> cancelled);
+            try {
+                File file = jarFile != null ? jarFile : toLocalFile(inputName);
+                if (file != null) {
+                    reader.read(file, nodes, edges);
+                } else {
+                    reader.read(inputStream, nodes, edges);
                 }
             } catch (Exception ex) {
                 ex.printStackTrace();
+            } finally {
+                closeInputStream();
             }
         }
 
         /**
-         * Creates a new CyNode with the given name and adds it to the CyNetwork and CyTable.
-         */
-        protected CyNode newNode(CyNetwork network, String fullName) {
-            CyNode node = network.addNode();
-            CyTable table = network.getDefaultNodeTable();
-
-            if (table.getColumn(NODE_NAME) == null)
-                table.createColumn(NODE_NAME, String.class, false);
-
-            table.getRow(node.getSUID()).set(NODE_NAME, fullName);
-            return node;
-        }
-
-
-        /**
-         * Creates a new CyEdge with the given source, target and interaction type
-         * and adds it to the CyNetwork and CyTable.
+         * Returns the local file with the given name or file URI, which can be opened with
+         * random access, or null if there is none.
          */
-        protected CyEdge newEdge(CyNetwork network, String from, String to, String interaction) {
-            // Ignore self edges
-            if (from.equals(to))
-                return null;
-
-            // Ignore edges from inner class to parent
-            if (from.contains("$") && from.startsWith(to))
+        private static File toLocalFile(String name) {
+            if (name == null) return null;
+            try {
+                File file = name.startsWith("file:") ? new File(URI.create(name)) : new File(name);
+                return file.isFile() ? file : null;
+            } catch (IllegalArgumentException e) {
                 return null;
+            }
+        }
 
-            CyTable nodeTable = network.getDefaultNodeTable();
-            Collection<Long> fromMatches = nodeTable.getMatchingKeys(NODE_NAME, from, Long.class);
-            long fromS;
-            if (fromMatches.size() == 0)
-                fromS = newNode(network, from).getSUID();
-            else
-                fromS = fromMatches.iterator().next();
-
-            Collection<Long> toMatches = nodeTable.getMatchingKeys(NODE_NAME, to, Long.class);
-            long toS;
-            if (toMatches.size() == 0)
-                return null; // Skip classes outside the domain
-                //toS = newNode(network, to).getSUID();
-            else
-                toS = toMatches.iterator().next();
-
-            CyEdge edge = network.addEdge(network.getNode(fromS), network.getNode(toS), true);
-
-            CyTable edgeTable = network.getDefaultEdgeTable();
-
-            if (edgeTable.getColumn(EDGE_NAME) == null)
-                edgeTable.createColumn(EDGE_NAME, String.class, false);
-            edgeTable.getRow(edge.getSUID()).set(EDGE_NAME, from + " > " + to);
-
-            if (edgeTable.getColumn(EDGE_INTERACTION) == null)
-                edgeTable.createColumn(EDGE_INTERACTION, String.class, false);
-            if (interaction != null && !interaction.equals(""))
-                edgeTable.getRow(edge.getSUID()).set(EDGE_INTERACTION, interaction);
-
-            return edge;
+        private void closeInputStream() {
+            if (inputStream == null) return;
+            try {
+                inputStream.close();
+            } catch (IOException ignored) {
+            }
         }
 
         /**
@@ -505,17 +449,22 @@ public class JavaReader extends AbstractInputStreamTaskFactory {
                 table.createColumn(NODE_ROOT_PACKAGE, String.class, false);
             }
 
+            // Compile every formula once, and set all of them in a single pass over the rows
             cy.eq.compile(String.format(CLASS_FORMULA), map);
-            table.getAllRows().forEach(r -> r.set(NODE_CLASS, cy.eq.getEquation()));
-
+            var classEquation = cy.eq.getEquation();
             cy.eq.compile(PACKAGE_FORMULA, map);
-            table.getAllRows().forEach(r -> r.set(NODE_PACKAGE, cy.eq.getEquation()));
-
+            var packageEquation = cy.eq.getEquation();
             cy.eq.compile(INNER_CLASS_FORMULA, map);
-            table.getAllRows().forEach(r -> r.set(NODE_INNER_CLASS, cy.eq.getEquation()));
-
+            var innerClassEquation = cy.eq.getEquation();
             cy.eq.compile(ROOT_PACKAGE_FORMULA, map);
-            table.getAllRows().forEach(r -> r.set(NODE_ROOT_PACKAGE, cy.eq.getEquation()));
+            var rootPackageEquation = cy.eq.getEquation();
+
+            for (var r : table.getAllRows()) {
+                r.set(NODE_CLASS, classEquation);
+                r.set(NODE_PACKAGE, packageEquation);
+                r.set(NODE_INNER_CLASS, innerClassEquation);
+                r.set(NODE_ROOT_PACKAGE, rootPackageEquation);
+            }
 
             if (table.getColumn(NODE_ROOT_PACKAGE).getValues(String.class).stream().distinct().count() <= 1) {
                 cy.eq.compile(ROOT_PACKAGE_FORMULA_2, map);
@@ -0,0 +1,168 @@
+package ca.usask.vga.layout.magnetic.io;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+import java.util.jar.JarInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Reads the class references of every class in a JAR file, scanning the classes on a pool of threads
+ * with a {@link ClassDependencyScanner}. Each reference is written as "class referenced-class",
+ * and the class itself is added as a node.
+ * <p>
+ * A JAR file on disk is opened with random access, so the workers also read and inflate the classes.
+ * A JAR given as a stream is inflated in order on the calling thread, and only the scanning is shared.
+ */
+public class ParallelJarReader {
+
+    /** The number of classes read from a stream that may wait to be scanned, per thread */
+    private static final int PENDING_CLASSES_PER_THREAD = 16;
+
+    private final int numThreads;
+    private final ClassDependencyScanner scanner;
+    private final UnaryOperator<String> formatEdge;
+    private final Supplier<Boolean> hasBeenCancelled;
+
+    /**
+     * @param numThreads the number of classes to scan at the same time
+     * @param includeSignatures whether to include the classes named in descriptors and generic signatures,
+     *                          see {@link ClassDependencyScanner}
+     * @param formatEdge applied to every reference before it is added, may return null to skip it
+     * @param hasBeenCancelled a function that returns true if the operation has been cancelled
+     */
+    public ParallelJarReader(int numThreads, boolean includeSignatures, UnaryOperator<String> formatEdge,
+                             Supplier<Boolean> hasBeenCancelled) {
+        this.numThreads = Math.max(1, numThreads);
+        this.scanner = new ClassDependencyScanner(includeSignatures);
+        this.formatEdge = formatEdge;
+        this.hasBeenCancelled = hasBeenCancelled;
+    }
+
+    /**
+     * Creates a set that the workers can add nodes or edges to.
+     */
+    public static Set<String> newConcurrentSet() {
+        return ConcurrentHashMap.newKeySet();
+    }
+
+    /**
+     * Reads all classes of the given JAR file. The sets must allow concurrent additions,
+     * see {@link #newConcurrentSet()}.
+     * @return false if the operation was cancelled
+     */
+    public boolean read(File jarFile, Set<String> nodes, Set<String> edges) throws IOException {
+        try (ZipFile zip = new ZipFile(jarFile)) {
+            List<ZipEntry> classes = new ArrayList<>();
+            for (ZipEntry e : Collections.list(zip.entries())) {
+                if (isClass(e))
+                    classes.add(e);
+            }
+            ForkJoinPool pool = new ForkJoinPool(numThreads);
+            try {
+                List<Future<?>> tasks = new ArrayList<>(classes.size());
+                for (ZipEntry e : classes) {
+                    tasks.add(pool.submit(() -> {
+                        if (hasBeenCancelled.get())
+                            return;
+                        try (InputStream in = zip.getInputStream(e)) {
+                            scanClass(in.readAllBytes(), nodes, edges);
+                        } catch (IOException ex) {
+                            throw new UncheckedIOException(ex);
+                        }
+                    }));
+                }
+                return awaitAll(tasks);
+            } finally {
+                pool.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * Reads all classes of the JAR file in the given stream. The sets must allow concurrent additions,
+     * see {@link #newConcurrentSet()}.
+     * @return false if the operation was cancelled
+     */
+    public boolean read(InputStream inputStream, Set<String> nodes, Set<String> edges) throws IOException {
+        ForkJoinPool pool = new ForkJoinPool(numThreads);
+        // Limits the inflated classes held in memory when scanning is slower than reading
+        Semaphore pending = new Semaphore(numThreads * PENDING_CLASSES_PER_THREAD);
+        try (JarInputStream jar = new JarInputStream(inputStream)) {
+            List<Future<?>> tasks = new ArrayList<>();
+            for (ZipEntry e = jar.getNextJarEntry(); e != null; e = jar.getNextJarEntry()) {
+                if (hasBeenCancelled.get())
+                    return false;
+                if (!isClass(e))
+                    continue;
+                byte[] bytes = jar.readAllBytes();
+                pending.acquireUninterruptibly();
+                tasks.add(pool.submit(() -> {
+                    try {
+                        if (!hasBeenCancelled.get())
+                            scanClass(bytes, nodes, edges);
+                    } finally {
+                        pending.release();
+                    }
+                }));
+            }
+            return awaitAll(tasks);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static boolean isClass(ZipEntry e) {
+        return !e.isDirectory() && e.getName().endsWith(".class");
+    }
+
+    /**
+     * Waits for all tasks to finish, or until the operation is cancelled.
+     */
+    private boolean awaitAll(List<Future<?>> tasks) throws IOException {
+        for (Future<?> task : tasks) {
+            if (hasBeenCancelled.get())
+                return false;
+            try {
+                task.get();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return false;
+            } catch (ExecutionException ex) {
+                if (ex.getCause() instanceof UncheckedIOException)
+                    throw ((UncheckedIOException) ex.getCause()).getCause();
+                throw new RuntimeException(ex.getCause());
+            }
+        }
+        return !hasBeenCancelled.get();
+    }
+
+    /**
+     * Scans a single class and adds its references. Classes that cannot be read are skipped.
+     */
+    private void scanClass(byte[] classFile, Set<String> nodes, Set<String> edges) {
+        Set<String> references = new HashSet<>();
+        String className;
+        try {
+            className = scanner.scan(classFile, references::add);
+        } catch (IOException e) {
+            return; // Ignore erroneous classes
+        }
+        for (String reference : references) {
+            String s = formatEdge.apply(className + " " + reference);
+            if (s == null) continue;
+
+            // Only add source nodes
+            int space = s.indexOf(' ');
+            nodes.add(space < 0 ? s : s.substring(0, space));
+            edges.add(s);
+        }
+    }
+}
@@ -0,0 +1,306 @@
+package ca.usask.vga.layout.magnetic.poles;
+
+import org.cytoscape.model.CyEdge;
+import org.cytoscape.model.CyNetwork;
+import org.cytoscape.model.CyNode;
+
+import java.util.*;
+
+/**
+ * An index-based snapshot of the directed edges of a network, used to search it
+ * without going through the network itself. Every node is given an index, in the order
+ * of the network's node list, and the neighbours of every node in either direction
+ * are stored as a range of a single array of node indices. Like the incoming and outgoing
+ * edges of a {@link CyNetwork}, undirected edges are left out.
+ * <p>
+ * The snapshot can follow the changes to the network. Added nodes are given new indices, and
+ * removed nodes leave their index unused. A range that runs out of room is moved to the end
+ * of the array, so after many changes the snapshot should be taken again, see {@link #isFragmented()}.
+ */
+public class NetworkAdjacency {
+
+    private CyNode[] nodes;
+    private int size;
+    private final Map<CyNode, Integer> index;
+    /** Undirected edges are only counted, to tell if the snapshot is current */
+    private final Set<Long> undirectedEdges;
+
+    /** Targets of the outgoing edges, and sources of the incoming edges */
+    private final Ranges out, in;
+
+    /**
+     * Takes a snapshot of the given network.
+     */
+    public NetworkAdjacency(CyNetwork network) {
+        List<CyNode> nodeList = network.getNodeList();
+        int n = nodeList.size();
+        nodes = nodeList.toArray(new CyNode[0]);
+        size = n;
+        index = new HashMap<>(n * 4 / 3 + 1);
+        for (int i = 0; i < n; i++)
+            index.put(nodes[i], i);
+        undirectedEdges = new HashSet<>();
+
+        List<CyEdge> edgeList = network.getEdgeList();
+        int[] source = new int[edgeList.size()], target = new int[edgeList.size()];
+        long[] suid = new long[edgeList.size()];
+        int m = 0;
+        for (CyEdge e : edgeList) {
+            Integer s = index.get(e.getSource()), t = index.get(e.getTarget());
+            if (s == null || t == null) continue;
+            if (!e.isDirected()) {
+                undirectedEdges.add(e.getSUID());
+                continue;
+            }
+            source[m] = s;
+            target[m] = t;
+            suid[m++] = e.getSUID();
+        }
+        out = new Ranges(n, source, target, suid, m);
+        in = new Ranges(n, target, source, suid, m);
+    }
+
+    /**
+     * Returns true if the network has as many nodes and edges as the snapshot.
+     */
+    public boolean isCurrent(CyNetwork network) {
+        return network.getNodeCount() == index.size()
+                && network.getEdgeCount() == out.live + undirectedEdges.size();
+    }
+
+    /**
+     * Returns true if the snapshot has changed so much that it takes
+     * considerably more memory than a new snapshot would.
+     */
+    public boolean isFragmented() {
+        return size - index.size() > size / 2 + 1024 || out.used - out.live > out.live / 2 + 4096;
+    }
+
+    /**
+     * Returns the number of node indices, including those of removed nodes.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the node with the given index, or null if it has been removed.
+     */
+    public CyNode getNode(int i) {
+        return nodes[i];
+    }
+
+    /**
+     * Returns the index of the given node, or -1 if it is not in the network.
+     */
+    public int indexOf(CyNode node) {
+        Integer i = index.get(node);
+        return i != null ? i : -1;
+    }
+
+    /**
+     * Returns the start of the range of neighbours of every node.
+     * The returned arrays are only valid until the snapshot is changed.
+     * @param outgoing whether to follow outgoing edges to their targets, or incoming edges to their sources
+     */
+    int[] getStart(boolean outgoing) {
+        return outgoing ? out.start : in.start;
+    }
+
+    /**
+     * Returns the number of neighbours of every node.
+     * @param outgoing whether to follow outgoing edges to their targets, or incoming edges to their sources
+     */
+    int[] getCount(boolean outgoing) {
+        return outgoing ? out.count : in.count;
+    }
+
+    /**
+     * Returns the neighbours of all nodes, in the ranges given by {@link #getStart(boolean)}
+     * and {@link #getCount(boolean)}.
+     * @param outgoing whether to follow outgoing edges to their targets, or incoming edges to their sources
+     */
+    int[] getAdjacent(boolean outgoing) {
+        return outgoing ? out.adjacent : in.adjacent;
+    }
+
+    /**
+     * Adds a node without edges, unless it is already in the snapshot.
+     * @return the index of the node
+     */
+    int addNode(CyNode node) {
+        Integer i = index.get(node);
+        if (i != null)
+            return i;
+        if (size == nodes.length)
+            nodes = Arrays.copyOf(nodes, Math.max(16, 2 * size));
+        nodes[size] = node;
+        index.put(node, size);
+        out.ensureNodes(size + 1);
+        in.ensureNodes(size + 1);
+        return size++;
+    }
+
+    /**
+     * Removes a node and all of its edges. The network must still contain the node.
+     * @return the former index of the node, or -1 if it was not in the snapshot
+     */
+    int removeNode(CyNetwork network, CyNode node) {
+        Integer i = index.remove(node);
+        if (i == null)
+            return -1;
+        for (CyEdge e : network.getAdjacentEdgeIterable(node, CyEdge.Type.UNDIRECTED))
+            undirectedEdges.remove(e.getSUID());
+
+        int[] adjacent = out.adjacent;
+        for (int k = out.start[i], end = k + out.count[i]; k < end; k++)
+            in.removeNeighbour(adjacent[k], i);
+        adjacent = in.adjacent;
+        for (int k = in.start[i], end = k + in.count[i]; k < end; k++)
+            out.removeNeighbour(adjacent[k], i);
+        out.clear(i);
+        in.clear(i);
+        nodes[i] = null;
+        return i;
+    }
+
+    /**
+     * Adds an edge between two nodes of the snapshot, unless it is already in it.
+     * @return true if a directed edge was added
+     */
+    boolean addEdge(CyEdge edge) {
+        int s = indexOf(edge.getSource()), t = indexOf(edge.getTarget());
+        if (s < 0 || t < 0)
+            return false;
+        if (!edge.isDirected()) {
+            undirectedEdges.add(edge.getSUID());
+            return false;
+        }
+        if (!out.add(s, t, edge.getSUID()))
+            return false;
+        in.add(t, s, edge.getSUID());
+        return true;
+    }
+
+    /**
+     * Removes an edge from the snapshot, if it is in it.
+     * @return true if a directed edge was removed
+     */
+    boolean removeEdge(CyEdge edge) {
+        int s = indexOf(edge.getSource()), t = indexOf(edge.getTarget());
+        if (s < 0 || t < 0)
+            return false;
+        if (!edge.isDirected()) {
+            undirectedEdges.remove(edge.getSUID());
+            return false;
+        }
+        if (!out.remove(s, edge.getSUID()))
+            return false;
+        in.remove(t, edge.getSUID());
+        return true;
+    }
+
+    /**
+     * The neighbours of every node in one direction, each in a range of one array,
+     * together with the SUIDs of the edges that lead to them.
+     */
+    private static final class Ranges {
+        int[] start, count, capacity;
+        int[] adjacent;
+        long[] edge;
+        /** Length of the part of the arrays given to ranges, and number of neighbours in them */
+        int used, live;
+
+        Ranges(int n, int[] from, int[] to, long[] suid, int m) {
+            start = new int[n];
+            count = new int[n];
+            capacity = new int[n];
+            for (int e = 0; e < m; e++)
+                capacity[from[e]]++;
+            for (int i = 1; i < n; i++)
+                start[i] = start[i - 1] + capacity[i - 1];
+            adjacent = new int[m];
+            edge = new long[m];
+            for (int e = 0; e < m; e++) {
+                int k = start[from[e]] + count[from[e]]++;
+                adjacent[k] = to[e];
+                edge[k] = suid[e];
+            }
+            used = live = m;
+        }
+
+        void ensureNodes(int n) {
+            if (n > start.length) {
+                int length = Math.max(16, 2 * start.length);
+                start = Arrays.copyOf(start, length);
+                count = Arrays.copyOf(count, length);
+                capacity = Arrays.copyOf(capacity, length);
+            }
+        }
+
+        boolean add(int node, int neighbour, long suid) {
+            int s = start[node], c = count[node];
+            for (int k = s; k < s + c; k++) {
+                if (edge[k] == suid)
+                    return false;
+            }
+            if (c == capacity[node])
+                move(node, Math.max(4, 2 * c));
+            adjacent[start[node] + c] = neighbour;
+            edge[start[node] + c] = suid;
+            count[node]++;
+            live++;
+            return true;
+        }
+
+        /**
+         * Moves the range of the given node to the end of the array, with room for more neighbours.
+         */
+        private void move(int node, int newCapacity) {
+            if (used + newCapacity > adjacent.length) {
+                int length = Math.max(used + newCapacity, adjacent.length + adjacent.length / 2);
+                adjacent = Arrays.copyOf(adjacent, length);
+                edge = Arrays.copyOf(edge, length);
+            }
+            System.arraycopy(adjacent, start[node], adjacent, used, count[node]);
+            System.arraycopy(edge, start[node], edge, used, count[node]);
+            start[node] = used;
+            capacity[node] = newCapacity;
+            used += newCapacity;
+        }
+
+        boolean remove(int node, long suid) {
+            int s = start[node], last = s + count[node] - 1;
+            for (int k = s; k <= last; k++) {
+                if (edge[k] == suid) {
+                    adjacent[k] = adjacent[last];
+                    edge[k] = edge[last];
+                    count[node]--;
+                    live--;
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        void removeNeighbour(int node, int neighbour) {
+            int s = start[node];
+            for (int k = s; k < s + count[node]; ) {
+                if (adjacent[k] == neighbour) {
+                    int last = s + count[node] - 1;
+                    adjacent[k] = adjacent[last];
+                    edge[k] = edge[last];
+                    count[node]--;
+                    live--;
+                } else {
+                    k++;
+                }
+            }
+        }
+
+        void clear(int node) {
+            live -= count[node];
+            count[node] = 0;
+        }
+    }
+}
@@ -0,0 +1,739 @@
+package ca.usask.vga.layout.magnetic.poles;
+
+import org.cytoscape.model.CyEdge;
+import org.cytoscape.model.CyNetwork;
+import org.cytoscape.model.CyNode;
+
+import java.util.*;
+import java.util.function.Predicate;
+import java.util.stream.IntStream;
+
+/**
+ * The shortest hop distances between the poles of a network and its nodes.
+ * The distances are measured along incoming edges from inward poles, and along outgoing edges from outward poles.
+ * <p>
+ * The closest poles of every node are found together, in a single breadth-first traversal of the
+ * {@link NetworkAdjacency} that starts from all poles at once. Every node remembers the set of poles
+ * that reached it first, so ties between poles are kept exactly. Since most nodes have a single closest
+ * pole, sets of more than one pole are shared between the nodes that have them, and each node only
+ * stores a distance and a set number, however many poles there are.
+ * <p>
+ * The distances from each individual pole are only computed if they are asked for, in parallel,
+ * and only as many of them are kept as fit in {@link #POLE_DISTANCE_BUDGET} by default.
+ * <p>
+ * The classification of the nodes by their closest poles is kept in a table, which is made when it is
+ * first needed after a change, so that repeated queries about the same node don't repeat any work.
+ * <p>
+ * When poles, nodes or edges are added, the traversal is continued only from where the distances
+ * get shorter. When they are removed, only the nodes whose shortest paths went through them are
+ * searched again, starting from the nodes around them that were not affected.
+ */
+public class PoleDistances {
+
+    /** Number of distances from individual poles that are kept, over all poles */
+    public static final int POLE_DISTANCE_BUDGET = 8 << 20;
+
+    /** Classes of nodes by the number of closest poles */
+    public static final byte DISCONNECTED = 0, CLOSEST_TO_ONE = 1, CLOSEST_TO_MULTIPLE = 2;
+
+    private final NetworkAdjacency graph;
+    /** Number of distances from individual poles that are kept */
+    private final int budget;
+
+    /** The poles by their slot, null for free slots. Slots are kept while a pole exists */
+    private CyNode[] poles;
+    private boolean[] isOutwards;
+    /** The position of every pole in the pole list, which their closest nodes list them by */
+    private int[] position;
+    private final Map<CyNode, Integer> poleSlot;
+
+    /**
+     * Per state: the hop distance to the closest poles, or -1 if there are none.
+     * State 2*i+1 is node i reached along outgoing edges from outward poles,
+     * state 2*i is node i reached along incoming edges from inward poles.
+     */
+    private int[] dist;
+    /** Per state: the set of the slots of the closest poles, see {@link PoleSets} */
+    private int[] closest;
+    private final PoleSets sets = new PoleSets();
+
+    /** By slot: hop distance of every node from the pole, or -1; computed on demand, least recently used first */
+    private final LinkedHashMap<Integer, int[]> poleDistances = new LinkedHashMap<>(16, 0.75f, true);
+
+    /** Per node: its class, and its closest pole if there is exactly one; null until needed after a change */
+    private byte[] nodeClass;
+    private CyNode[] closestPole;
+    private int version;
+
+    /**
+     * Finds the closest poles of every node of the given snapshot.
+     * @param poleList the poles, in the order their closest nodes should list them
+     * @param isOutwards whether a pole is an outward pole
+     */
+    public PoleDistances(NetworkAdjacency graph, List<CyNode> poleList, Predicate<CyNode> isOutwards) {
+        this(graph, poleList, isOutwards, POLE_DISTANCE_BUDGET);
+    }
+
+    /**
+     * Finds the closest poles of every node, keeping the distances from individual poles within the given budget.
+     */
+    PoleDistances(NetworkAdjacency graph, List<CyNode> poleList, Predicate<CyNode> isOutwards, int budget) {
+        this.graph = graph;
+        this.budget = budget;
+        this.poles = poleList.toArray(new CyNode[0]);
+        this.isOutwards = new boolean[poles.length];
+        this.position = new int[poles.length];
+        this.poleSlot = new HashMap<>();
+        for (int p = 0; p < poles.length; p++) {
+            this.isOutwards[p] = isOutwards.test(poles[p]);
+            position[p] = p;
+            poleSlot.put(poles[p], p);
+        }
+        dist = new int[2 * graph.size()];
+        closest = new int[2 * graph.size()];
+        Arrays.fill(dist, -1);
+        Arrays.fill(closest, PoleSets.EMPTY);
+
+        States changed = new States();
+        for (int p = 0; p < poles.length; p++)
+            seedPole(p, changed);
+        propagate(changed);
+    }
+
+    public NetworkAdjacency getAdjacency() {
+        return graph;
+    }
+
+    /**
+     * Returns a number that changes whenever the poles or the network are changed.
+     */
+    public synchronized int getVersion() {
+        return version;
+    }
+
+    // ----- Queries -----
+
+    /**
+     * Returns the closest poles to the given node, in the order of the pole list. If there are no poles
+     * within reach, or the node is not in the network, an empty list is returned.
+     */
+    public synchronized List<CyNode> getClosestPoles(CyNode node) {
+        int v = graph.indexOf(node);
+        List<CyNode> list = new ArrayList<>(1);
+        int d = v < 0 ? -1 : closestDistance(v);
+        if (d < 0)
+            return list;
+        // Every pole has a single direction, so the poles of the two states never overlap
+        for (int s = 2 * v; s <= 2 * v + 1; s++) {
+            if (dist[s] == d) {
+                for (int p : sets.get(closest[s]))
+                    list.add(poles[p]);
+            }
+        }
+        if (list.size() > 1)
+            list.sort(Comparator.comparingInt(pole -> position[poleSlot.get(pole)]));
+        return list;
+    }
+
+    /**
+     * Returns the number of poles that are closest to the given node.
+     */
+    public synchronized int getClosestPoleCount(CyNode node) {
+        int v = graph.indexOf(node);
+        int d = v < 0 ? -1 : closestDistance(v);
+        if (d < 0)
+            return 0;
+        int count = 0;
+        for (int s = 2 * v; s <= 2 * v + 1; s++) {
+            if (dist[s] == d)
+                count += sets.size(closest[s]);
+        }
+        return count;
+    }
+
+    /**
+     * Returns the distance from the given node to its closest poles,
+     * or {@link PoleManager#UNREACHABLE_NODE} if there are none.
+     */
+    public synchronized int getClosestPoleDistance(CyNode node) {
+        int v = graph.indexOf(node);
+        int d = v < 0 ? -1 : closestDistance(v);
+        return d < 0 ? PoleManager.UNREACHABLE_NODE : d;
+    }
+
+    /**
+     * Returns the distance from the given node to the given pole,
+     * or {@link PoleManager#UNREACHABLE_NODE} if it can't be reached.
+     */
+    public synchronized int getDistance(CyNode pole, CyNode from) {
+        Integer p = poleSlot.get(pole);
+        int v = graph.indexOf(from);
+        if (p == null || v < 0)
+            return PoleManager.UNREACHABLE_NODE;
+        int s = state(v, isOutwards[p]);
+        if (dist[s] >= 0 && sets.contains(closest[s], p))
+            return dist[s];
+        int d = getDistancesFrom(p)[v];
+        return d < 0 ? PoleManager.UNREACHABLE_NODE : d;
+    }
+
+    /**
+     * Returns the class of the given node: {@link #DISCONNECTED} if there are no poles within reach or
+     * the node is not in the network, {@link #CLOSEST_TO_ONE} or {@link #CLOSEST_TO_MULTIPLE}.
+     */
+    public synchronized byte getNodeClass(CyNode node) {
+        int v = graph.indexOf(node);
+        if (v < 0)
+            return DISCONNECTED;
+        classify();
+        return nodeClass[v];
+    }
+
+    /**
+     * Returns the closest pole to the given node, or null if there is not exactly one.
+     */
+    public synchronized CyNode getClosestPole(CyNode node) {
+        int v = graph.indexOf(node);
+        if (v < 0)
+            return null;
+        classify();
+        return closestPole[v];
+    }
+
+    /**
+     * Makes the classification table, if it has not been made since the last change.
+     */
+    private void classify() {
+        if (nodeClass != null)
+            return;
+        int n = graph.size();
+        nodeClass = new byte[n];
+        closestPole = new CyNode[n];
+        for (int v = 0; v < n; v++) {
+            int d = closestDistance(v);
+            if (d < 0)
+                continue;
+            int set = PoleSets.EMPTY, count = 0;
+            for (int s = 2 * v; s <= 2 * v + 1; s++) {
+                if (dist[s] == d) {
+                    set = closest[s];
+                    count += sets.size(set);
+                }
+            }
+            if (count == 1) {
+                nodeClass[v] = CLOSEST_TO_ONE;
+                closestPole[v] = poles[set];
+            } else {
+                nodeClass[v] = CLOSEST_TO_MULTIPLE;
+            }
+        }
+    }
+
+    private int closestDistance(int v) {
+        int in = dist[2 * v], out = dist[2 * v + 1];
+        return in < 0 ? out : out < 0 ? in : Math.min(in, out);
+    }
+
+    /**
+     * Returns the distances of all nodes from the pole in the given slot. If they are not kept, they are
+     * computed in parallel with those of other poles that are not kept either, as far as the budget allows.
+     */
+    private int[] getDistancesFrom(int p) {
+        int[] result = poleDistances.get(p);
+        if (result != null)
+            return result;
+
+        int keep = Math.max(1, budget / Math.max(1, graph.size()));
+        List<Integer> missing = new ArrayList<>();
+        missing.add(p);
+        for (int q = 0; q < poles.length && poleDistances.size() + missing.size() < keep; q++) {
+            if (q != p && poles[q] != null && !poleDistances.containsKey(q))
+                missing.add(q);
+        }
+        int[][] computed = new int[missing.size()][];
+        IntStream.range(0, missing.size()).parallel()
+                .forEach(i -> computed[i] = searchFrom(missing.get(i)));
+        for (int i = missing.size() - 1; i >= 0; i--)
+            poleDistances.put(missing.get(i), computed[i]);
+        while (poleDistances.size() > keep)
+            poleDistances.remove(poleDistances.keySet().iterator().next());
+        return computed[0];
+    }
+
+    private int[] searchFrom(int p) {
+        int n = graph.size();
+        int[] d = new int[n];
+        Arrays.fill(d, -1);
+        int source = graph.indexOf(poles[p]);
+        if (source < 0)
+            return d;
+
+        int[] start = graph.getStart(isOutwards[p]), count = graph.getCount(isOutwards[p]);
+        int[] adjacent = graph.getAdjacent(isOutwards[p]);
+        int[] queue = new int[n];
+        int head = 0, tail = 0;
+        d[source] = 0;
+        queue[tail++] = source;
+        while (head < tail) {
+            int u = queue[head++];
+            for (int k = start[u], end = k + count[u]; k < end; k++) {
+                int t = adjacent[k];
+                if (d[t] < 0) {
+                    d[t] = d[u] + 1;
+                    queue[tail++] = t;
+                }
+            }
+        }
+        return d;
+    }
+
+    // ----- Changes -----
+
+    /**
+     * Brings the poles up to date with the given pole list. Poles that were removed or turned around
+     * are taken out first, then the new poles and new directions are added.
+     */
+    public synchronized void setPoles(List<CyNode> poleList, Predicate<CyNode> isOutwards) {
+        Set<CyNode> wanted = new HashSet<>(poleList);
+        States removed = new States();
+        for (int p = 0; p < poles.length; p++) {
+            CyNode pole = poles[p];
+            if (pole == null)
+                continue;
+            boolean keep = wanted.contains(pole);
+            if (keep && isOutwards.test(pole) == this.isOutwards[p])
+                continue;
+            int v = graph.indexOf(pole);
+            if (v >= 0)
+                removed.add(state(v, this.isOutwards[p]));
+            if (keep) {
+                this.isOutwards[p] = !this.isOutwards[p];
+            } else {
+                poles[p] = null;
+                poleSlot.remove(pole);
+            }
+        }
+        repair(removed);
+
+        States changed = new States();
+        for (int i = 0; i < poleList.size(); i++) {
+            CyNode pole = poleList.get(i);
+            Integer p = poleSlot.get(pole);
+            if (p == null) {
+                p = newSlot();
+                poles[p] = pole;
+                poleSlot.put(pole, p);
+            }
+            this.isOutwards[p] = isOutwards.test(pole);
+            position[p] = i;
+            seedPole(p, changed);
+        }
+        propagate(changed);
+        changed();
+    }
+
+    /**
+     * Adds the given nodes, which have no edges yet.
+     */
+    public synchronized void addNodes(Collection<CyNode> nodes) {
+        States changed = new States();
+        for (CyNode node : nodes) {
+            if (graph.indexOf(node) >= 0)
+                continue;
+            graph.addNode(node);
+            ensureStates();
+            Integer p = poleSlot.get(node);
+            if (p != null)
+                seedPole(p, changed);
+        }
+        propagate(changed);
+        changed();
+    }
+
+    /**
+     * Removes the given nodes, along with their edges. The network must still contain them.
+     */
+    public synchronized void removeNodes(CyNetwork network, Collection<CyNode> nodes) {
+        States affected = new States();
+        for (CyNode node : nodes) {
+            int v = graph.indexOf(node);
+            if (v < 0)
+                continue;
+            for (int direction = 0; direction < 2; direction++)
+                addChildren(state(v, direction == 1), affected);
+            graph.removeNode(network, node);
+            for (int direction = 0; direction < 2; direction++)
+                clear(state(v, direction == 1));
+        }
+        repair(affected);
+        changed();
+    }
+
+    /**
+     * Adds the given edges, adding their ends first if they are not in the snapshot yet.
+     */
+    public synchronized void addEdges(Collection<CyEdge> edges) {
+        States changed = new States();
+        for (CyEdge edge : edges) {
+            int s = graph.addNode(edge.getSource());
+            int t = graph.addNode(edge.getTarget());
+            ensureStates();
+            if (!graph.addEdge(edge))
+                continue;
+            // Outward poles reach the target from the source, inward poles the source from the target
+            offer(state(s, true), state(t, true), changed);
+            offer(state(t, false), state(s, false), changed);
+        }
+        propagate(changed);
+        changed();
+    }
+
+    /**
+     * Removes the given edges.
+     */
+    public synchronized void removeEdges(Collection<CyEdge> edges) {
+        States affected = new States();
+        for (CyEdge edge : edges) {
+            int s = graph.indexOf(edge.getSource()), t = graph.indexOf(edge.getTarget());
+            if (!graph.removeEdge(edge))
+                continue;
+            if (isChild(state(s, true), state(t, true)))
+                affected.add(state(t, true));
+            if (isChild(state(t, false), state(s, false)))
+                affected.add(state(s, false));
+        }
+        repair(affected);
+        changed();
+    }
+
+    // ----- Maintenance -----
+
+    /**
+     * Forgets everything that was derived from the distances.
+     */
+    private void changed() {
+        poleDistances.clear();
+        nodeClass = null;
+        closestPole = null;
+        version++;
+    }
+
+    private static int state(int node, boolean outwards) {
+        return 2 * node + (outwards ? 1 : 0);
+    }
+
+    private int newSlot() {
+        for (int p = 0; p < poles.length; p++) {
+            if (poles[p] == null)
+                return p;
+        }
+        int p = poles.length;
+        poles = Arrays.copyOf(poles, p + 1);
+        isOutwards = Arrays.copyOf(isOutwards, p + 1);
+        position = Arrays.copyOf(position, p + 1);
+        return p;
+    }
+
+    private void ensureStates() {
+        int n = 2 * graph.size();
+        if (n > dist.length) {
+            int length = Math.max(n, dist.length + dist.length / 2);
+            int old = dist.length;
+            dist = Arrays.copyOf(dist, length);
+            closest = Arrays.copyOf(closest, length);
+            Arrays.fill(dist, old, length, -1);
+            Arrays.fill(closest, old, length, PoleSets.EMPTY);
+        }
+    }
+
+    private void clear(int s) {
+        dist[s] = -1;
+        closest[s] = PoleSets.EMPTY;
+    }
+
+    /**
+     * Makes the state of the pole in the given slot the closest to that pole only, at distance 0.
+     */
+    private void seedPole(int p, States changed) {
+        int v = graph.indexOf(poles[p]);
+        if (v < 0)
+            return;
+        int s = state(v, isOutwards[p]);
+        if (dist[s] == 0 && closest[s] == p)
+            return;
+        dist[s] = 0;
+        closest[s] = p;
+        changed.add(s);
+    }
+
+    /**
+     * Offers state t the closest poles of state s, one step further.
+     * @return 2 if t got closer, 1 if it got more closest poles at the same distance, 0 otherwise
+     */
+    private int offer(int s, int t) {
+        if (dist[s] < 0)
+            return 0;
+        int d = dist[s] + 1;
+        if (dist[t] < 0 || dist[t] > d) {
+            dist[t] = d;
+            closest[t] = closest[s];
+            return 2;
+        }
+        if (dist[t] == d) {
+            int union = sets.union(closest[t], closest[s]);
+            boolean grew = union != closest[t];
+            closest[t] = union;
+            return grew ? 1 : 0;
+        }
+        return 0;
+    }
+
+    private void offer(int s, int t, States changed) {
+        if (offer(s, t) != 0)
+            changed.add(t);
+    }
+
+    /**
+     * Returns true if state t got its closest poles from state s, at least in part.
+     */
+    private boolean isChild(int s, int t) {
+        return dist[s] >= 0 && dist[t] == dist[s] + 1 && sets.intersect(closest[s], closest[t]);
+    }
+
+    private void addChildren(int s, States children) {
+        boolean outwards = (s & 1) == 1;
+        int[] start = graph.getStart(outwards), count = graph.getCount(outwards), adjacent = graph.getAdjacent(outwards);
+        int u = s >> 1;
+        for (int k = start[u], end = k + count[u]; k < end; k++) {
+            int t = state(adjacent[k], outwards);
+            if (isChild(s, t))
+                children.add(t);
+        }
+    }
+
+    /**
+     * Continues the traversal from the given states, whose distances or closest poles have changed.
+     * States are visited in order of distance, so the closest poles of a state are complete by the
+     * time they are passed on, and the traversal stops where nothing changes.
+     */
+    private void propagate(States changed) {
+        if (changed.size == 0)
+            return;
+        long[] seeds = new long[changed.size];
+        BitSet queued = new BitSet(dist.length);
+        for (int i = 0; i < changed.size; i++) {
+            int s = changed.get(i);
+            seeds[i] = (long) dist[s] << 32 | s;
+            queued.set(s);
+        }
+        Arrays.sort(seeds);
+
+        States queue = new States();
+        int head = 0, next = 0;
+        while (true) {
+            int s;
+            if (head < queue.size && (next == seeds.length || dist[queue.get(head)] <= (int) (seeds[next] >>> 32))) {
+                s = queue.get(head++);
+            } else if (next < seeds.length) {
+                s = (int) seeds[next];
+                if (dist[s] != (int) (seeds[next++] >>> 32))
+                    continue;
+            } else {
+                break;
+            }
+            if (!queued.get(s))
+                continue;
+            queued.clear(s);
+
+            boolean outwards = (s & 1) == 1;
+            int[] start = graph.getStart(outwards), count = graph.getCount(outwards);
+            int[] adjacent = graph.getAdjacent(outwards);
+            int u = s >> 1;
+            for (int k = start[u], end = k + count[u]; k < end; k++) {
+                int t = state(adjacent[k], outwards);
+                int result = offer(s, t);
+                if (result == 2 || result == 1 && !queued.get(t)) {
+                    queued.set(t);
+                    queue.add(t);
+                }
+            }
+        }
+    }
+
+    /**
+     * Searches again for the closest poles of the given states, whose shortest paths have been cut,
+     * and of every state that got its closest poles through them. The rest of the states keep theirs,
+     * and the search starts from those next to the affected ones.
+     */
+    private void repair(States affected) {
+        if (affected.size == 0)
+            return;
+        BitSet region = new BitSet(dist.length);
+        States list = new States();
+        for (int i = 0; i < affected.size; i++) {
+            int s = affected.get(i);
+            if (!region.get(s)) {
+                region.set(s);
+                list.add(s);
+            }
+        }
+        for (int i = 0; i < list.size; i++) {
+            int s = list.get(i);
+            boolean outwards = (s & 1) == 1;
+            int[] start = graph.getStart(outwards), count = graph.getCount(outwards);
+            int[] adjacent = graph.getAdjacent(outwards);
+            int u = s >> 1;
+            for (int k = start[u], end = k + count[u]; k < end; k++) {
+                int t = state(adjacent[k], outwards);
+                if (!region.get(t) && isChild(s, t)) {
+                    region.set(t);
+                    list.add(t);
+                }
+            }
+        }
+        for (int i = 0; i < list.size; i++)
+            clear(list.get(i));
+
+        // Start from the poles and the unaffected predecessors of the affected states
+        States changed = new States();
+        for (int i = 0; i < list.size; i++) {
+            int s = list.get(i);
+            int u = s >> 1;
+            boolean outwards = (s & 1) == 1;
+            if (graph.getNode(u) == null)
+                continue;
+            Integer p = poleSlot.get(graph.getNode(u));
+            if (p != null && isOutwards[p] == outwards) {
+                seedPole(p, changed);
+                continue;
+            }
+            int[] start = graph.getStart(!outwards), count = graph.getCount(!outwards);
+            int[] adjacent = graph.getAdjacent(!outwards);
+            boolean reached = false;
+            for (int k = start[u], end = k + count[u]; k < end; k++) {
+                int r = state(adjacent[k], outwards);
+                if (!region.get(r) && offer(r, s) != 0)
+                    reached = true;
+            }
+            if (reached)
+                changed.add(s);
+        }
+        propagate(changed);
+    }
+
+    /**
+     * Sets of pole slots. The set of a single pole is numbered by its slot, the empty set is -1,
+     * and larger sets are kept in a table and numbered -2 - their index in it, so that every node
+     * with the same closest poles shares one copy. Sets are never removed from the table.
+     */
+    private static final class PoleSets {
+        static final int EMPTY = -1;
+
+        private final List<int[]> table = new ArrayList<>();
+        private final Map<Members, Integer> numbers = new HashMap<>();
+        private final Map<Long, Integer> unions = new HashMap<>();
+
+        int[] get(int set) {
+            if (set == EMPTY)
+                return new int[0];
+            return set >= 0 ? new int[] {set} : table.get(-2 - set);
+        }
+
+        int size(int set) {
+            return set == EMPTY ? 0 : set >= 0 ? 1 : table.get(-2 - set).length;
+        }
+
+        boolean contains(int set, int p) {
+            if (set >= 0 || set == EMPTY)
+                return set == p;
+            return Arrays.binarySearch(table.get(-2 - set), p) >= 0;
+        }
+
+        boolean intersect(int a, int b) {
+            if (a == EMPTY || b == EMPTY)
+                return false;
+            if (a >= 0)
+                return contains(b, a);
+            if (b >= 0)
+                return contains(a, b);
+            for (int p : table.get(-2 - a)) {
+                if (contains(b, p))
+                    return true;
+            }
+            return false;
+        }
+
+        int union(int a, int b) {
+            if (a == b || b == EMPTY)
+                return a;
+            if (a == EMPTY)
+                return b;
+            long key = (long) Math.min(a, b) << 32 | (Math.max(a, b) & 0xffffffffL);
+            Integer known = unions.get(key);
+            if (known != null)
+                return known;
+
+            int[] x = get(a), y = get(b);
+            int[] merged = new int[x.length + y.length];
+            int i = 0, j = 0, n = 0;
+            while (i < x.length || j < y.length) {
+                if (j == y.length || i < x.length && x[i] < y[j])
+                    merged[n++] = x[i++];
+                else if (i == x.length || y[j] < x[i])
+                    merged[n++] = y[j++];
+                else {
+                    merged[n++] = x[i++];
+                    j++;
+                }
+            }
+            int set = intern(Arrays.copyOf(merged, n));
+            unions.put(key, set);
+            return set;
+        }
+
+        private int intern(int[] members) {
+            if (members.length == 1)
+                return members[0];
+            return numbers.computeIfAbsent(new Members(members), m -> {
+                table.add(members);
+                return -1 - table.size();
+            });
+        }
+
+        private static final class Members {
+            final int[] members;
+
+            Members(int[] members) {
+                this.members = members;
+            }
+
+            @Override
+            public boolean equals(Object o) {
+                return o instanceof Members && Arrays.equals(members, ((Members) o).members);
+            }
+
+            @Override
+            public int hashCode() {
+                return Arrays.hashCode(members);
+            }
+        }
+    }
+
+    /**
+     * A growable list of states.
+     */
+    private static final class States {
+        private int[] items = new int[16];
+        private int size;
+
+        void add(int s) {
+            if (size == items.length)
+                items = Arrays.copyOf(items, 2 * size);
+            items[size++] = s;
+        }
+
+        int get(int i) {
+            return items[i];
+        }
+    }
+}
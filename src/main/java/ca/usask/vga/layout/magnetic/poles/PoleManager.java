@@ -2,29 +2,37 @@ package ca.usask.vga.layout.magnetic.poles;
 
 import org.cytoscape.application.events.SetCurrentNetworkEvent;
 import org.cytoscape.application.events.SetCurrentNetworkListener;
+import org.cytoscape.event.CyEventHelper;
 import org.cytoscape.model.*;
-import org.cytoscape.model.events.NetworkAddedEvent;
-import org.cytoscape.model.events.NetworkAddedListener;
+import org.cytoscape.model.events.*;
 import org.cytoscape.session.events.SessionAboutToBeLoadedEvent;
 import org.cytoscape.session.events.SessionAboutToBeLoadedListener;
 import org.cytoscape.work.undo.UndoSupport;
 import org.jetbrains.annotations.Nullable;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * Used to store information about the selected poles, as well as
  * calculating the closest pole for every node. Any changes to the
  * list of poles must be submitted through this service.
  */
-public class PoleManager implements NetworkAddedListener, SetCurrentNetworkListener, SessionAboutToBeLoadedListener {
+public class PoleManager implements NetworkAddedListener, SetCurrentNetworkListener, SessionAboutToBeLoadedListener,
+        AddedNodesListener, AddedEdgesListener, AboutToRemoveNodesListener, AboutToRemoveEdgesListener {
 
     protected final UndoSupport undoSupport;
+    protected final CyEventHelper eventHelper;
 
+    /** Poles of every network. Read by concurrent layouts, so the maps and lists are thread-safe. */
     protected Map<CyNetwork, List<CyNode>> poleList;
     protected Set<CyNode> poleIsOutwards;
+    /** The same poles as the pole lists, for constant time lookups. Derived from the lists when missing. */
+    protected Map<CyNetwork, Set<CyNode>> poleSet;
 
-    protected Map<CyNetwork, Map<CyNode, Map<CyNode, Byte>>> cachedPoleDistances;
+    protected Map<CyNetwork, PoleDistances> cachedPoleDistances;
+    protected Set<CyNetwork> changedPoleLists;
 
     // Table column names
     public static final String NAMESPACE = "Magnetic Poles", IS_POLE = "Is pole?", CLOSEST_POLE = "Closest pole",
@@ -46,11 +54,14 @@ public class PoleManager implements NetworkAddedListener, SetCurrentNetworkListe
     /**
      * Creates a new PoleManager service for all networks, with undo support.
      */
-    public PoleManager(CyNetworkManager networkManager, UndoSupport undoSupport) {
+    public PoleManager(CyNetworkManager networkManager, UndoSupport undoSupport, CyEventHelper eventHelper) {
         this.undoSupport = undoSupport;
-        poleList = new HashMap<>();
-        poleIsOutwards = new HashSet<>();
+        this.eventHelper = eventHelper;
+        poleList = new ConcurrentHashMap<>();
+        poleIsOutwards = ConcurrentHashMap.newKeySet();
+        poleSet = new ConcurrentHashMap<>();
         cachedPoleDistances = new HashMap<>();
+        changedPoleLists = new HashSet<>();
         changeListeners = new ArrayList<>();
         initializationListeners = new ArrayList<>();
         for (CyNetwork net : networkManager.getNetworkSet()) {
@@ -63,9 +74,34 @@ public class PoleManager implements NetworkAddedListener, SetCurrentNetworkListe
      * if it doesn't already exist.
      */
     protected void initializePoleList(CyNetwork network) {
-        if (!poleList.containsKey(network) && network != null) {
-            poleList.put(network, new ArrayList<>());
-        }
+        if (network != null)
+            poleList.computeIfAbsent(network, k -> new CopyOnWriteArrayList<>());
+    }
+
+    /**
+     * Returns the set of poles for the given network, which holds the same poles as its pole list.
+     */
+    protected Set<CyNode> getPoleSet(CyNetwork network) {
+        if (network == null)
+            return Collections.emptySet();
+        return poleSet.computeIfAbsent(network, k -> {
+            Set<CyNode> set = ConcurrentHashMap.newKeySet();
+            set.addAll(getPoleList(k));
+            return set;
+        });
+    }
+
+    /**
+     * Replaces the poles of all networks with copies of the given ones, e.g. on undo or redo.
+     */
+    protected void restorePoles(Map<CyNetwork, List<CyNode>> lists, Set<CyNode> outwards) {
+        Map<CyNetwork, List<CyNode>> map = new ConcurrentHashMap<>();
+        lists.forEach((network, list) -> map.put(network, new CopyOnWriteArrayList<>(list)));
+        Set<CyNode> set = ConcurrentHashMap.newKeySet();
+        set.addAll(outwards);
+        poleList = map;
+        poleIsOutwards = set;
+        poleSet = new ConcurrentHashMap<>();
     }
 
     /**
@@ -102,7 +138,8 @@ public class PoleManager implements NetworkAddedListener, SetCurrentNetworkListe
     }
 
     /**
-     * Returns the list of poles for the given network.
+     * Returns the list of poles for the given network. The list must not be modified,
+     * use {@link #addPole} and {@link #removePole} instead.
      */
     public List<CyNode> getPoleList(CyNetwork network) {
         if (network == null) {
@@ -170,9 +207,11 @@ public class PoleManager implements NetworkAddedListener, SetCurrentNetworkListe
      * Call {@link #updateTables(CyNetwork)} to update the coloring.
      */
     public void addPole(CyNetwork network, CyNode node) {
-        if (!getPoleList(network).contains(node)) {
+        if (!isPole(network, node)) {
             boolean isFirstPole = getPoleCount(network) == 0;
             getPoleList(network).add(node);
+            getPoleSet(network).add(node);
+            invalidateCache(network, node);
 
             // If this was the first pole added, fire the event
             if (isFirstPole) for (var l : initializationListeners) l.run();
@@ -234,7 +273,10 @@ public class PoleManager implements NetworkAddedListener, SetCurrentNetworkListe
      * Call {@link #updateTables(CyNetwork)} ()} to update the coloring.
      */
     public void removePole(CyNetwork network, CyNode node) {
-        getPoleList(network).remove(node);
+        if (getPoleList(network).remove(node)) {
+            getPoleSet(network).remove(node);
+            invalidateCache(network, node);
+        }
     }
 
     /**
@@ -253,107 +295,59 @@ public class PoleManager implements NetworkAddedListener, SetCurrentNetworkListe
      */
     public void removeAllPoles(CyNetwork network) {
         getPoleList(network).clear();
+        getPoleSet(network).clear();
+        invalidateNetworkCache(network);
     }
 
     /**
      * Returns true if the given node is a pole.
      */
     public boolean isPole(CyNetwork network, CyNode node) {
-        return getPoleList(network).contains(node);
+        return getPoleSet(network).contains(node);
     }
 
     /**
-     * Returns the cached shortest distances for the given network and pole.
+     * Returns the shortest distances between the poles and the nodes of the given network.
+     * This is an expensive operation, so it is cached, and kept up to date with the changes
+     * to the pole list and to the network. A new snapshot of the network is only taken if it
+     * has changed in a way that was not followed, or after a great number of changes.
      */
-    protected Map<CyNode, Byte> getCachedShortestDistances(CyNetwork network, CyNode pole) {
-        if (cachedPoleDistances != null && cachedPoleDistances.containsKey(network) && cachedPoleDistances.get(network).containsKey(pole))
-            return cachedPoleDistances.get(network).get(pole);
-        return null;
-    }
-
-    /**
-     * Saves the given shortest distances for the given network and pole.
-     */
-    protected void setCachedShortestDistances(CyNetwork network, CyNode pole, Map<CyNode, Byte> distances) {
-        if (cachedPoleDistances == null)
-            cachedPoleDistances = new HashMap<>();
-        if (!cachedPoleDistances.containsKey(network))
-            cachedPoleDistances.put(network, new HashMap<CyNode, Map<CyNode, Byte>>());
-        cachedPoleDistances.get(network).put(pole, distances);
-    }
-
-    /**
-     * Invalidates the cached shortest distances for the given network and pole.
-     * Called whenever a pole is removed or its direction is changed. The rest of
-     * the cache can still be used.
-     */
-    protected void invalidateCache(CyNetwork network, CyNode pole) {
-        if (cachedPoleDistances != null && cachedPoleDistances.containsKey(network))
-            cachedPoleDistances.get(network).remove(pole);
+    protected synchronized PoleDistances getPoleDistances(CyNetwork network) {
+        PoleDistances distances = cachedPoleDistances.get(network);
+        if (distances == null || !distances.getAdjacency().isCurrent(network) || distances.getAdjacency().isFragmented()) {
+            distances = new PoleDistances(new NetworkAdjacency(network), getPoleList(network),
+                    pole -> isPoleOutwards(network, pole));
+            cachedPoleDistances.put(network, distances);
+            changedPoleLists.remove(network);
+        } else if (changedPoleLists.remove(network)) {
+            distances.setPoles(getPoleList(network), pole -> isPoleOutwards(network, pole));
+        }
+        return distances;
     }
 
     /**
-     * Invalidates the cached shortest distances for the given network.
-     * Called whenever the entire pole list is changed. The entire cache will be erased.
+     * Marks the cached shortest distances of the given network as out of date.
+     * Called whenever a pole is added, removed or its direction is changed. The distances
+     * are updated for the poles that have changed the next time they are needed.
      */
-    protected void invalidateNetworkCache(CyNetwork network) {
-        if (cachedPoleDistances != null && cachedPoleDistances.containsKey(network))
-            cachedPoleDistances.get(network).clear();
+    protected synchronized void invalidateCache(CyNetwork network, CyNode pole) {
+        changedPoleLists.add(network);
     }
 
     /**
-     * Returns the shortest distances from the given pole to every other node in the given network.
-     * This is an expensive operation, so it is cached.
-     * To force a new calculation, {@link #invalidateCache(CyNetwork, CyNode)} must be called.
+     * Marks the cached shortest distances of the given network as out of date.
+     * Called whenever the entire pole list is changed, e.g. by undo or redo. The distances
+     * are updated for the differences between the pole lists the next time they are needed.
      */
-    protected Map<CyNode, Byte> getShortestDistancesFrom(CyNetwork network, CyNode pole) {
-        // Caching
-        Map<CyNode, Byte> cache = getCachedShortestDistances(network, pole);
-        if (cache != null)
-            return cache;
-
-        // RUN BFS
-        boolean isOutwards = isPoleOutwards(network, pole);
-
-        Queue<CyNode> toExplore = new ArrayDeque<>();
-        toExplore.add(pole);
-
-        Set<CyNode> visited = new HashSet<>();
-
-        Map<CyNode, Byte> shortestDistances = new HashMap<>();
-        shortestDistances.put(pole, (byte) 0);
-
-        while (!toExplore.isEmpty()) {
-
-            CyNode n = toExplore.remove();
-            visited.add(n);
-            byte dist = shortestDistances.get(n);
-
-            CyEdge.Type edgeDirection = isOutwards ? CyEdge.Type.OUTGOING : CyEdge.Type.INCOMING;
-
-            for (CyEdge e : network.getAdjacentEdgeIterable(n, edgeDirection)) {
-                CyNode n2 = e.getSource();
-                if (isOutwards) n2 = e.getTarget();
-                if (visited.contains(n2)) continue;
-                if (toExplore.contains(n2)) continue;
-                toExplore.add(n2);
-                shortestDistances.put(n2, (byte) (dist+1));
-            }
-
-        }
-
-        setCachedShortestDistances(network, pole, shortestDistances);
-        return shortestDistances;
+    protected synchronized void invalidateNetworkCache(CyNetwork network) {
+        changedPoleLists.add(network);
     }
 
     /**
      * Returns the distance from the given node to the given pole.
      */
     public int getDistanceToPole(CyNetwork network, CyNode pole, CyNode from) {
-        Map<CyNode, Byte> distances = getShortestDistancesFrom(network, pole);
-        if (!distances.containsKey(from))
-            return UNREACHABLE_NODE; // FAR AWAY
-        return distances.get(from);
+        return getPoleDistances(network).getDistance(pole, from);
     }
 
     /**
@@ -361,38 +355,15 @@ public class PoleManager implements NetworkAddedListener, SetCurrentNetworkListe
      * all of them are returned. If there are no poles within reach, an empty list is returned.
      */
     public Collection<CyNode> getClosestPoles(CyNetwork network, CyNode from) {
-
-        List<CyNode> closestPoles = new ArrayList<>();
-        int closestDist = UNREACHABLE_NODE;
-        boolean equalDistance = false;
-
-        for (CyNode pole : getPoleList(network)) {
-
-            int dist = getDistanceToPole(network, pole, from);
-            if (dist <= closestDist) {
-                equalDistance = dist == closestDist;
-                if (!equalDistance)
-                    closestPoles.clear();
-                closestDist = dist;
-                closestPoles.add(pole);
-            }
-
-        }
-
-        if (closestDist == UNREACHABLE_NODE)
-            closestPoles.clear();
-        return closestPoles;
+        return getPoleDistances(network).getClosestPoles(from);
     }
 
     /**
      * Returns the closest pole to the given node. If there are multiple poles with the same distance,
-     * the first one is returned. If there are no poles within reach, null is returned.
+     * or if there are no poles within reach, null is returned.
      */
     public CyNode getClosestPole(CyNetwork network, CyNode from) {
-        Collection<CyNode> closest = getClosestPoles(network, from);
-        if (closest.size() == 1)
-            return closest.iterator().next();
-        return null;
+        return getPoleDistances(network).getClosestPole(from);
     }
 
     /**
@@ -401,9 +372,9 @@ public class PoleManager implements NetworkAddedListener, SetCurrentNetworkListe
      */
     @Nullable
     public Integer getClosestPoleDistance(CyNetwork network, CyNode from) {
-        Collection<CyNode> closest = getClosestPoles(network, from);
-        if (closest.size() > 0)
-            return getDistanceToPole(network, closest.iterator().next(), from);
+        PoleDistances distances = getPoleDistances(network);
+        if (distances.getNodeClass(from) != PoleDistances.DISCONNECTED)
+            return distances.getClosestPoleDistance(from);
         return null;
     }
 
@@ -413,7 +384,7 @@ public class PoleManager implements NetworkAddedListener, SetCurrentNetworkListe
      */
     public boolean isDisconnected(CyNetwork network, CyNode from) {
         if (from == null) return true;
-        return getClosestPoles(network, from).size() == 0;
+        return getPoleDistances(network).getNodeClass(from) == PoleDistances.DISCONNECTED;
     }
 
     /**
@@ -421,7 +392,7 @@ public class PoleManager implements NetworkAddedListener, SetCurrentNetworkListe
      */
     public boolean isClosestToMultiple(CyNetwork network, CyNode from) {
         if (from == null) return false;
-        return getClosestPoles(network, from).size() > 1;
+        return getPoleDistances(network).getNodeClass(from) == PoleDistances.CLOSEST_TO_MULTIPLE;
     }
 
     /**
@@ -429,7 +400,7 @@ public class PoleManager implements NetworkAddedListener, SetCurrentNetworkListe
      */
     public boolean isClosestToOne(CyNetwork network, CyNode from) {
         if (from == null) return false;
-        return getClosestPoles(network, from).size() == 1;
+        return getPoleDistances(network).getNodeClass(from) == PoleDistances.CLOSEST_TO_ONE;
     }
 
     /**
@@ -447,9 +418,8 @@ public class PoleManager implements NetworkAddedListener, SetCurrentNetworkListe
      * If there are multiple poles, or if there are no poles, null is returned.
      */
     public CyNode getAssignedPole(CyNetwork network, CyEdge edge) {
-        Collection<CyNode> closest = getAssignedPoles(network, edge);
         if (isClosestToOne(network, edge))
-            return closest.iterator().next();
+            return getClosestPole(network, edge.getSource());
         return null;
     }
 
@@ -523,6 +493,9 @@ public class PoleManager implements NetworkAddedListener, SetCurrentNetworkListe
      * This means that colors, names, and other attributes are updated according
      * to the new pole distances and closest poles.
      * After the update, the table may be saved to the session file and reloaded later.
+     * <p>
+     * Only the cells whose values have changed since the last update are written, and the
+     * resulting table events are flushed once at the end, so that the styles are updated once.
      */
     public void updateTables(CyNetwork network) {
 
@@ -531,32 +504,17 @@ public class PoleManager implements NetworkAddedListener, SetCurrentNetworkListe
         if (networkTable.getColumn(NAMESPACE, IN_POLE_LIST) == null) {
             networkTable.createListColumn(NAMESPACE, IN_POLE_LIST, String.class, false);
         }
-        networkTable.getRow(network.getSUID()).set(NAMESPACE, IN_POLE_LIST, getInPoleNameList(network));
-
         if (networkTable.getColumn(NAMESPACE, OUT_POLE_LIST) == null) {
             networkTable.createListColumn(NAMESPACE, OUT_POLE_LIST, String.class, false);
         }
-        networkTable.getRow(network.getSUID()).set(NAMESPACE, OUT_POLE_LIST, getOutPoleNameList(network));
+        CyRow networkRow = networkTable.getRow(network.getSUID());
+        setIfChanged(networkRow, IN_POLE_LIST, getInPoleNameList(network), List.class);
+        setIfChanged(networkRow, OUT_POLE_LIST, getOutPoleNameList(network), List.class);
 
         CyTable nodeTable = network.getDefaultNodeTable();
-
-        // IS_POLE column
         if (nodeTable.getColumn(NAMESPACE, IS_POLE) == null) {
             nodeTable.createColumn(NAMESPACE, IS_POLE, Boolean.class, false);
         }
-        for (CyNode node : network.getNodeList()) {
-            nodeTable.getRow(node.getSUID()).set(NAMESPACE, IS_POLE, isPole(network, node));
-        }
-
-        // IS_OUTWARDS column
-        /*if (nodeTable.getColumn(NAMESPACE, IS_OUTWARDS) == null) {
-            nodeTable.createColumn(NAMESPACE, IS_OUTWARDS, Boolean.class, false);
-        }
-        for (CyNode node : network.getNodeList()) {
-            nodeTable.getRow(node.getSUID()).set(NAMESPACE, IS_OUTWARDS, isPoleOutwards(network, node));
-        }*/
-
-        // CLOSEST_POLE and DISTANCE_TO_POLE columns
         if (nodeTable.getColumn(NAMESPACE, CLOSEST_POLE) == null) {
             nodeTable.createColumn(NAMESPACE, CLOSEST_POLE, String.class, false);
         }
@@ -567,60 +525,81 @@ public class PoleManager implements NetworkAddedListener, SetCurrentNetworkListe
             nodeTable.createColumn(NAMESPACE, IS_DISCONNECTED, Boolean.class, false);
         }
 
-        for (CyNode node : network.getNodeList()) {
-            CyNode closestPole = getClosestPole(network, node);
-            boolean isDisconnected = isDisconnected(network, node);
-            if (closestPole != null) {
-                nodeTable.getRow(node.getSUID()).set(NAMESPACE, CLOSEST_POLE, getPoleName(network, closestPole));
-            } else {
-                if (isDisconnected)
-                    nodeTable.getRow(node.getSUID()).set(NAMESPACE, CLOSEST_POLE, DISCONNECTED_NAME);
-                else
-                    nodeTable.getRow(node.getSUID()).set(NAMESPACE, CLOSEST_POLE, MULTIPLE_POLES_NAME);
-            }
-            nodeTable.getRow(node.getSUID()).set(NAMESPACE, DISTANCE_TO_POLE, getClosestPoleDistance(network, node));
-            nodeTable.getRow(node.getSUID()).set(NAMESPACE, IS_DISCONNECTED, isDisconnected);
-        }
-
-        // EDGE_POLE_INFLUENCE
         CyTable edgeTable = network.getDefaultEdgeTable();
-
         if (edgeTable.getColumn(NAMESPACE, EDGE_ASSIGNED_POLE) == null) {
             edgeTable.createColumn(NAMESPACE, EDGE_ASSIGNED_POLE, String.class, false);
         }
-        for (CyEdge edge : network.getEdgeList()) {
-            CyNode pole = getAssignedPole(network, edge);
-            if (pole != null)
-                edgeTable.getRow(edge.getSUID()).set(NAMESPACE, EDGE_ASSIGNED_POLE, getPoleName(network, pole));
-            else {
-                if (isDisconnected(network, edge))
-                    edgeTable.getRow(edge.getSUID()).set(NAMESPACE, EDGE_ASSIGNED_POLE, DISCONNECTED_NAME);
-                else
-                    edgeTable.getRow(edge.getSUID()).set(NAMESPACE, EDGE_ASSIGNED_POLE, MULTIPLE_POLES_NAME);
-            }
+        if (edgeTable.getColumn(NAMESPACE, EDGE_TARGET_NODE_POLE) == null) {
+            edgeTable.createColumn(NAMESPACE, EDGE_TARGET_NODE_POLE, String.class, false);
         }
 
-        // EDGE_POLE_TARGET
+        // The names of the poles are looked up once, rather than once per node and edge
+        Set<CyNode> poles = new HashSet<>(getPoleList(network));
+        Map<CyNode, String> poleNames = new HashMap<>();
+        for (CyNode pole : poles)
+            poleNames.put(pole, getPoleName(network, pole));
 
-        if (edgeTable.getColumn(NAMESPACE, EDGE_TARGET_NODE_POLE) == null) {
-            edgeTable.createColumn(NAMESPACE, EDGE_TARGET_NODE_POLE, String.class, false);
+        PoleDistances distances = getPoleDistances(network);
+
+        // IS_POLE, CLOSEST_POLE, DISTANCE_TO_POLE and IS_DISCONNECTED columns
+        for (CyNode node : network.getNodeList()) {
+            CyRow row = nodeTable.getRow(node.getSUID());
+            byte nodeClass = distances.getNodeClass(node);
+            boolean isDisconnected = nodeClass == PoleDistances.DISCONNECTED;
+            setIfChanged(row, IS_POLE, poles.contains(node), Boolean.class);
+            setIfChanged(row, CLOSEST_POLE,
+                    getPoleLabel(poleNames, distances.getClosestPole(node), isDisconnected), String.class);
+            setIfChanged(row, DISTANCE_TO_POLE,
+                    isDisconnected ? null : distances.getClosestPoleDistance(node), Integer.class);
+            setIfChanged(row, IS_DISCONNECTED, isDisconnected, Boolean.class);
         }
+
+        // EDGE_ASSIGNED_POLE and EDGE_TARGET_NODE_POLE columns
         for (CyEdge edge : network.getEdgeList()) {
-            CyNode pole = getTargetPole(network, edge);
-            if (pole != null)
-                edgeTable.getRow(edge.getSUID()).set(NAMESPACE, EDGE_TARGET_NODE_POLE, getPoleName(network, pole));
-            else {
-                if (isDisconnected(network, edge))
-                    edgeTable.getRow(edge.getSUID()).set(NAMESPACE, EDGE_TARGET_NODE_POLE, DISCONNECTED_NAME);
-                else
-                    edgeTable.getRow(edge.getSUID()).set(NAMESPACE, EDGE_TARGET_NODE_POLE, MULTIPLE_POLES_NAME);
-            }
+            CyRow row = edgeTable.getRow(edge.getSUID());
+            CyNode sourcePole = distances.getClosestPole(edge.getSource());
+            CyNode targetPole = distances.getClosestPole(edge.getTarget());
+            boolean isDisconnected = distances.getNodeClass(edge.getSource()) == PoleDistances.DISCONNECTED
+                    || distances.getNodeClass(edge.getTarget()) == PoleDistances.DISCONNECTED;
+
+            CyNode assignedPole = sourcePole != null && sourcePole == targetPole ? sourcePole : null;
+            setIfChanged(row, EDGE_ASSIGNED_POLE, getPoleLabel(poleNames, assignedPole, isDisconnected), String.class);
+
+            // Same as getTargetPole, with the closest poles looked up once
+            CyNode inwardPole = targetPole != null && !isPoleOutwards(network, targetPole) ? targetPole : null;
+            CyNode outwardPole = sourcePole != null && isPoleOutwards(network, sourcePole) ? sourcePole : null;
+            CyNode edgeTargetPole = (inwardPole == null) == (outwardPole == null) ? null
+                    : inwardPole != null ? inwardPole : outwardPole;
+            setIfChanged(row, EDGE_TARGET_NODE_POLE, getPoleLabel(poleNames, edgeTargetPole, isDisconnected), String.class);
         }
 
+        // Deliver the row changes in one batch
+        eventHelper.flushPayloadEvents();
+
         tableInitialized = true;
         for (var l : changeListeners) l.run();
     }
 
+    /**
+     * Returns the name of the given pole, or the name for disconnected nodes or
+     * nodes closest to multiple poles if the pole is null.
+     */
+    private static String getPoleLabel(Map<CyNode, String> poleNames, CyNode pole, boolean isDisconnected) {
+        if (pole != null)
+            return poleNames.get(pole);
+        return isDisconnected ? DISCONNECTED_NAME : MULTIPLE_POLES_NAME;
+    }
+
+    /**
+     * Sets the given pole column of the row, unless it already has the given value.
+     * Reading a cell is much cheaper than writing one, which goes through the locking
+     * and events of the table, and most cells do not change between updates.
+     */
+    private static <T> void setIfChanged(CyRow row, String column, T value, Class<? extends T> type) {
+        if (!Objects.equals(row.get(NAMESPACE, column, type), value))
+            row.set(NAMESPACE, column, value);
+    }
+
     /**
      * When a new network is added, attempt to import the pole list from the table of the network.
      */
@@ -632,6 +611,49 @@ public class PoleManager implements NetworkAddedListener, SetCurrentNetworkListe
         readPoleListFromTable(e.getNetwork());
     }
 
+    /**
+     * When nodes are added to a network, extend its cached shortest distances.
+     */
+    @Override
+    public synchronized void handleEvent(AddedNodesEvent e) {
+        PoleDistances distances = cachedPoleDistances.get(e.getSource());
+        if (distances != null)
+            distances.addNodes(e.getPayloadCollection());
+    }
+
+    /**
+     * When edges are added to a network, update its cached shortest distances
+     * for the paths that have become shorter.
+     */
+    @Override
+    public synchronized void handleEvent(AddedEdgesEvent e) {
+        PoleDistances distances = cachedPoleDistances.get(e.getSource());
+        if (distances != null)
+            distances.addEdges(e.getPayloadCollection());
+    }
+
+    /**
+     * When nodes are about to be removed from a network, update its cached shortest
+     * distances for the paths that went through them.
+     */
+    @Override
+    public synchronized void handleEvent(AboutToRemoveNodesEvent e) {
+        PoleDistances distances = cachedPoleDistances.get(e.getSource());
+        if (distances != null)
+            distances.removeNodes(e.getSource(), e.getNodes());
+    }
+
+    /**
+     * When edges are about to be removed from a network, update its cached shortest
+     * distances for the paths that went through them.
+     */
+    @Override
+    public synchronized void handleEvent(AboutToRemoveEdgesEvent e) {
+        PoleDistances distances = cachedPoleDistances.get(e.getSource());
+        if (distances != null)
+            distances.removeEdges(e.getEdges());
+    }
+
     /**
      * When the current network is changed, update the pole table columns of the network,
      * to make sure the colors and other attributes reflect the new pole positions.
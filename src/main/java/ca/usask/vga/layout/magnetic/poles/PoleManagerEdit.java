@@ -60,16 +60,14 @@ public class PoleManagerEdit extends AbstractCyEdit {
 
     @Override
     public void undo() {
-        poleManager.poleList = copyMap(poleListBefore);
-        poleManager.poleIsOutwards = copySet(poleIsOutwardsBefore);
+        poleManager.restorePoles(poleListBefore, poleIsOutwardsBefore);
         poleManager.invalidateNetworkCache(network);
         poleManager.updateTables(network);
     }
 
     @Override
     public void redo() {
-        poleManager.poleList = copyMap(poleListAfter);
-        poleManager.poleIsOutwards = copySet(poleIsOutwardsAfter);
+        poleManager.restorePoles(poleListAfter, poleIsOutwardsAfter);
         poleManager.invalidateNetworkCache(network);
         poleManager.updateTables(network);
     }
@@ -0,0 +1,132 @@
+package ca.usask.vga.layout.magnetic.util;
+
+import org.cytoscape.model.CyEdge;
+import prefuse.util.force.ForceItem;
+import prefuse.util.force.SimulationState;
+import prefuse.util.force.Spring;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A {@link PoleClassifier} frozen for one simulation, that answers every query with an array lookup
+ * by the index of the item or spring in its {@link SimulationState}. It is created by
+ * {@link MapPoleClassifier#compile(SimulationState)} once all items and springs have been mapped,
+ * and only knows about the items and springs of that state.
+ * <p>
+ * Since it never changes, it can be used from several threads at once.
+ */
+public class CompiledPoleClassifier implements PoleClassifier {
+
+    /** Classes of items and springs by the number of closest poles */
+    static final byte DISCONNECTED = 0, CLOSEST_TO_ONE = 1, CLOSEST_TO_MULTIPLE = 2;
+
+    private final SimulationState state;
+    private final MapPoleClassifier source;
+    private final List<ForceItem> poleList;
+
+    /** Per item: index of the closest pole, or -1 if there is not exactly one */
+    private final int[] closestPole;
+    /** Per item: hop distance to the closest poles */
+    private final int[] poleDistance;
+    private final byte[] itemClass;
+    private final boolean[] isPole, isPoleOutwards;
+
+    /** Per spring: index of the pole it is assigned to, or -1 if there is not exactly one */
+    private final int[] springPole;
+    private final byte[] springClass;
+
+    CompiledPoleClassifier(SimulationState state, MapPoleClassifier source, List<ForceItem> poleList,
+                           int[] closestPole, int[] poleDistance, byte[] itemClass, boolean[] isPole,
+                           boolean[] isPoleOutwards, int[] springPole, byte[] springClass) {
+        this.state = state;
+        this.source = source;
+        this.poleList = Collections.unmodifiableList(poleList);
+        this.closestPole = closestPole;
+        this.poleDistance = poleDistance;
+        this.itemClass = itemClass;
+        this.isPole = isPole;
+        this.isPoleOutwards = isPoleOutwards;
+        this.springPole = springPole;
+        this.springClass = springClass;
+    }
+
+    @Override
+    public Iterable<ForceItem> getPoleList() {
+        return poleList;
+    }
+
+    @Override
+    public Iterable<ForceItem> getPoleListSorted(CyEdge.Type edgeType) {
+        return source.getPoleListSorted(edgeType);
+    }
+
+    @Override
+    public int getPoleListSize() {
+        return poleList.size();
+    }
+
+    @Override
+    public boolean isPole(ForceItem item) {
+        return isPole[item.getIndex()];
+    }
+
+    @Override
+    public ForceItem closestPole(ForceItem item) {
+        return item(closestPole[item.getIndex()]);
+    }
+
+    @Override
+    public int closestPoleDistance(ForceItem item) {
+        return poleDistance[item.getIndex()];
+    }
+
+    @Override
+    public boolean isDisconnected(ForceItem item) {
+        return itemClass[item.getIndex()] == DISCONNECTED;
+    }
+
+    @Override
+    public boolean isClosestToMultiple(ForceItem item) {
+        return itemClass[item.getIndex()] == CLOSEST_TO_MULTIPLE;
+    }
+
+    @Override
+    public boolean isClosestToOne(ForceItem item) {
+        return itemClass[item.getIndex()] == CLOSEST_TO_ONE;
+    }
+
+    @Override
+    public ForceItem poleOf(Spring spring) {
+        return item(springPole[spring.getIndex()]);
+    }
+
+    @Override
+    public boolean isDisconnected(Spring spring) {
+        return springClass[spring.getIndex()] == DISCONNECTED;
+    }
+
+    @Override
+    public boolean isClosestToMultiple(Spring spring) {
+        return springClass[spring.getIndex()] == CLOSEST_TO_MULTIPLE;
+    }
+
+    @Override
+    public boolean isClosestToOne(Spring spring) {
+        return springClass[spring.getIndex()] == CLOSEST_TO_ONE;
+    }
+
+    @Override
+    public boolean isPoleOutwards(ForceItem pole) {
+        return isPoleOutwards[pole.getIndex()];
+    }
+
+    @Override
+    public boolean isThreadSafe() {
+        return true;
+    }
+
+    private ForceItem item(int index) {
+        return index >= 0 ? state.getItem(index) : null;
+    }
+}
@@ -55,10 +55,10 @@ public class ErrorCalculator {
 
     public void recalculate() {
         List<Function<ForceItem, Float>> nodeFunc = new ArrayList<>();
-        nodeFunc.add(item -> item.location[0]);
-        nodeFunc.add(item -> item.location[1]);
-        nodeFunc.add(item -> Vector.convert(item.force).magnitude());
-        nodeFunc.add(item -> Vector.convert(item.velocity).magnitude());
+        nodeFunc.add(ForceItem::getX);
+        nodeFunc.add(ForceItem::getY);
+        nodeFunc.add(item -> new Vector(item.getForceX(), item.getForceY()).magnitude());
+        nodeFunc.add(item -> new Vector(item.getVelocityX(), item.getVelocityY()).magnitude());
         nodeStat = calculateStatistics(m_fsim.getItems(), nodeFunc);
 
         List<Function<Spring, Float>> edgeFunc = new ArrayList<>();
@@ -0,0 +1,272 @@
+package ca.usask.vga.layout.magnetic.util;
+
+import org.cytoscape.view.layout.LayoutEdge;
+import org.cytoscape.view.layout.LayoutNode;
+
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * Builds a hierarchy of successively coarser graphs for a multilevel layout.
+ * Each level is made by matching every node with one of its neighbours, preferring
+ * the heaviest edges, and by collapsing the leaves that are left over into their neighbour.
+ * Every node of a coarse level is represented by one of the nodes it was made from,
+ * and every coarse edge by one of the edges it was made from, so the usual forces
+ * can be applied to a coarse level as if it were the original graph.
+ * <p>
+ * Fixed nodes, such as the poles, are never merged into another node. They stay
+ * the representative of their group on every level.
+ */
+public class GraphCoarsening {
+
+    /** Coarsening stops once a level has this many nodes or fewer */
+    public static final int MIN_NODES = 100;
+    /** Coarsening stops once a level is not at least this much smaller than the previous one */
+    public static final float MIN_REDUCTION = 0.9f;
+    public static final int MAX_LEVELS = 30;
+
+    private final List<Level> levels = new ArrayList<>();
+
+    /**
+     * One level of the hierarchy.
+     */
+    public static class Level {
+        /** Representative of each node */
+        public final List<LayoutNode> nodes;
+        /** Number of original nodes merged into each node */
+        public final int[] size;
+        /** Whether each node contains a fixed node */
+        public final boolean[] fixed;
+        /** Representative of each edge */
+        public final List<LayoutEdge> edges;
+        /** Node indices of the ends of each edge */
+        public final int[] source, target;
+        /** Number of original edges merged into each edge */
+        public final int[] multiplicity;
+        /** Index of the node on the next coarser level that each node was merged into */
+        private int[] parent;
+
+        Level(List<LayoutNode> nodes, int[] size, boolean[] fixed,
+              List<LayoutEdge> edges, int[] source, int[] target, int[] multiplicity) {
+            this.nodes = nodes;
+            this.size = size;
+            this.fixed = fixed;
+            this.edges = edges;
+            this.source = source;
+            this.target = target;
+            this.multiplicity = multiplicity;
+        }
+
+        public int getNodeCount() {
+            return nodes.size();
+        }
+
+        public int getEdgeCount() {
+            return edges.size();
+        }
+
+        /**
+         * Returns the index of the node on the next coarser level that the given node was merged into.
+         */
+        public int getParent(int node) {
+            return parent[node];
+        }
+    }
+
+    /**
+     * Coarsens the given graph until it is small enough, or stops shrinking.
+     * Nodes that appear more than once in the list are only counted once,
+     * so the nodes of the finest level are in the order they first appear.
+     * @param nodeList the nodes of the graph
+     * @param edgeList the edges of the graph; edges to nodes outside the list are ignored
+     * @param isFixed whether a node has to stay its own representative
+     */
+    public GraphCoarsening(List<LayoutNode> nodeList, List<LayoutEdge> edgeList, Predicate<LayoutNode> isFixed) {
+        Level level = finestLevel(nodeList, edgeList, isFixed);
+        levels.add(level);
+        while (level.getNodeCount() > MIN_NODES && levels.size() < MAX_LEVELS) {
+            Level coarse = coarsen(level);
+            if (coarse.getNodeCount() > MIN_REDUCTION * level.getNodeCount())
+                break;
+            levels.add(coarse);
+            level = coarse;
+        }
+    }
+
+    /**
+     * Returns the number of levels, including the original graph.
+     */
+    public int getLevelCount() {
+        return levels.size();
+    }
+
+    /**
+     * Returns the given level, where level 0 is the original graph and
+     * the last level is the coarsest.
+     */
+    public Level getLevel(int level) {
+        return levels.get(level);
+    }
+
+    private static Level finestLevel(List<LayoutNode> nodeList, List<LayoutEdge> edgeList, Predicate<LayoutNode> isFixed) {
+        Map<LayoutNode, Integer> index = new HashMap<>();
+        List<LayoutNode> nodes = new ArrayList<>();
+        for (LayoutNode ln : nodeList) {
+            if (index.putIfAbsent(ln, nodes.size()) == null)
+                nodes.add(ln);
+        }
+
+        int n = nodes.size();
+        int[] size = new int[n];
+        boolean[] fixed = new boolean[n];
+        for (int i = 0; i < n; i++) {
+            size[i] = 1;
+            fixed[i] = isFixed.test(nodes.get(i));
+        }
+
+        List<LayoutEdge> edges = new ArrayList<>();
+        int[] source = new int[edgeList.size()], target = new int[edgeList.size()];
+        for (LayoutEdge e : edgeList) {
+            Integer s = index.get(e.getSource()), t = index.get(e.getTarget());
+            if (s == null || t == null)
+                continue;
+            source[edges.size()] = s;
+            target[edges.size()] = t;
+            edges.add(e);
+        }
+        int m = edges.size();
+        int[] multiplicity = new int[m];
+        Arrays.fill(multiplicity, 1);
+
+        return new Level(nodes, size, fixed, edges, Arrays.copyOf(source, m), Arrays.copyOf(target, m), multiplicity);
+    }
+
+    private static Level coarsen(Level fine) {
+        int n = fine.getNodeCount(), m = fine.getEdgeCount();
+
+        // Adjacency lists, without self loops
+        int[] degree = new int[n];
+        for (int e = 0; e < m; e++) {
+            if (fine.source[e] != fine.target[e]) {
+                degree[fine.source[e]]++;
+                degree[fine.target[e]]++;
+            }
+        }
+        int[] start = new int[n + 1];
+        for (int i = 0; i < n; i++)
+            start[i + 1] = start[i] + degree[i];
+        int[] next = Arrays.copyOf(start, n);
+        int[] adjacent = new int[start[n]], weight = new int[start[n]];
+        for (int e = 0; e < m; e++) {
+            int s = fine.source[e], t = fine.target[e];
+            if (s == t)
+                continue;
+            adjacent[next[s]] = t;
+            weight[next[s]++] = fine.multiplicity[e];
+            adjacent[next[t]] = s;
+            weight[next[t]++] = fine.multiplicity[e];
+        }
+
+        // Visit the nodes from the lowest degree, so that leaves and chains are matched first
+        long[] order = new long[n];
+        for (int i = 0; i < n; i++)
+            order[i] = (long) degree[i] << 32 | i;
+        Arrays.sort(order);
+
+        // Heavy edge matching, never joining two fixed nodes
+        int[] match = new int[n];
+        Arrays.fill(match, -1);
+        for (long key : order) {
+            int u = (int) key;
+            if (match[u] >= 0)
+                continue;
+            int best = -1, bestWeight = 0;
+            for (int k = start[u]; k < start[u + 1]; k++) {
+                int v = adjacent[k];
+                if (match[v] >= 0 || fine.fixed[u] && fine.fixed[v])
+                    continue;
+                if (weight[k] > bestWeight || weight[k] == bestWeight && fine.size[v] < fine.size[best]) {
+                    best = v;
+                    bestWeight = weight[k];
+                }
+            }
+            match[u] = best >= 0 ? best : u;
+            if (best >= 0)
+                match[best] = u;
+        }
+
+        // Leaves left unmatched join the group of their only neighbour
+        int[] group = new int[n];
+        for (int u = 0; u < n; u++) {
+            group[u] = Math.min(u, match[u]);
+            if (match[u] == u && !fine.fixed[u] && degree[u] > 0 && isLeaf(adjacent, start[u], start[u + 1])) {
+                int v = adjacent[start[u]];
+                if (match[v] != v || !isLeaf(adjacent, start[v], start[v + 1]))
+                    group[u] = Math.min(v, match[v]);
+            }
+        }
+
+        // Number the groups and pick their representatives
+        int[] parent = new int[n];
+        int[] first = new int[n];
+        Arrays.fill(first, -1);
+        int count = 0;
+        for (int u = 0; u < n; u++) {
+            int g = group[u];
+            if (first[g] < 0)
+                first[g] = count++;
+        }
+        int[] size = new int[count];
+        boolean[] fixed = new boolean[count];
+        int[] rep = new int[count];
+        Arrays.fill(rep, -1);
+        for (int u = 0; u < n; u++) {
+            int c = first[group[u]];
+            parent[u] = c;
+            size[c] += fine.size[u];
+            int r = rep[c];
+            if (r < 0 || fine.fixed[u] && !fine.fixed[r] || fine.fixed[u] == fine.fixed[r] && fine.size[u] > fine.size[r])
+                rep[c] = u;
+            fixed[c] |= fine.fixed[u];
+        }
+        List<LayoutNode> nodes = new ArrayList<>(count);
+        for (int c = 0; c < count; c++)
+            nodes.add(fine.nodes.get(rep[c]));
+        fine.parent = parent;
+
+        // Merge the edges between the same pair of groups
+        Map<Long, Integer> edgeIndex = new HashMap<>();
+        List<LayoutEdge> edges = new ArrayList<>();
+        int[] source = new int[m], target = new int[m], multiplicity = new int[m];
+        for (int e = 0; e < m; e++) {
+            int s = parent[fine.source[e]], t = parent[fine.target[e]];
+            if (s == t)
+                continue;
+            long key = (long) Math.min(s, t) << 32 | Math.max(s, t);
+            Integer c = edgeIndex.get(key);
+            if (c == null) {
+                c = edges.size();
+                edgeIndex.put(key, c);
+                edges.add(fine.edges.get(e));
+                source[c] = s;
+                target[c] = t;
+            }
+            multiplicity[c] += fine.multiplicity[e];
+        }
+        int coarseEdges = edges.size();
+
+        return new Level(nodes, size, fixed, edges, Arrays.copyOf(source, coarseEdges),
+                Arrays.copyOf(target, coarseEdges), Arrays.copyOf(multiplicity, coarseEdges));
+    }
+
+    /**
+     * Returns true if all the given neighbours are the same node.
+     */
+    private static boolean isLeaf(int[] adjacent, int from, int to) {
+        for (int k = from + 1; k < to; k++) {
+            if (adjacent[k] != adjacent[from])
+                return false;
+        }
+        return true;
+    }
+}
@@ -8,6 +8,7 @@ import org.cytoscape.model.CyNode;
 import org.cytoscape.view.layout.LayoutEdge;
 import org.cytoscape.view.layout.LayoutNode;
 import prefuse.util.force.ForceItem;
+import prefuse.util.force.SimulationState;
 import prefuse.util.force.Spring;
 
 import java.util.*;
@@ -70,7 +71,15 @@ public class MapPoleClassifier implements PoleClassifier {
 
     @Override
     public boolean isPole(ForceItem item) {
-        return poleList.contains(item);
+        CyNode node = nodeMap.get(item);
+        return node != null && poleMap.get(node) == item;
+    }
+
+    /**
+     * Returns true if the given layout node is a pole, whether or not it has been mapped yet.
+     */
+    public boolean isPole(LayoutNode node) {
+        return poleManager.isPole(network, node.getNode());
     }
 
     @Override
@@ -126,5 +135,76 @@ public class MapPoleClassifier implements PoleClassifier {
         return poleManager.isPoleOutwards(network, nodeMap.get(pole));
     }
 
+    /**
+     * Freezes the current classification of the mapped items and springs of the given state
+     * into a {@link CompiledPoleClassifier}, which answers in constant time. The closest poles
+     * of every node are looked up only once.
+     */
+    public CompiledPoleClassifier compile(SimulationState state) {
+        int n = state.getItemCount(), m = state.getSpringCount();
+        Map<CyNode, Collection<CyNode>> closest = new HashMap<>();
+
+        int[] closestPole = new int[n];
+        int[] poleDistance = new int[n];
+        byte[] itemClass = new byte[n];
+        boolean[] isPole = new boolean[n], isPoleOutwards = new boolean[n];
+        Arrays.fill(closestPole, -1);
+        Arrays.fill(poleDistance, PoleManager.UNREACHABLE_NODE);
+
+        for (Map.Entry<ForceItem, CyNode> entry : nodeMap.entrySet()) {
+            int i = entry.getKey().getIndex();
+            CyNode node = entry.getValue();
+            Collection<CyNode> poles = closest.computeIfAbsent(node, this::getClosestPoles);
+            itemClass[i] = classOf(poles);
+            if (!poles.isEmpty()) {
+                CyNode first = poles.iterator().next();
+                poleDistance[i] = poleManager.getDistanceToPole(network, first, node);
+                if (poles.size() == 1)
+                    closestPole[i] = indexOf(poleMap.get(first));
+            }
+        }
+        for (ForceItem pole : poleList) {
+            isPole[pole.getIndex()] = true;
+            isPoleOutwards[pole.getIndex()] = poleManager.isPoleOutwards(network, nodeMap.get(pole));
+        }
+
+        int[] springPole = new int[m];
+        byte[] springClass = new byte[m];
+        Arrays.fill(springPole, -1);
+
+        for (Map.Entry<Spring, CyEdge> entry : edgeMap.entrySet()) {
+            int s = entry.getKey().getIndex();
+            CyEdge edge = entry.getValue();
+            Collection<CyNode> p1 = closest.computeIfAbsent(edge.getSource(), this::getClosestPoles);
+            Collection<CyNode> p2 = closest.computeIfAbsent(edge.getTarget(), this::getClosestPoles);
+            if (p1.isEmpty() || p2.isEmpty())
+                continue;
+            CyNode first = p1.iterator().next();
+            if (p1.size() > 1 || p2.size() > 1 || first != p2.iterator().next()) {
+                springClass[s] = CompiledPoleClassifier.CLOSEST_TO_MULTIPLE;
+            } else {
+                springClass[s] = CompiledPoleClassifier.CLOSEST_TO_ONE;
+                springPole[s] = indexOf(poleMap.get(first));
+            }
+        }
+
+        return new CompiledPoleClassifier(state, this, new ArrayList<>(poleList), closestPole, poleDistance,
+                itemClass, isPole, isPoleOutwards, springPole, springClass);
+    }
+
+    private Collection<CyNode> getClosestPoles(CyNode node) {
+        return poleManager.getClosestPoles(network, node);
+    }
+
+    private static byte classOf(Collection<CyNode> poles) {
+        if (poles.isEmpty())
+            return CompiledPoleClassifier.DISCONNECTED;
+        return poles.size() == 1 ? CompiledPoleClassifier.CLOSEST_TO_ONE : CompiledPoleClassifier.CLOSEST_TO_MULTIPLE;
+    }
+
+    private static int indexOf(ForceItem item) {
+        return item != null ? item.getIndex() : -1;
+    }
+
 
 }
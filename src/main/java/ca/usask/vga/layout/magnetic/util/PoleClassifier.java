@@ -30,4 +30,11 @@ public interface PoleClassifier {
 
     boolean isPoleOutwards(ForceItem pole);
 
+    /**
+     * Returns true if the classifier can be queried from several threads at once.
+     */
+    default boolean isThreadSafe() {
+        return false;
+    }
+
 }
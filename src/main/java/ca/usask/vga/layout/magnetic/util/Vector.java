@@ -4,6 +4,7 @@ import static java.lang.Math.*;
 
 import org.cytoscape.view.layout.LayoutPoint;
 import org.jetbrains.annotations.NotNull;
+import prefuse.util.force.ForceItem;
 
 /**
  * Utility class for easier 2D vector calculations
@@ -25,6 +26,10 @@ public class Vector {
         return new Vector(point[0], point[1]);
     }
 
+    public static Vector convert(ForceItem item) {
+        return new Vector(item.getX(), item.getY());
+    }
+
     public Vector() {
         this(0,0);
     }
@@ -121,6 +126,7 @@ public class Vector {
     public static float powf(float x, float exp) {
         if (exp == 0) return 1;
         if (exp == 1) return x;
+        if (exp == 2) return x * x;
         return (float) pow(x, exp);
     }
 
@@ -169,4 +169,20 @@ public abstract class AbstractForce implements Force {
             "This class does not support this operation");
     }
     
+    /**
+     * Returns a small pseudo-random offset in the range [-0.01, 0.01),
+     * used to push apart items that sit at exactly the same location.
+     * The offset depends only on the given key, so the result does not
+     * depend on the order in which threads evaluate the force.
+     * @param key a value identifying the item and the interaction
+     * @return the offset to use for one coordinate
+     */
+    protected static float jitter(long key) {
+        // finalizer of the 64-bit MurmurHash3 mix
+        key = (key ^ (key >>> 33)) * 0xff51afd7ed558ccdL;
+        key = (key ^ (key >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return ((key >>> 40) / (float) (1 << 24) - 0.5f) / 50.0f;
+    }
+    
 } // end of abstract class AbstractForce
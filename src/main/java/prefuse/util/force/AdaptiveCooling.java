@@ -0,0 +1,269 @@
+package prefuse.util.force;
+
+/*
+ * #%L
+ * Cytoscape Prefuse Layout Impl (layout-prefuse-impl)
+ * $Id:$
+ * $HeadURL:$
+ * %%
+ * Copyright (C) 2006 - 2021 The Cytoscape Consortium
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+
+/**
+ * <p>Adaptive timestep schedule for a {@link ForceSimulator}, which also
+ * detects when the simulation has converged.</p>
+ *
+ * <p>After every step the total kinetic energy, the displacement of the
+ * items and the root mean square force are measured. The timestep is
+ * adapted in the manner of ForceAtlas2: the swing of an item is how much
+ * its force changed direction since the previous step, and its traction
+ * how much the force kept pointing the same way. While the traction
+ * dominates, the timestep grows by at most half per step. Once the swing
+ * takes over, i.e. the items start to oscillate, it shrinks.</p>
+ *
+ * <p>The simulation counts as converged once the items, on average, have
+ * moved less than a fraction of their typical spacing for a few consecutive
+ * steps. Being relative, the tolerance does not depend on the scale of the
+ * layout or the number of items.</p>
+ *
+ * <p>Typical use:</p>
+ * <pre>
+ * AdaptiveCooling cooling = new AdaptiveCooling(fsim, tolerance);
+ * for (int i = 0; i &lt; maxIterations &amp;&amp; !cooling.isConverged(); i++) {
+ *     cooling.beforeStep();
+ *     fsim.runSimulator(cooling.getTimestep());
+ *     cooling.afterStep();
+ * }
+ * </pre>
+ */
+public class AdaptiveCooling {
+
+    public static final long DEFAULT_INITIAL_TIMESTEP = 1000L;
+    public static final long DEFAULT_MIN_TIMESTEP = 10L;
+    public static final long DEFAULT_MAX_TIMESTEP = 1000L;
+
+    public static final float DEFAULT_TOLERANCE = 0.05f;
+
+    /** Number of consecutive quiet steps needed to count as converged */
+    public static final int DEFAULT_PATIENCE = 3;
+    /** How much oscillation is tolerated before the timestep shrinks */
+    public static final float DEFAULT_SWING_TOLERANCE = 1.0f;
+
+    private static final float MAX_GROWTH = 1.5f;
+    private static final float MAX_SHRINK = 0.5f;
+
+    private final ForceSimulator sim;
+    private final float tolerance;
+    private final long minTimestep, maxTimestep;
+    private final int patience;
+    private final float swingTolerance;
+
+    private double timestep;
+    private int steps, quietSteps;
+    private float[] startX = new float[0], startY = new float[0];
+    private float[] lastFx = new float[0], lastFy = new float[0];
+    private boolean hasLastForces;
+
+    private double kineticEnergy, maxDisplacement, residual, swing, traction;
+    private double meanDisplacement, spacing;
+
+    /**
+     * Create a new schedule with default settings.
+     * @param sim the simulator to schedule
+     * @param tolerance the root mean square displacement in one step,
+     * relative to the typical spacing of the items, below which the
+     * simulation counts as converged
+     */
+    public AdaptiveCooling(ForceSimulator sim, float tolerance) {
+        this(sim, tolerance, DEFAULT_INITIAL_TIMESTEP, DEFAULT_MIN_TIMESTEP, DEFAULT_MAX_TIMESTEP,
+                DEFAULT_PATIENCE, DEFAULT_SWING_TOLERANCE);
+    }
+
+    /**
+     * Create a new schedule.
+     * @param sim the simulator to schedule
+     * @param tolerance the root mean square displacement in one step,
+     * relative to the typical spacing of the items, below which the
+     * simulation counts as converged
+     * @param initialTimestep the timestep of the first step
+     * @param minTimestep the smallest timestep to cool down to
+     * @param maxTimestep the largest timestep to heat up to
+     * @param patience the number of consecutive steps below the tolerance
+     * needed to count as converged
+     * @param swingTolerance how much swing, relative to traction, is
+     * tolerated before the timestep is reduced
+     */
+    public AdaptiveCooling(ForceSimulator sim, float tolerance, long initialTimestep, long minTimestep,
+                           long maxTimestep, int patience, float swingTolerance) {
+        this.sim = sim;
+        this.tolerance = tolerance;
+        this.timestep = initialTimestep;
+        this.minTimestep = minTimestep;
+        this.maxTimestep = maxTimestep;
+        this.patience = patience;
+        this.swingTolerance = swingTolerance;
+    }
+
+    /**
+     * Get the timestep to use for the next step.
+     */
+    public long getTimestep() {
+        return Math.round(timestep);
+    }
+
+    /**
+     * Record the locations of the items before a simulation step.
+     */
+    public void beforeStep() {
+        SimulationState st = sim.getState();
+        int n = st.getItemCount();
+        if (startX.length < n) {
+            startX = new float[n];
+            startY = new float[n];
+        }
+        System.arraycopy(st.x, 0, startX, 0, n);
+        System.arraycopy(st.y, 0, startY, 0, n);
+    }
+
+    /**
+     * Measure the step that has just run, and adapt the timestep.
+     */
+    public void afterStep() {
+        SimulationState st = sim.getState();
+        int n = st.getItemCount();
+        float[] x = st.x, y = st.y, vx = st.vx, vy = st.vy, fx = st.fx, fy = st.fy, mass = st.mass;
+        if (lastFx.length < n) {
+            lastFx = new float[n];
+            lastFy = new float[n];
+            hasLastForces = false;
+        }
+
+        double energy = 0, maxDisp2 = 0, disp2 = 0, force2 = 0, sw = 0, tr = 0;
+        float x1 = Float.MAX_VALUE, y1 = Float.MAX_VALUE, x2 = -Float.MAX_VALUE, y2 = -Float.MAX_VALUE;
+        for (int i = 0; i < n; i++) {
+            energy += 0.5 * mass[i] * (vx[i] * vx[i] + vy[i] * vy[i]);
+
+            double dx = x[i] - startX[i], dy = y[i] - startY[i];
+            maxDisp2 = Math.max(maxDisp2, dx * dx + dy * dy);
+            disp2 += dx * dx + dy * dy;
+            x1 = Math.min(x1, x[i]);
+            y1 = Math.min(y1, y[i]);
+            x2 = Math.max(x2, x[i]);
+            y2 = Math.max(y2, y[i]);
+
+            force2 += fx[i] * fx[i] + fy[i] * fy[i];
+
+            if (hasLastForces) {
+                double sx = fx[i] - lastFx[i], sy = fy[i] - lastFy[i];
+                double tx = fx[i] + lastFx[i], ty = fy[i] + lastFy[i];
+                sw += mass[i] * Math.sqrt(sx * sx + sy * sy);
+                tr += mass[i] * 0.5 * Math.sqrt(tx * tx + ty * ty);
+            }
+            lastFx[i] = fx[i];
+            lastFy[i] = fy[i];
+        }
+
+        kineticEnergy = energy;
+        maxDisplacement = Math.sqrt(maxDisp2);
+        meanDisplacement = n > 0 ? Math.sqrt(disp2 / n) : 0;
+        // The longer side, so that items on a line or in a single point don't leave no spacing at all
+        spacing = n > 0 ? Math.max(0, Math.max(x2 - x1, y2 - y1)) / Math.sqrt(n) : 0;
+        if (!(spacing > 0))
+            spacing = SpringForce.DEFAULT_SPRING_LENGTH;
+        residual = n > 0 ? Math.sqrt(force2 / n) : 0;
+        swing = sw;
+        traction = tr;
+
+        if (hasLastForces && sw > 0) {
+            double factor = swingTolerance * tr / sw;
+            factor = Math.max(MAX_SHRINK, Math.min(MAX_GROWTH, factor));
+            timestep = Math.max(minTimestep, Math.min(maxTimestep, timestep * factor));
+        }
+        hasLastForces = true;
+
+        steps++;
+        quietSteps = meanDisplacement < tolerance * spacing ? quietSteps + 1 : 0;
+    }
+
+    /**
+     * Returns true once the displacement has stayed below the tolerance for
+     * enough consecutive steps.
+     */
+    public boolean isConverged() {
+        return quietSteps >= patience;
+    }
+
+    /**
+     * Get the number of steps measured so far.
+     */
+    public int getSteps() {
+        return steps;
+    }
+
+    /**
+     * Get the total kinetic energy of the items after the last step.
+     */
+    public double getKineticEnergy() {
+        return kineticEnergy;
+    }
+
+    /**
+     * Get the largest distance any item moved in the last step.
+     */
+    public double getMaxDisplacement() {
+        return maxDisplacement;
+    }
+
+    /**
+     * Get the root mean square of the distances the items moved in the last step.
+     */
+    public double getMeanDisplacement() {
+        return meanDisplacement;
+    }
+
+    /**
+     * Get the typical distance between neighbouring items after the last
+     * step, i.e. the side of the square each item would get if a square
+     * around the bounding box of the layout were divided evenly between them.
+     * While all items coincide, this is the default spring length.
+     */
+    public double getSpacing() {
+        return spacing;
+    }
+
+    /**
+     * Get the root mean square of the forces acting on the items in the last step.
+     */
+    public double getResidual() {
+        return residual;
+    }
+
+    /**
+     * Get the total mass-weighted swing of the last step.
+     */
+    public double getSwing() {
+        return swing;
+    }
+
+    /**
+     * Get the total mass-weighted traction of the last step.
+     */
+    public double getTraction() {
+        return traction;
+    }
+}
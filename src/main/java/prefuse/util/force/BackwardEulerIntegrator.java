@@ -3,8 +3,6 @@
  */
 package prefuse.util.force;
 
-import java.util.Iterator;
-
 //
 // ************************   WARNING:  B R O K E N !!! ************************
 //
@@ -53,26 +51,29 @@ public class BackwardEulerIntegrator implements Integrator {
 	@Override
 	public void integrate(final ForceSimulator sim, final long timestep) {
 		float speedLimit = sim.getSpeedLimit();
-		Iterator<ForceItem> iter = sim.getItems();
+		SimulationState st = sim.getState();
+		float[] x = st.x, y = st.y, vx = st.vx, vy = st.vy, fx = st.fx, fy = st.fy, mass = st.mass;
+		int n = st.getItemCount();
 
-		while (iter.hasNext()) {
-			if (monitor.isCancelled())
-				return;
-			
-			ForceItem item = iter.next();
-			float coeff = timestep / item.mass;
-			item.velocity[0] += coeff * item.force[0];
-			item.velocity[1] += coeff * item.force[1];
-			item.location[0] += timestep * item.velocity[0];
-			item.location[1] += timestep * item.velocity[1];
-			float vx = item.velocity[0];
-			float vy = item.velocity[1];
-			float v = (float) Math.sqrt(vx * vx + vy * vy);
-			
-			if (v > speedLimit) {
-				item.velocity[0] = speedLimit * vx / v;
-				item.velocity[1] = speedLimit * vy / v;
+		sim.forEachRange(n, (from, to) -> {
+			for (int i = from; i < to; i++) {
+				if (monitor.isCancelled())
+					return;
+				
+				float coeff = timestep / mass[i];
+				vx[i] += coeff * fx[i];
+				vy[i] += coeff * fy[i];
+				x[i] += timestep * vx[i];
+				y[i] += timestep * vy[i];
+				float ux = vx[i];
+				float uy = vy[i];
+				float v = (float) Math.sqrt(ux * ux + uy * uy);
+				
+				if (v > speedLimit) {
+					vx[i] = speedLimit * ux / v;
+					vy[i] = speedLimit * uy / v;
+				}
 			}
-		}
+		});
 	}
 }
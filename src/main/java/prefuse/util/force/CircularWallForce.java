@@ -88,20 +88,18 @@ public class CircularWallForce extends AbstractForce {
      * @see prefuse.util.force.Force#getForce(prefuse.util.force.ForceItem)
      */
     public void getForce(ForceItem item) {
-        float[] n = item.location;
-        float dx = x-n[0];
-        float dy = y-n[1];
+        float dx = x-item.getX();
+        float dy = y-item.getY();
         float d = (float)Math.sqrt(dx*dx+dy*dy);
         float dr = r-d;
         float c = dr > 0 ? -1 : 1;
-        float v = c*params[GRAVITATIONAL_CONST]*item.mass / (dr*dr);
+        float v = c*params[GRAVITATIONAL_CONST]*item.getMass() / (dr*dr);
         if ( d == 0.0 ) {
             dx = ((float)Math.random()-0.5f) / 50.0f;
             dy = ((float)Math.random()-0.5f) / 50.0f;
             d  = (float)Math.sqrt(dx*dx+dy*dy);
         }
-        item.force[0] += v*dx/d;
-        item.force[1] += v*dy/d;
+        item.addForce(v*dx/d, v*dy/d);
         //System.out.println(dx/d+","+dy/d+","+dr+","+v);
     }
 
@@ -0,0 +1,268 @@
+package prefuse.util.force;
+
+import java.util.Arrays;
+
+/*
+ * #%L
+ * Cytoscape Prefuse Layout Impl (layout-prefuse-impl)
+ * $Id:$
+ * $HeadURL:$
+ * %%
+ * Copyright (C) 2006 - 2021 The Cytoscape Consortium
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+
+/**
+ * <p>Force function which computes the same n-body force as
+ * {@link NBodyForce}, but only between items closer than a cut-off distance.
+ * Items are binned into a uniform grid of square cells as wide as the
+ * cut-off distance, so that each item only has to visit the 3x3 block of
+ * cells around its own. For a bounded density of items this is O(N) per
+ * step, and it is exact within the cut-off distance.</p>
+ *
+ * <p>Only occupied cells are stored, in an open addressing hash table, so
+ * the memory used does not depend on how far apart the items are.</p>
+ *
+ * <p>Cells crowded with more than {@value #MAX_CELL_VISITS} items, as when
+ * a layout starts with all items in one place, are sampled: each item
+ * visits every k-th item of the cell, starting at an offset that depends
+ * on the item, and counts each of them k times. This keeps a step O(N)
+ * until the items have spread out, at which point the force is exact
+ * again.</p>
+ */
+public class CutoffNBodyForce extends AbstractForce {
+
+    private static String[] pnames = new String[] { "GravitationalConstant",
+            "Distance" };
+
+    public static final float DEFAULT_GRAV_CONSTANT = -1.0f;
+    public static final float DEFAULT_MIN_GRAV_CONSTANT = -10f;
+    public static final float DEFAULT_MAX_GRAV_CONSTANT = 10f;
+
+    public static final float DEFAULT_DISTANCE = 200f;
+    public static final float DEFAULT_MIN_DISTANCE = 1f;
+    public static final float DEFAULT_MAX_DISTANCE = 5000f;
+
+    public static final int GRAVITATIONAL_CONST = 0;
+    public static final int MIN_DISTANCE = 1;
+
+    private static final long EMPTY = Long.MIN_VALUE;
+
+    /** The most items of a single cell that an item visits */
+    static final int MAX_CELL_VISITS = 128;
+
+    private final StateMonitor monitor;
+    private int generation; // varies the jitter between evaluations
+
+    /** Width of the cells used by the current grid */
+    private float cellSize;
+    /** Hash table of occupied cells: packed cell coordinates, and the range of their items */
+    private long[] cellKeys = new long[0];
+    private int[] cellStart = new int[0], cellEnd = new int[0];
+    private int mask;
+    /** Items sorted by cell, and the cell slot of each item */
+    private int[] sorted = new int[0], itemCell = new int[0];
+    private int itemCount;
+
+    /**
+     * Create a new CutoffNBodyForce with default parameters.
+     */
+    public CutoffNBodyForce(StateMonitor monitor) {
+        this(DEFAULT_GRAV_CONSTANT, DEFAULT_DISTANCE, monitor);
+    }
+
+    /**
+     * Create a new CutoffNBodyForce.
+     * @param gravConstant the gravitational constant to use. Nodes will
+     * attract each other if this value is positive, and will repel each
+     * other if it is negative.
+     * @param distance the distance within which two particles will
+     * interact, which is also the width of the grid cells
+     * @param monitor
+     */
+    public CutoffNBodyForce(float gravConstant, float distance, StateMonitor monitor) {
+        if (!(distance > 0))
+            throw new IllegalArgumentException("Cut-off distance must be positive");
+        this.monitor = monitor;
+        params = new float[] { gravConstant, distance };
+        minValues = new float[] { DEFAULT_MIN_GRAV_CONSTANT, DEFAULT_MIN_DISTANCE };
+        maxValues = new float[] { DEFAULT_MAX_GRAV_CONSTANT, DEFAULT_MAX_DISTANCE };
+    }
+
+    /**
+     * Returns true.
+     */
+    @Override
+    public boolean isItemForce() {
+        return true;
+    }
+
+    /**
+     * Returns true. The grid is only read by {@link #getForce(ForceItem)},
+     * which writes to the given item alone.
+     * @see Force#isThreadSafe()
+     */
+    @Override
+    public boolean isThreadSafe() {
+        return true;
+    }
+
+    @Override
+    protected String[] getParameterNames() {
+        return pnames;
+    }
+
+    /**
+     * Initialize the simulation with the provided enclosing simulation,
+     * binning all items into the grid. After this call has been made, the
+     * simulation can be queried for the force acting on a given item.
+     *
+     * @param fsim the enclosing ForceSimulator
+     */
+    @Override
+    public void init(ForceSimulator fsim) {
+        generation++;
+        itemCount = 0;
+        SimulationState st = fsim.getState();
+        int n = st.getItemCount();
+        cellSize = params[MIN_DISTANCE];
+
+        if (sorted.length < n) {
+            sorted = new int[n];
+            itemCell = new int[n];
+        }
+        int capacity = Integer.highestOneBit(Math.max(4, 2 * n - 1)) << 1;
+        if (cellKeys.length < capacity) {
+            cellKeys = new long[capacity];
+            cellStart = new int[capacity + 1];
+            cellEnd = new int[capacity];
+        }
+        mask = capacity - 1;
+        Arrays.fill(cellKeys, 0, capacity, EMPTY);
+        Arrays.fill(cellEnd, 0, capacity, 0);
+
+        // count the items of each cell, cellEnd holding the counts for now
+        for (int i = 0; i < n; i++) {
+            int c = insertCell(cellKey(st.x[i], st.y[i]));
+            itemCell[i] = c;
+            cellEnd[c]++;
+        }
+        if (monitor.isCancelled())
+            return;
+
+        // lay the cells out one after another, then place the items
+        int offset = 0;
+        for (int c = 0; c < capacity; c++) {
+            cellStart[c] = offset;
+            offset += cellEnd[c];
+            cellEnd[c] = cellStart[c];
+        }
+        for (int i = 0; i < n; i++)
+            sorted[cellEnd[itemCell[i]]++] = i;
+
+        itemCount = n;
+    }
+
+    private long cellKey(float x, float y) {
+        return pack((int) Math.floor(x / cellSize), (int) Math.floor(y / cellSize));
+    }
+
+    private static long pack(int cx, int cy) {
+        return ((long) cx << 32) | (cy & 0xffffffffL);
+    }
+
+    private static int hash(long key) {
+        key *= 0x9e3779b97f4a7c15L;
+        return (int) (key ^ (key >>> 32));
+    }
+
+    private int insertCell(long key) {
+        int c = hash(key) & mask;
+        while (cellKeys[c] != EMPTY && cellKeys[c] != key)
+            c = (c + 1) & mask;
+        cellKeys[c] = key;
+        return c;
+    }
+
+    private int findCell(long key) {
+        int c = hash(key) & mask;
+        while (cellKeys[c] != EMPTY) {
+            if (cellKeys[c] == key)
+                return c;
+            c = (c + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Calculates the force vector acting on the given item.
+     * @param item the ForceItem for which to compute the force
+     */
+    @Override
+    public void getForce(ForceItem item) {
+        if (itemCount == 0)
+            return;
+
+        SimulationState st = item.getState();
+        int self = item.getIndex();
+        float x = st.x[self], y = st.y[self];
+        float g = params[GRAVITATIONAL_CONST] * st.mass[self];
+        float cutoff = params[MIN_DISTANCE];
+        float cutoff2 = cutoff * cutoff;
+        long own = cellKeys[itemCell[self]];
+        int cx = (int) (own >> 32), cy = (int) own;
+        float fx = 0, fy = 0;
+
+        for (int ny = cy - 1; ny <= cy + 1; ny++) {
+            for (int nx = cx - 1; nx <= cx + 1; nx++) {
+                int c = findCell(pack(nx, ny));
+                if (c < 0)
+                    continue;
+
+                // visit every stride-th item of a crowded cell, each counting stride times
+                int stride = (cellEnd[c] - cellStart[c] + MAX_CELL_VISITS - 1) / MAX_CELL_VISITS;
+                int first = cellStart[c] + (stride > 1 ? Math.floorMod(self + generation, stride) : 0);
+                for (int k = first; k < cellEnd[c]; k += stride) {
+                    int j = sorted[k];
+                    if (j == self)
+                        continue;
+
+                    float dx = st.x[j] - x;
+                    float dy = st.y[j] - y;
+                    float r2 = dx * dx + dy * dy;
+                    if (r2 > cutoff2)
+                        continue;
+
+                    if (r2 == 0.0f) {
+                        // if items are in the exact same place, add some noise
+                        long key = ((long) self << 32) ^ ((long) generation << 48) ^ (j * 0x9e3779b97f4a7c15L);
+                        dx = jitter(key);
+                        dy = jitter(~key);
+                        r2 = dx * dx + dy * dy;
+                    }
+
+                    float r = (float) Math.sqrt(r2);
+                    float v = stride * g * st.mass[j] / (r2 * r);
+                    fx += v * dx;
+                    fy += v * dy;
+                }
+            }
+        }
+
+        item.addForce(fx, fy);
+    }
+}
@@ -63,6 +63,22 @@ public class DragForce extends AbstractForce {
     public boolean isItemForce() {
         return true;
     }
+
+    /**
+     * Returns true.
+     * @see prefuse.util.force.Force#isThreadSafe()
+     */
+    public boolean isThreadSafe() {
+        return true;
+    }
+
+    /**
+     * Returns true.
+     * @see prefuse.util.force.Force#isBulkForce()
+     */
+    public boolean isBulkForce() {
+        return true;
+    }
     
     /**
      * @see prefuse.util.force.AbstractForce#getParameterNames()
@@ -75,8 +91,17 @@ public class DragForce extends AbstractForce {
      * @see prefuse.util.force.Force#getForce(prefuse.util.force.ForceItem)
      */
     public void getForce(ForceItem item) {
-        item.force[0] -= params[DRAG_COEFF]*item.velocity[0];
-        item.force[1] -= params[DRAG_COEFF]*item.velocity[1];
+        SimulationState st = item.state;
+        int i = item.index;
+        st.fx[i] -= params[DRAG_COEFF]*st.vx[i];
+        st.fy[i] -= params[DRAG_COEFF]*st.vy[i];
+    }
+
+    /**
+     * @see prefuse.util.force.Force#getForces(prefuse.util.force.SimulationState, int, int)
+     */
+    public void getForces(SimulationState state, int from, int to) {
+        ForceKernels.INSTANCE.drag(state, params[DRAG_COEFF], from, to);
     }
 
 } // end of class DragForce
@@ -1,7 +1,5 @@
 package prefuse.util.force;
 
-import java.util.Iterator;
-
 /*
  * #%L
  * Cytoscape Prefuse Layout Impl (layout-prefuse-impl)
@@ -30,6 +28,8 @@ import java.util.Iterator;
  * Updates velocity and position data using Euler's Method. This is the
  * simplest and fastest method, but is somewhat inaccurate and less smooth
  * than more costly approaches.
+ * An instance holds the arguments of the step it is running, so it must not
+ * be shared between simulators that run at the same time.
  *
  * @author <a href="http://jheer.org">jeffrey heer</a>
  * @see RungeKuttaIntegrator
@@ -38,33 +38,26 @@ public class EulerIntegrator implements Integrator {
     
 	private final StateMonitor monitor;
 	
+	// The arguments of the current step, kept here so that no loop body is allocated per step
+	private SimulationState st;
+	private long timestep;
+	private float speedLimit;
+	private final ForceSimulator.RangeTask step;
+	
 	public EulerIntegrator(StateMonitor monitor) {
 		this.monitor = monitor;
+		step = (from, to) -> {
+			if (!monitor.isCancelled())
+				ForceKernels.INSTANCE.euler(st, timestep, speedLimit, from, to);
+		};
 	}
 
 	@Override
 	public void integrate(ForceSimulator sim, long timestep) {
-		float speedLimit = sim.getSpeedLimit();
-		Iterator<ForceItem> iter = sim.getItems();
+		this.speedLimit = sim.getSpeedLimit();
+		this.st = sim.getState();
+		this.timestep = timestep;
 		
-		while (iter.hasNext()) {
-			if (monitor.isCancelled())
-				return;
-			
-			ForceItem item = iter.next();
-			item.location[0] += timestep * item.velocity[0];
-			item.location[1] += timestep * item.velocity[1];
-			float coeff = timestep / item.mass;
-			item.velocity[0] += coeff * item.force[0];
-			item.velocity[1] += coeff * item.force[1];
-			float vx = item.velocity[0];
-			float vy = item.velocity[1];
-			float v = (float) Math.sqrt(vx * vx + vy * vy);
-			
-			if (v > speedLimit) {
-				item.velocity[0] = speedLimit * vx / v;
-				item.velocity[1] = speedLimit * vy / v;
-			}
-		}
+		sim.forEachRange(st.getItemCount(), step);
 	}
 }
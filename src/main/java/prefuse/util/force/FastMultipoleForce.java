@@ -0,0 +1,680 @@
+package prefuse.util.force;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinTask;
+
+/*
+ * #%L
+ * Cytoscape Prefuse Layout Impl (layout-prefuse-impl)
+ * $Id:$
+ * $HeadURL:$
+ * %%
+ * Copyright (C) 2006 - 2021 The Cytoscape Consortium
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+
+/**
+ * <p>Force function which computes an n-body repulsion or attraction using
+ * the fast multipole method of L. Greengard and V. Rokhlin, <i>A fast
+ * algorithm for particle simulations</i>, J. Comput. Phys. 73, 1987.
+ * Distant groups of items are represented by complex multipole expansions,
+ * which are translated into local expansions around the items they act on,
+ * giving O(N) work for a fixed expansion order.</p>
+ *
+ * <p>The complex expansions describe the two-dimensional Coulomb field, so
+ * the force between two items falls off with 1/r rather than with the 1/r^2
+ * of {@link NBodyForce}. This is a different force law, not a faster way to
+ * compute the same one: distant items push harder, which spreads a layout
+ * out more. The force is divided by a distance scale, at which the two laws
+ * give the same magnitude. The error of the expansions is therefore only
+ * meaningful against the direct sum of the 1/r force.</p>
+ *
+ * <p>The expansions are stored for the occupied boxes of a quadtree with
+ * leaves at a single level. Items are sorted by Morton code, so the boxes of
+ * every level cover contiguous runs of items. The leaf level is chosen from
+ * the number of items, and lowered further while any leaf is overcrowded,
+ * but to no more than about log4(N)+2 levels, so that the box tables stay
+ * proportional to N. Leaves that are still overcrowded, e.g. when many items
+ * are in one place, act on the items as a single mass.
+ * All of the expansions are computed in {@link #init(ForceSimulator)}, in
+ * parallel if the simulator has a pool, after which the force on different
+ * items may be computed concurrently.</p>
+ */
+public class FastMultipoleForce extends AbstractForce {
+
+    private static String[] pnames = new String[] { "GravitationalConstant",
+            "DistanceScale" };
+
+    public static final float DEFAULT_GRAV_CONSTANT = -1.0f;
+    public static final float DEFAULT_MIN_GRAV_CONSTANT = -10f;
+    public static final float DEFAULT_MAX_GRAV_CONSTANT = 10f;
+
+    public static final float DEFAULT_DISTANCE_SCALE = 50f;
+    public static final float DEFAULT_MIN_DISTANCE_SCALE = 1f;
+    public static final float DEFAULT_MAX_DISTANCE_SCALE = 500f;
+
+    public static final int DEFAULT_ORDER = 12;
+    public static final int MIN_ORDER = 2;
+    public static final int MAX_ORDER = 30;
+
+    public static final int GRAVITATIONAL_CONST = 0;
+    public static final int DISTANCE_SCALE = 1;
+
+    /** Average number of items in a leaf box the tree depth aims for */
+    private static final int LEAF_SIZE = 16;
+    /** Leaves holding more items than this make the tree deeper */
+    private static final int MAX_LEAF_ITEMS = 4 * LEAF_SIZE;
+    /** Depth limit of the tree, and number of bits used to quantize each coordinate */
+    private static final int MAX_LEVEL = 11;
+
+    private final int order;
+    private final int terms;
+    private final double[][] binom;
+    private final StateMonitor monitor;
+
+    /** Depth of the leaf level, or -1 if there are no items */
+    private int levels = -1;
+    private float originX, originY, size;
+    private int generation; // varies the jitter between evaluations
+
+    /** Items sorted by Morton code, and their codes at the deepest level */
+    private int[] sorted = new int[0], codes = new int[0];
+    private long[] keys = new long[0];
+    /** Leaf slot of each item */
+    private int[] itemLeaf = new int[0];
+    /** Leaf slot s holds sorted[leafStart[s]] to sorted[leafStart[s+1]-1] */
+    private int[] leafStart = new int[0];
+
+    /** Slot of each box, indexed [level][Morton index of the box], -1 for empty boxes */
+    private int[][] slot = new int[MAX_LEVEL + 1][];
+    /** Morton index of the box in each slot, indexed [level][slot] */
+    private int[][] boxes = new int[MAX_LEVEL + 1][];
+    /** Number of occupied boxes at each level */
+    private int[] boxCount = new int[MAX_LEVEL + 1];
+    /** Multipole and local expansion coefficients, indexed [level][slot * terms + k] */
+    private double[][] multRe = new double[MAX_LEVEL + 1][], multIm = new double[MAX_LEVEL + 1][];
+    private double[][] localRe = new double[MAX_LEVEL + 1][], localIm = new double[MAX_LEVEL + 1][];
+
+    /**
+     * Create a new FastMultipoleForce with default parameters.
+     */
+    public FastMultipoleForce(StateMonitor monitor) {
+        this(DEFAULT_GRAV_CONSTANT, DEFAULT_DISTANCE_SCALE, DEFAULT_ORDER, monitor);
+    }
+
+    /**
+     * Create a new FastMultipoleForce.
+     * @param gravConstant the gravitational constant to use. Nodes will
+     * attract each other if this value is positive, and will repel each
+     * other if it is negative.
+     * @param distanceScale the distance at which the force has the same
+     * magnitude as the {@link NBodyForce} with the same constant
+     * @param order the number of terms in the expansions, trading speed for
+     * accuracy
+     * @param monitor
+     */
+    public FastMultipoleForce(float gravConstant, float distanceScale, int order, StateMonitor monitor) {
+        if (order < MIN_ORDER || order > MAX_ORDER)
+            throw new IllegalArgumentException("Expansion order must be between " + MIN_ORDER + " and " + MAX_ORDER);
+        this.monitor = monitor;
+        this.order = order;
+        this.terms = order + 1;
+        params = new float[] { gravConstant, distanceScale };
+        minValues = new float[] { DEFAULT_MIN_GRAV_CONSTANT, DEFAULT_MIN_DISTANCE_SCALE };
+        maxValues = new float[] { DEFAULT_MAX_GRAV_CONSTANT, DEFAULT_MAX_DISTANCE_SCALE };
+
+        binom = new double[2 * terms][2 * terms];
+        for (int n = 0; n < binom.length; n++) {
+            binom[n][0] = 1;
+            for (int k = 1; k <= n; k++)
+                binom[n][k] = binom[n - 1][k - 1] + binom[n - 1][k];
+        }
+    }
+
+    /**
+     * Returns the number of terms used in the expansions.
+     */
+    public int getOrder() {
+        return order;
+    }
+
+    /**
+     * Returns true.
+     */
+    @Override
+    public boolean isItemForce() {
+        return true;
+    }
+
+    /**
+     * Returns true. The expansions are only read by {@link #getForce(ForceItem)},
+     * which writes to the given item alone.
+     * @see Force#isThreadSafe()
+     */
+    @Override
+    public boolean isThreadSafe() {
+        return true;
+    }
+
+    @Override
+    protected String[] getParameterNames() {
+        return pnames;
+    }
+
+    /**
+     * Initialize the simulation with the provided enclosing simulation. This
+     * computes the expansions of every box of the tree, after which the
+     * simulation can be queried for the force acting on a given item.
+     *
+     * @param fsim the enclosing ForceSimulator
+     */
+    @Override
+    public void init(ForceSimulator fsim) {
+        generation++;
+        clearSlots();
+        SimulationState st = fsim.getState();
+        int n = st.getItemCount();
+        if (n == 0)
+            return;
+
+        computeBounds(st);
+        sortItems(fsim, n);
+        if (monitor.isCancelled())
+            return;
+
+        int depth = leafLevel(n);
+        buildBoxes(depth, n);
+
+        // Multipole expansions, from the leaves up
+        fsim.forEachRange(boxCount[depth], 64, (from, to) -> {
+            for (int s = from; s < to; s++)
+                leafToMultipole(st, depth, s);
+        });
+        for (int l = depth - 1; l >= 0; l--) {
+            if (monitor.isCancelled()) {
+                clearSlots();
+                return;
+            }
+            int lvl = l;
+            fsim.forEachRange(boxCount[l], 64, (from, to) -> {
+                double[] zr = new double[terms], zi = new double[terms];
+                for (int s = from; s < to; s++)
+                    childrenToMultipole(lvl, s, zr, zi);
+            });
+        }
+
+        // Local expansions, from the top down. Levels 0 and 1 have no well separated boxes.
+        for (int l = 2; l <= depth; l++) {
+            if (monitor.isCancelled()) {
+                clearSlots();
+                return;
+            }
+            int lvl = l;
+            fsim.forEachRange(boxCount[l], 64, (from, to) -> {
+                double[] zr = new double[terms], zi = new double[terms];
+                for (int s = from; s < to; s++)
+                    computeLocal(lvl, s, zr, zi);
+            });
+        }
+    }
+
+    /** Reset the slots used by the previous tree, leaving every slot array at -1 */
+    private void clearSlots() {
+        for (int l = 0; l <= levels; l++) {
+            for (int s = 0; s < boxCount[l]; s++)
+                slot[l][boxes[l][s]] = -1;
+            boxCount[l] = 0;
+        }
+        levels = -1;
+    }
+
+    private void computeBounds(SimulationState st) {
+        float[] x = st.x, y = st.y;
+        int n = st.getItemCount();
+        float x1 = Float.MAX_VALUE, y1 = Float.MAX_VALUE;
+        float x2 = -Float.MAX_VALUE, y2 = -Float.MAX_VALUE;
+
+        for (int i = 0; i < n; i++) {
+            if (x[i] < x1) x1 = x[i];
+            if (y[i] < y1) y1 = y[i];
+            if (x[i] > x2) x2 = x[i];
+            if (y[i] > y2) y2 = y[i];
+        }
+
+        originX = x1;
+        originY = y1;
+        size = Math.max(x2 - x1, y2 - y1);
+        if (!(size > 0)) // all items in one place
+            size = 1;
+    }
+
+    private void sortItems(ForceSimulator fsim, int n) {
+        if (keys.length < n) {
+            keys = new long[n];
+            sorted = new int[n];
+            codes = new int[n];
+            itemLeaf = new int[n];
+        }
+
+        SimulationState st = fsim.getState();
+        long[] keys = this.keys;
+        int max = (1 << MAX_LEVEL) - 1;
+        float scale = (1 << MAX_LEVEL) / size;
+        fsim.forEachRange(n, (from, to) -> {
+            for (int i = from; i < to; i++) {
+                int ix = Math.min(max, Math.max(0, (int) ((st.x[i] - originX) * scale)));
+                int iy = Math.min(max, Math.max(0, (int) ((st.y[i] - originY) * scale)));
+                keys[i] = ((long) interleave(ix, iy) << 32) | i;
+            }
+        });
+
+        if (fsim.isParallel())
+            fsim.getPool().invoke(ForkJoinTask.adapt(() -> Arrays.parallelSort(keys, 0, n)));
+        else
+            Arrays.sort(keys, 0, n);
+
+        for (int k = 0; k < n; k++) {
+            sorted[k] = (int) keys[k];
+            codes[k] = (int) (keys[k] >>> 32);
+        }
+    }
+
+    /**
+     * Returns the level of the leaves: deep enough for about LEAF_SIZE items
+     * per leaf on average, and deeper while any leaf holds too many items,
+     * up to a limit that depends on the number of items.
+     */
+    private int leafLevel(int n) {
+        int depth = 2;
+        while (depth < MAX_LEVEL && (long) LEAF_SIZE << (2 * depth) < n)
+            depth++;
+        // log4(n) + 2 levels, i.e. at most 16 boxes per item
+        int limit = Math.min(MAX_LEVEL, Math.max(depth, (31 - Integer.numberOfLeadingZeros(n)) / 2 + 2));
+        while (depth < limit && largestBox(depth, n) > MAX_LEAF_ITEMS)
+            depth++;
+        return depth;
+    }
+
+    /** Returns the largest number of items in one box of the given level */
+    private int largestBox(int level, int n) {
+        int shift = 2 * (MAX_LEVEL - level);
+        int largest = 0, run = 0;
+        for (int k = 0; k < n; k++) {
+            if (k > 0 && codes[k] >>> shift == codes[k - 1] >>> shift)
+                run++;
+            else
+                run = 1;
+            largest = Math.max(largest, run);
+        }
+        return largest;
+    }
+
+    /** Assign slots to the occupied boxes of every level */
+    private void buildBoxes(int depth, int n) {
+        levels = depth;
+        int shift = 2 * (MAX_LEVEL - depth);
+        ensureLevel(depth, n);
+        if (leafStart.length < n + 1)
+            leafStart = new int[n + 1];
+
+        // leaves, in Morton order
+        int count = 0;
+        for (int k = 0; k < n; k++) {
+            int box = codes[k] >>> shift;
+            if (count == 0 || boxes[depth][count - 1] != box) {
+                boxes[depth][count] = box;
+                slot[depth][box] = count;
+                leafStart[count++] = k;
+            }
+            itemLeaf[sorted[k]] = count - 1;
+        }
+        leafStart[count] = n;
+        boxCount[depth] = count;
+
+        // parents of the occupied boxes, also in Morton order
+        for (int l = depth - 1; l >= 0; l--) {
+            ensureLevel(l, boxCount[l + 1]);
+            count = 0;
+            for (int s = 0; s < boxCount[l + 1]; s++) {
+                int box = boxes[l + 1][s] >>> 2;
+                if (count == 0 || boxes[l][count - 1] != box) {
+                    boxes[l][count] = box;
+                    slot[l][box] = count++;
+                }
+            }
+            boxCount[l] = count;
+        }
+    }
+
+    private void ensureLevel(int level, int capacity) {
+        if (slot[level] == null) {
+            slot[level] = new int[1 << (2 * level)];
+            Arrays.fill(slot[level], -1);
+        }
+        capacity = Math.min(capacity, 1 << (2 * level));
+        if (boxes[level] == null || boxes[level].length < capacity) {
+            boxes[level] = new int[capacity];
+            multRe[level] = new double[capacity * terms];
+            multIm[level] = new double[capacity * terms];
+            localRe[level] = new double[capacity * terms];
+            localIm[level] = new double[capacity * terms];
+        }
+    }
+
+    /** Interleave the bits of two coordinates into a Morton index */
+    private static int interleave(int x, int y) {
+        return spread(x) | (spread(y) << 1);
+    }
+
+    private static int spread(int v) {
+        v &= 0x0000ffff;
+        v = (v | (v << 8)) & 0x00ff00ff;
+        v = (v | (v << 4)) & 0x0f0f0f0f;
+        v = (v | (v << 2)) & 0x33333333;
+        v = (v | (v << 1)) & 0x55555555;
+        return v;
+    }
+
+    /** Extract the x coordinate of a Morton index, or the y coordinate if shifted right once */
+    private static int compact(int v) {
+        v &= 0x55555555;
+        v = (v | (v >>> 1)) & 0x33333333;
+        v = (v | (v >>> 2)) & 0x0f0f0f0f;
+        v = (v | (v >>> 4)) & 0x00ff00ff;
+        v = (v | (v >>> 8)) & 0x0000ffff;
+        return v;
+    }
+
+    /** Center of a box along one axis, in units of the root box */
+    private static double center(int index, int level) {
+        return (index + 0.5) / (1 << level);
+    }
+
+    private void leafToMultipole(SimulationState st, int depth, int s) {
+        double[] re = multRe[depth], im = multIm[depth];
+        int base = s * terms;
+        Arrays.fill(re, base, base + terms, 0);
+        Arrays.fill(im, base, base + terms, 0);
+
+        int box = boxes[depth][s];
+        double cx = center(compact(box), depth), cy = center(compact(box >>> 1), depth);
+
+        for (int k = leafStart[s]; k < leafStart[s + 1]; k++) {
+            int i = sorted[k];
+            double q = st.mass[i];
+            double wr = (st.x[i] - originX) / size - cx;
+            double wi = (st.y[i] - originY) / size - cy;
+
+            // a_0 += q, a_k -= q w^k / k
+            re[base] += q;
+            double pr = wr, pi = wi;
+            for (int t = 1; t <= order; t++) {
+                re[base + t] -= q * pr / t;
+                im[base + t] -= q * pi / t;
+                double nr = pr * wr - pi * wi;
+                pi = pr * wi + pi * wr;
+                pr = nr;
+            }
+        }
+    }
+
+    private void childrenToMultipole(int level, int s, double[] zr, double[] zi) {
+        double[] re = multRe[level], im = multIm[level];
+        double[] cre = multRe[level + 1], cim = multIm[level + 1];
+        int base = s * terms;
+        Arrays.fill(re, base, base + terms, 0);
+        Arrays.fill(im, base, base + terms, 0);
+
+        int box = boxes[level][s];
+        int ix = compact(box), iy = compact(box >>> 1);
+
+        for (int c = 0; c < 4; c++) {
+            int cs = slot[level + 1][4 * box + c];
+            if (cs < 0)
+                continue;
+            int cb = cs * terms;
+            double a0 = cre[cb];
+            int cx = 2 * ix + (c & 1), cy = 2 * iy + (c >> 1);
+
+            // shift from the child center to the parent center, z0 = child - parent
+            powers(center(cx, level + 1) - center(ix, level), center(cy, level + 1) - center(iy, level), zr, zi);
+
+            re[base] += a0;
+            for (int l = 1; l <= order; l++) {
+                double sr = -a0 * zr[l] / l, si = -a0 * zi[l] / l;
+                for (int k = 1; k <= l; k++) {
+                    double f = binom[l - 1][k - 1];
+                    double ar = cre[cb + k], ai = cim[cb + k];
+                    sr += f * (ar * zr[l - k] - ai * zi[l - k]);
+                    si += f * (ar * zi[l - k] + ai * zr[l - k]);
+                }
+                re[base + l] += sr;
+                im[base + l] += si;
+            }
+        }
+    }
+
+    private void computeLocal(int level, int s, double[] zr, double[] zi) {
+        double[] re = localRe[level], im = localIm[level];
+        int base = s * terms;
+        Arrays.fill(re, base, base + terms, 0);
+        Arrays.fill(im, base, base + terms, 0);
+
+        int box = boxes[level][s];
+        int ix = compact(box), iy = compact(box >>> 1);
+
+        // inherit the local expansion of the parent, shifted to this box
+        if (level > 2) {
+            int px = ix >> 1, py = iy >> 1;
+            int pb = slot[level - 1][box >>> 2] * terms;
+            double[] pre = localRe[level - 1], pim = localIm[level - 1];
+            powers(center(ix, level) - center(px, level - 1), center(iy, level) - center(py, level - 1), zr, zi);
+            for (int l = 0; l <= order; l++) {
+                double sr = 0, si = 0;
+                for (int k = l; k <= order; k++) {
+                    double f = binom[k][l];
+                    double br = pre[pb + k], bi = pim[pb + k];
+                    sr += f * (br * zr[k - l] - bi * zi[k - l]);
+                    si += f * (br * zi[k - l] + bi * zr[k - l]);
+                }
+                re[base + l] += sr;
+                im[base + l] += si;
+            }
+        }
+
+        // children of the parent's neighbours that are not adjacent to this box
+        int side = 1 << level;
+        double[] mre = multRe[level], mim = multIm[level];
+        int px0 = (ix >> 1) - 1, py0 = (iy >> 1) - 1;
+        for (int sy = Math.max(0, 2 * py0); sy < Math.min(side, 2 * py0 + 6); sy++) {
+            for (int sx = Math.max(0, 2 * px0); sx < Math.min(side, 2 * px0 + 6); sx++) {
+                if (Math.abs(sx - ix) <= 1 && Math.abs(sy - iy) <= 1)
+                    continue;
+                int ss = slot[level][interleave(sx, sy)];
+                if (ss < 0)
+                    continue;
+                multipoleToLocal(mre, mim, ss * terms, center(sx, level) - center(ix, level),
+                        center(sy, level) - center(iy, level), re, im, base, zr, zi);
+            }
+        }
+    }
+
+    /**
+     * Add the local expansion of a multipole expansion at offset z0 to the
+     * given local coefficients. The constant term is left out, since only
+     * the derivative of the potential is needed.
+     */
+    private void multipoleToLocal(double[] mre, double[] mim, int sb, double z0r, double z0i,
+                                  double[] re, double[] im, int base, double[] tr, double[] ti) {
+        // inv = 1 / z0
+        double d = z0r * z0r + z0i * z0i;
+        double invr = z0r / d, invi = -z0i / d;
+
+        // t_k = (-1)^k a_k / z0^k
+        double pr = 1, pi = 0;
+        for (int k = 1; k <= order; k++) {
+            double nr = pr * invr - pi * invi;
+            pi = pr * invi + pi * invr;
+            pr = nr;
+            double ar = mre[sb + k], ai = mim[sb + k];
+            double sign = (k & 1) == 0 ? 1 : -1;
+            tr[k] = sign * (ar * pr - ai * pi);
+            ti[k] = sign * (ar * pi + ai * pr);
+        }
+
+        // b_l = z0^-l (-a_0 / l + sum_k t_k C(l+k-1, k-1))
+        double a0 = mre[sb];
+        pr = 1;
+        pi = 0;
+        for (int l = 1; l <= order; l++) {
+            double nr = pr * invr - pi * invi;
+            pi = pr * invi + pi * invr;
+            pr = nr;
+            double sr = -a0 / l, si = 0;
+            for (int k = 1; k <= order; k++) {
+                double f = binom[l + k - 1][k - 1];
+                sr += f * tr[k];
+                si += f * ti[k];
+            }
+            re[base + l] += sr * pr - si * pi;
+            im[base + l] += sr * pi + si * pr;
+        }
+    }
+
+    /** Fill in the powers z^0 to z^order */
+    private void powers(double r, double i, double[] zr, double[] zi) {
+        zr[0] = 1;
+        zi[0] = 0;
+        for (int k = 1; k <= order; k++) {
+            zr[k] = zr[k - 1] * r - zi[k - 1] * i;
+            zi[k] = zr[k - 1] * i + zi[k - 1] * r;
+        }
+    }
+
+    /**
+     * Calculates the force vector acting on the given item.
+     * @param item the ForceItem for which to compute the force
+     */
+    @Override
+    public void getForce(ForceItem item) {
+        if (levels < 0)
+            return;
+
+        SimulationState st = item.getState();
+        int self = item.getIndex();
+        int depth = levels, side = 1 << depth;
+        int s = itemLeaf[self];
+        int box = boxes[depth][s];
+        int ix = compact(box), iy = compact(box >>> 1);
+        float x = st.x[self], y = st.y[self];
+        double g = params[GRAVITATIONAL_CONST] * st.mass[self] / params[DISTANCE_SCALE];
+
+        // far field from the local expansion: phi'(w) = sum l b_l w^(l-1)
+        double wr = (x - originX) / size - center(ix, depth);
+        double wi = (y - originY) / size - center(iy, depth);
+        double[] re = localRe[depth], im = localIm[depth];
+        int base = s * terms;
+        double dr = 0, di = 0, pr = 1, pi = 0;
+        for (int l = 1; l <= order; l++) {
+            dr += l * (re[base + l] * pr - im[base + l] * pi);
+            di += l * (re[base + l] * pi + im[base + l] * pr);
+            double nr = pr * wr - pi * wi;
+            pi = pr * wi + pi * wr;
+            pr = nr;
+        }
+        // the field is the conjugate of the derivative, scaled back from unit box coordinates
+        double fx = -g * dr / size, fy = g * di / size;
+
+        // near field from the adjacent leaf boxes
+        for (int ny = Math.max(0, iy - 1); ny <= Math.min(side - 1, iy + 1); ny++) {
+            for (int nx = Math.max(0, ix - 1); nx <= Math.min(side - 1, ix + 1); nx++) {
+                int ns = slot[depth][interleave(nx, ny)];
+                if (ns < 0)
+                    continue;
+                if (leafStart[ns + 1] - leafStart[ns] > MAX_LEAF_ITEMS) {
+                    // only at the depth limit, e.g. for many items in one place
+                    addCrowdedLeafForce(item, ns, g);
+                    continue;
+                }
+                for (int k = leafStart[ns]; k < leafStart[ns + 1]; k++) {
+                    int j = sorted[k];
+                    if (j == self)
+                        continue;
+
+                    float dx = x - st.x[j];
+                    float dy = y - st.y[j];
+                    float r2 = dx * dx + dy * dy;
+                    if (r2 == 0.0f) {
+                        // if items are in the exact same place, add some noise
+                        long key = ((long) self << 32) ^ ((long) generation << 48) ^ (j * 0x9e3779b97f4a7c15L);
+                        dx = jitter(key);
+                        dy = jitter(~key);
+                        r2 = dx * dx + dy * dy;
+                    }
+
+                    double v = -g * st.mass[j] / r2;
+                    fx += v * dx;
+                    fy += v * dy;
+                }
+            }
+        }
+
+        item.addForce((float) fx, (float) fy);
+    }
+
+    /**
+     * Adds the force of a crowded leaf to the given item, treating the items
+     * of the leaf, other than the given item, as a single mass.
+     */
+    private void addCrowdedLeafForce(ForceItem item, int s, double g) {
+        SimulationState st = item.getState();
+        int self = item.getIndex();
+        int depth = levels;
+        int box = boxes[depth][s];
+        int base = s * terms;
+        double mass = multRe[depth][base];
+
+        // a_1 = -sum q w, so the center of mass is offset by -a_1 / a_0
+        double cx = originX + (center(compact(box), depth) - multRe[depth][base + 1] / mass) * size;
+        double cy = originY + (center(compact(box >>> 1), depth) - multIm[depth][base + 1] / mass) * size;
+
+        float x = st.x[self], y = st.y[self];
+        boolean own = itemLeaf[self] == s;
+        if (own) {
+            double m = st.mass[self];
+            if (mass - m <= 0)
+                return;
+            cx = (mass * cx - m * x) / (mass - m);
+            cy = (mass * cy - m * y) / (mass - m);
+            mass -= m;
+        }
+
+        double dx = x - cx, dy = y - cy;
+        double r2 = dx * dx + dy * dy;
+        double cell = size / (1 << depth);
+        if (r2 == 0 || (own && r2 < cell * cell)) {
+            // if items are in the (nearly) same place, add some noise
+            long key = ((long) self << 32) ^ ((long) generation << 48) ^ ((long) box << 1 | 1);
+            dx = jitter(key);
+            dy = jitter(~key);
+            r2 = dx * dx + dy * dy;
+        }
+
+        double v = -g * mass / r2;
+        item.addForce((float) (v * dx), (float) (v * dy));
+    }
+}
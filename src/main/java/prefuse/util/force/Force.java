@@ -128,5 +128,53 @@ public interface Force {
      * @param spring the Spring on which to compute updated forces
      */
     public void getForce(Spring spring);
+
+    /**
+     * Indicates if {@link #getForce(ForceItem)} and {@link #getForce(Spring)}
+     * may be called concurrently for different items, or for springs that
+     * share no endpoint. Forces that are not thread-safe are always
+     * evaluated on a single thread.
+     * @return true if this force function can be evaluated in parallel
+     */
+    public default boolean isThreadSafe() {
+        return false;
+    }
+
+    /**
+     * Indicates if this force function evaluates whole ranges of items or
+     * springs at once, through {@link #getForces(SimulationState, int, int)}
+     * and {@link #getSpringForces(SimulationState, int[], int, int)}, instead
+     * of one at a time. Bulk forces must also be thread-safe, otherwise they
+     * are evaluated one at a time.
+     * @return true if this force function should be evaluated by range
+     */
+    public default boolean isBulkForce() {
+        return false;
+    }
+
+    /**
+     * Updates the force calculation on the items in the range [from, to).
+     * @param state the simulation state holding the items
+     * @param from the first item index
+     * @param to one past the last item index
+     */
+    public default void getForces(SimulationState state, int from, int to) {
+        for (int i = from; i < to; i++)
+            getForce(state.getItem(i));
+    }
+
+    /**
+     * Updates the force calculation on the springs springs[from] to
+     * springs[to-1]. No two of these springs share an endpoint, so their
+     * forces can be computed and added together.
+     * @param state the simulation state holding the springs
+     * @param springs spring indices
+     * @param from the first position in springs
+     * @param to one past the last position in springs
+     */
+    public default void getSpringForces(SimulationState state, int[] springs, int from, int to) {
+        for (int k = from; k < to; k++)
+            getForce(state.getSpring(springs[k]));
+    }
     
 } // end of interface Force
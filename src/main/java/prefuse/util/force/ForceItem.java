@@ -27,58 +27,180 @@ package prefuse.util.force;
 
 /**
  * Represents a point particle in a force simulation, maintaining values for
- * mass, forces, velocity, and position.
+ * mass, forces, velocity, and position. The values are stored in a packed
+ * {@link SimulationState}; a ForceItem is only a view onto one slot of it.
+ * A standalone item, one that is not part of any state, keeps its values
+ * in a small array of its own instead.
  *
  * @author <a href="http://jheer.org">jeffrey heer</a>
  */
 public class ForceItem implements Cloneable {
-    
+
+    /** Positions of the values of a standalone ForceItem */
+    static final int X = 0, Y = 1, VX = 2, VY = 3, FX = 4, FY = 5, MASS = 6, VALUE_COUNT = 7;
+
+    /** The state holding the values of this ForceItem, null if standalone. */
+    SimulationState state;
+    /** The slot of this ForceItem within the state, -1 if standalone. */
+    int index;
+    /** The values of this ForceItem while standalone, null once in a state. */
+    float[] values;
+
     /**
-     * Create a new ForceItem.
+     * Create a new standalone ForceItem with a mass of 1. The item is
+     * moved into the simulation state once added to a {@link ForceSimulator}.
      */
     public ForceItem() {
-        mass = 1.0f;
-        force = new float[] { 0.f, 0.f };
-        velocity = new float[] { 0.f, 0.f };
-        location = new float[] { 0.f, 0.f };
-        plocation = new float[] { 0.f, 0.f };
-        k = new float[4][2];
-        l = new float[4][2];
+        this(new float[VALUE_COUNT]);
+        values[MASS] = 1.0f;
     }
-    
+
     /**
-     * Clone a ForceItem.
+     * Create a standalone ForceItem holding the given values.
+     */
+    private ForceItem(float[] values) {
+        this.index = -1;
+        this.values = values;
+    }
+
+    /**
+     * Create a view onto an existing slot of a simulation state.
+     */
+    ForceItem(SimulationState state, int index) {
+        this.state = state;
+        this.index = index;
+    }
+
+    /**
+     * Clone a ForceItem. The clone is a standalone item with the same values.
      * @see java.lang.Object#clone()
      */
     public Object clone() {
-        ForceItem item = new ForceItem();
-        item.mass = this.mass;
-        System.arraycopy(force,0,item.force,0,2);
-        System.arraycopy(velocity,0,item.velocity,0,2);
-        System.arraycopy(location,0,item.location,0,2);
-        System.arraycopy(plocation,0,item.plocation,0,2);
-        for ( int i=0; i<k.length; ++i ) {
-            System.arraycopy(k[i],0,item.k[i],0,2);
-            System.arraycopy(l[i],0,item.l[i],0,2);
+        return new ForceItem(copyValues());
+    }
+
+    /**
+     * Copy the values of this ForceItem out of its state, making it standalone.
+     */
+    void detach() {
+        values = copyValues();
+        state = null;
+        index = -1;
+    }
+
+    private float[] copyValues() {
+        return new float[] {
+            getX(), getY(), getVelocityX(), getVelocityY(), getForceX(), getForceY(), getMass()
+        };
+    }
+
+    /** Returns the simulation state holding the values of this ForceItem, or null if it is standalone. */
+    public SimulationState getState() {
+        return state;
+    }
+
+    /** Returns the slot of this ForceItem within its simulation state, or -1 if it is standalone. */
+    public int getIndex() {
+        return index;
+    }
+
+    /** Returns the mass value of this ForceItem. */
+    public float getMass() {
+        return state != null ? state.mass[index] : values[MASS];
+    }
+
+    /** Sets the mass value of this ForceItem. */
+    public void setMass(float mass) {
+        if (state != null)
+            state.mass[index] = mass;
+        else
+            values[MASS] = mass;
+    }
+
+    /** Returns the x-coordinate of this ForceItem. */
+    public float getX() {
+        return state != null ? state.x[index] : values[X];
+    }
+
+    /** Returns the y-coordinate of this ForceItem. */
+    public float getY() {
+        return state != null ? state.y[index] : values[Y];
+    }
+
+    /** Sets the location of this ForceItem. */
+    public void setLocation(float x, float y) {
+        if (state != null) {
+            state.x[index] = x;
+            state.y[index] = y;
+        } else {
+            values[X] = x;
+            values[Y] = y;
         }
-        return item;
     }
-    
-    /** The mass value of this ForceItem. */
-    public float   mass;
-    /** The values of the forces acting on this ForceItem. */
-    public float[] force;
-    /** The velocity values of this ForceItem. */
-    public float[] velocity;
-    /** The location values of this ForceItem. */
-    public float[] location;
-    /** The previous location values of this ForceItem. */
-    public float[] plocation;
-    /** Temporary variables for Runge-Kutta integration */
-    public float[][] k;
-    /** Temporary variables for Runge-Kutta integration */
-    public float[][] l;
-    
+
+    /** Returns the previous x-coordinate of this ForceItem, or the current one if not tracked. */
+    public float getPrevX() {
+        return state != null && state.px != null ? state.px[index] : getX();
+    }
+
+    /** Returns the previous y-coordinate of this ForceItem, or the current one if not tracked. */
+    public float getPrevY() {
+        return state != null && state.py != null ? state.py[index] : getY();
+    }
+
+    /** Returns the x-component of the velocity of this ForceItem. */
+    public float getVelocityX() {
+        return state != null ? state.vx[index] : values[VX];
+    }
+
+    /** Returns the y-component of the velocity of this ForceItem. */
+    public float getVelocityY() {
+        return state != null ? state.vy[index] : values[VY];
+    }
+
+    /** Sets the velocity of this ForceItem. */
+    public void setVelocity(float vx, float vy) {
+        if (state != null) {
+            state.vx[index] = vx;
+            state.vy[index] = vy;
+        } else {
+            values[VX] = vx;
+            values[VY] = vy;
+        }
+    }
+
+    /** Returns the x-component of the force acting on this ForceItem. */
+    public float getForceX() {
+        return state != null ? state.fx[index] : values[FX];
+    }
+
+    /** Returns the y-component of the force acting on this ForceItem. */
+    public float getForceY() {
+        return state != null ? state.fy[index] : values[FY];
+    }
+
+    /** Sets the force acting on this ForceItem. */
+    public void setForce(float fx, float fy) {
+        if (state != null) {
+            state.fx[index] = fx;
+            state.fy[index] = fy;
+        } else {
+            values[FX] = fx;
+            values[FY] = fy;
+        }
+    }
+
+    /** Adds to the force acting on this ForceItem. */
+    public void addForce(float fx, float fy) {
+        if (state != null) {
+            state.fx[index] += fx;
+            state.fy[index] += fy;
+        } else {
+            values[FX] += fx;
+            values[FY] += fy;
+        }
+    }
+
     /**
      * Checks a ForceItem to make sure its values are all valid numbers
      * (i.e., not NaNs).
@@ -87,10 +209,10 @@ public class ForceItem implements Cloneable {
      */
     public static final boolean isValid(ForceItem item) {
         return
-          !( Float.isNaN(item.location[0])  || Float.isNaN(item.location[1])  || 
-             Float.isNaN(item.plocation[0]) || Float.isNaN(item.plocation[1]) ||
-             Float.isNaN(item.velocity[0])  || Float.isNaN(item.velocity[1])  ||
-             Float.isNaN(item.force[0])     || Float.isNaN(item.force[1]) );
+          !( Float.isNaN(item.getX())         || Float.isNaN(item.getY())         ||
+             Float.isNaN(item.getPrevX())     || Float.isNaN(item.getPrevY())     ||
+             Float.isNaN(item.getVelocityX()) || Float.isNaN(item.getVelocityY()) ||
+             Float.isNaN(item.getForceX())    || Float.isNaN(item.getForceY()) );
     }
     
 } // end of class ForceItem
@@ -0,0 +1,299 @@
+package prefuse.util.force;
+
+/*
+ * #%L
+ * Cytoscape Prefuse Layout Impl (layout-prefuse-impl)
+ * $Id:$
+ * $HeadURL:$
+ * %%
+ * Copyright (C) 2006 - 2021 The Cytoscape Consortium
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+
+/**
+ * <p>The inner loops of the simple forces and the integrators, over ranges
+ * of the packed arrays of a {@link SimulationState}.</p>
+ *
+ * <p>The class is public only for the magnetic force, which lives outside
+ * this package; the kernels themselves are package-private.</p>
+ */
+public class ForceKernels {
+
+    /** The kernels used by the forces and integrators */
+    static final ForceKernels INSTANCE = new ForceKernels();
+
+    /**
+     * Applies a drag force, opposite to the velocity, to the items in [from, to).
+     */
+    void drag(SimulationState st, float coeff, int from, int to) {
+        float[] fx = st.fx, fy = st.fy, vx = st.vx, vy = st.vy;
+        for (int i = from; i < to; i++) {
+            fx[i] -= coeff * vx[i];
+            fy[i] -= coeff * vy[i];
+        }
+    }
+
+    /**
+     * Applies Hooke's law to the springs springs[from] to springs[to-1], none
+     * of which may share an endpoint.
+     * @param defaultCoeff the coefficient of springs that have a negative one
+     * @param defaultLength the rest length of springs that have a negative one
+     */
+    void springs(SimulationState st, int[] springs, int from, int to, float defaultCoeff, float defaultLength) {
+        for (int k = from; k < to; k++)
+            spring(st, springs[k], defaultCoeff, defaultLength);
+    }
+
+    static void spring(SimulationState st, int s, float defaultCoeff, float defaultLength) {
+        int i1 = st.source[s];
+        int i2 = st.target[s];
+        float sLength = st.length[s];
+        float sCoeff = st.coeff[s];
+        float length = (sLength < 0 ? defaultLength : sLength);
+        float dx = st.x[i2] - st.x[i1], dy = st.y[i2] - st.y[i1];
+        float r = (float) Math.sqrt(dx * dx + dy * dy);
+        if (r == 0.0) {
+            long key = ((long) i1 << 32) | i2;
+            dx = AbstractForce.jitter(key);
+            dy = AbstractForce.jitter(~key);
+            r = (float) Math.sqrt(dx * dx + dy * dy);
+        }
+        float d = r - length;
+        float coeff = (sCoeff < 0 ? defaultCoeff : sCoeff) * d / r;
+        st.fx[i1] += coeff * dx;
+        st.fy[i1] += coeff * dy;
+        st.fx[i2] += -coeff * dx;
+        st.fy[i2] += -coeff * dy;
+    }
+
+    /**
+     * Applies the magnetic force, which turns springs towards the direction of a
+     * field, to the springs springs[from] to springs[to-1], none of which may share
+     * an endpoint, using the kernels in use.
+     * @param mx the x component of the field of springs[k] at mx[k - from]
+     * @param my the y component of the field of springs[k] at my[k - from]
+     * @param strength the strength of the field
+     * @param alpha the exponent of the distance term
+     * @param beta the exponent of the angle term
+     * @param biDirectional whether a spring may point either way along the field
+     */
+    public static void magneticForces(SimulationState st, int[] springs, int from, int to, float[] mx, float[] my,
+                                      float strength, float alpha, float beta, boolean biDirectional) {
+        INSTANCE.magnetic(st, springs, from, to, mx, my, strength, alpha, beta, biDirectional);
+    }
+
+    void magnetic(SimulationState st, int[] springs, int from, int to, float[] mx, float[] my,
+                  float strength, float alpha, float beta, boolean biDirectional) {
+        for (int k = from; k < to; k++)
+            magneticForce(st, springs[k], mx[k - from], my[k - from], strength, alpha, beta, biDirectional);
+    }
+
+    /**
+     * Applies the magnetic force to a single spring, given the field at its middle.
+     * Springs of zero length, and springs without a field, get no force.
+     * @see #magneticForces
+     */
+    public static void magneticForce(SimulationState st, int s, float mx, float my,
+                                     float strength, float alpha, float beta, boolean biDirectional) {
+        int i1 = st.source[s];
+        int i2 = st.target[s];
+        float dx = st.x[i2] - st.x[i1], dy = st.y[i2] - st.y[i1];
+        float d = (float) Math.sqrt(dx * dx + dy * dy);
+        float m = (float) Math.sqrt(mx * mx + my * my);
+        if (d == 0.0 || m == 0.0)
+            return; // Cannot compute the angle when zero
+
+        float distanceTerm = alpha == 1 ? 1 : pow((float) Math.sqrt(d), alpha - 1);
+        float cross = mx * dy - my * dx;
+        float angle;
+        int direction;
+        if (!biDirectional) {
+            angle = (float) Math.acos(clamp((mx * dx + my * dy) / (m * d)));
+            direction = Float.compare(cross, 0);
+        } else {
+            angle = Math.abs((float) Math.asin(clamp(cross / (m * d))));
+            direction = Float.compare(cross * (mx * dx + my * dy), 0);
+        }
+        float coeff = -(strength * distanceTerm * pow(angle, beta) * direction);
+
+        // The force on the source is the edge rotated 90 degrees clockwise, the target gets the opposite
+        st.fx[i1] += dy * coeff;
+        st.fy[i1] += -dx * coeff;
+        st.fx[i2] -= dy * coeff;
+        st.fy[i2] -= -dx * coeff;
+    }
+
+    static float clamp(float cos) {
+        return Math.min(Math.max(cos, -1.0f), 1.0f);
+    }
+
+    static float pow(float x, float exp) {
+        if (exp == 0) return 1;
+        if (exp == 1) return x;
+        if (exp == 2) return x * x;
+        return (float) Math.pow(x, exp);
+    }
+
+    /**
+     * One step of Euler's method for the items in [from, to).
+     */
+    void euler(SimulationState st, float timestep, float speedLimit, int from, int to) {
+        float[] x = st.x, y = st.y, vx = st.vx, vy = st.vy, fx = st.fx, fy = st.fy, mass = st.mass;
+        for (int i = from; i < to; i++) {
+            x[i] += timestep * vx[i];
+            y[i] += timestep * vy[i];
+            float coeff = timestep / mass[i];
+            vx[i] += coeff * fx[i];
+            vy[i] += coeff * fy[i];
+            float ux = vx[i];
+            float uy = vy[i];
+            float v = (float) Math.sqrt(ux * ux + uy * uy);
+
+            if (v > speedLimit) {
+                vx[i] = speedLimit * ux / v;
+                vy[i] = speedLimit * uy / v;
+            }
+        }
+    }
+
+    /**
+     * One leapfrog step of the velocity Verlet method for the items in [from, to).
+     * @param closing half of the previous timestep
+     * @param opening half of the current timestep
+     * @param keep the fraction of the velocity kept after damping
+     */
+    void verlet(SimulationState st, float timestep, float closing, float opening, float keep,
+                float speedLimit, int from, int to) {
+        float[] x = st.x, y = st.y, vx = st.vx, vy = st.vy, fx = st.fx, fy = st.fy, mass = st.mass;
+        for (int i = from; i < to; i++) {
+            float ax = fx[i] / mass[i];
+            float ay = fy[i] / mass[i];
+            float ux = (vx[i] + closing * ax) * keep + opening * ax;
+            float uy = (vy[i] + closing * ay) * keep + opening * ay;
+            float v = (float) Math.sqrt(ux * ux + uy * uy);
+
+            if (v > speedLimit) {
+                ux = speedLimit * ux / v;
+                uy = speedLimit * uy / v;
+            }
+
+            vx[i] = ux;
+            vy[i] = uy;
+            x[i] += timestep * ux;
+            y[i] += timestep * uy;
+        }
+    }
+
+    /**
+     * First stage of the 4th-order Runge-Kutta method for the items in [from, to):
+     * saves the locations and moves the items half a step along their velocity.
+     */
+    void rungeKuttaStart(SimulationState st, float timestep, int from, int to) {
+        float[] x = st.x, y = st.y, px = st.px, py = st.py;
+        float[] velx = st.vx, vely = st.vy, fx = st.fx, fy = st.fy, mass = st.mass;
+        float[] kx = st.kx[0], ky = st.ky[0], lx = st.lx[0], ly = st.ly[0];
+        for (int i = from; i < to; i++) {
+            float coeff = timestep / mass[i];
+            px[i] = x[i];
+            py[i] = y[i];
+            kx[i] = timestep * velx[i];
+            ky[i] = timestep * vely[i];
+            lx[i] = coeff * fx[i];
+            ly[i] = coeff * fy[i];
+
+            // Set the position to the new predicted position
+            x[i] += 0.5f * kx[i];
+            y[i] += 0.5f * ky[i];
+        }
+    }
+
+    /**
+     * Second or third stage of the 4th-order Runge-Kutta method for the items
+     * in [from, to): evaluates the derivatives of the given stage from those of
+     * the previous one, and moves the items to the next predicted location.
+     * @param stage the stage, 1 or 2
+     * @param velocityStep the fraction of the previous velocity change to apply
+     * @param positionStep the fraction of this stage's displacement to move by
+     */
+    void rungeKuttaStage(SimulationState st, float timestep, int stage, float velocityStep, float positionStep,
+                         float speedLimit, int from, int to) {
+        float[] x = st.x, y = st.y, px = st.px, py = st.py;
+        float[] velx = st.vx, vely = st.vy, fx = st.fx, fy = st.fy, mass = st.mass;
+        float[] kx = st.kx[stage], ky = st.ky[stage], lx = st.lx[stage], ly = st.ly[stage];
+        float[] lxPrev = st.lx[stage - 1], lyPrev = st.ly[stage - 1];
+        for (int i = from; i < to; i++) {
+            float coeff = timestep / mass[i];
+            float vx = velx[i] + velocityStep * lxPrev[i];
+            float vy = vely[i] + velocityStep * lyPrev[i];
+            float v = (float) Math.sqrt(vx * vx + vy * vy);
+
+            if (v > speedLimit) {
+                vx = speedLimit * vx / v;
+                vy = speedLimit * vy / v;
+            }
+
+            kx[i] = timestep * vx;
+            ky[i] = timestep * vy;
+            lx[i] = coeff * fx[i];
+            ly[i] = coeff * fy[i];
+
+            // Set the position to the new predicted position
+            x[i] = px[i] + positionStep * kx[i];
+            y[i] = py[i] + positionStep * ky[i];
+        }
+    }
+
+    /**
+     * Last stage of the 4th-order Runge-Kutta method for the items in [from, to):
+     * combines the derivatives of all stages into the new locations and velocities.
+     */
+    void rungeKuttaFinish(SimulationState st, float timestep, float speedLimit, int from, int to) {
+        float[] x = st.x, y = st.y, px = st.px, py = st.py;
+        float[] velx = st.vx, vely = st.vy, fx = st.fx, fy = st.fy, mass = st.mass;
+        float[][] kx = st.kx, ky = st.ky, lx = st.lx, ly = st.ly;
+        for (int i = from; i < to; i++) {
+            float coeff = timestep / mass[i];
+            float vx = velx[i] + lx[2][i];
+            float vy = vely[i] + ly[2][i];
+            float v = (float) Math.sqrt(vx * vx + vy * vy);
+
+            if (v > speedLimit) {
+                vx = speedLimit * vx / v;
+                vy = speedLimit * vy / v;
+            }
+
+            kx[3][i] = timestep * vx;
+            ky[3][i] = timestep * vy;
+            lx[3][i] = coeff * fx[i];
+            ly[3][i] = coeff * fy[i];
+            x[i] = px[i] + (kx[0][i] + kx[3][i]) / 6.0f + (kx[1][i] + kx[2][i]) / 3.0f;
+            y[i] = py[i] + (ky[0][i] + ky[3][i]) / 6.0f + (ky[1][i] + ky[2][i]) / 3.0f;
+
+            vx = (lx[0][i] + lx[3][i]) / 6.0f + (lx[1][i] + lx[2][i]) / 3.0f;
+            vy = (ly[0][i] + ly[3][i]) / 6.0f + (ly[1][i] + ly[2][i]) / 3.0f;
+            v = (float) Math.sqrt(vx * vx + vy * vy);
+
+            if (v > speedLimit) {
+                vx = speedLimit * vx / v;
+                vy = speedLimit * vy / v;
+            }
+
+            velx[i] += vx;
+            vely[i] += vy;
+        }
+    }
+}
@@ -1,8 +1,13 @@
 package prefuse.util.force;
 
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Predicate;
 
 /*
  * #%L
@@ -32,13 +37,17 @@ import java.util.Iterator;
  * Manages a simulation of physical forces acting on bodies. To create a
  * custom ForceSimulator, add the desired {@link Force} functions and choose an
  * appropriate {@link Integrator}.
+ * <p>
+ * When a {@link ForkJoinPool} is set with {@link #setPool(ForkJoinPool)}, item
+ * forces, spring forces and integrator updates are split across its workers.
+ * Only forces that are {@link Force#isThreadSafe() thread-safe} run in
+ * parallel; springs are processed in batches that share no endpoint.
  *
  * @author <a href="http://jheer.org">jeffrey heer</a>
  */
 public class ForceSimulator {
 
-    private ArrayList<ForceItem> items;
-    private ArrayList<Spring> springs;
+    private final SimulationState state;
     private Force[] iforces;
     private Force[] sforces;
     private int iflen, sflen;
@@ -46,6 +55,32 @@ public class ForceSimulator {
     private float speedLimit = 1.0f;
     
     private final StateMonitor monitor;
+
+    /** Smallest number of items or springs handed to one worker */
+    public static final int MIN_CHUNK_SIZE = 512;
+
+    private static final Force[] NO_FORCES = new Force[0];
+
+    private ForkJoinPool pool;
+    private SpringBatches springBatches;
+
+    // The forces split by how they are evaluated, for the pool they were selected for
+    private Force[] itemBulk, itemSafe, itemUnsafe, springBulk, springSafe, springUnsafe;
+    private boolean selectedParallel;
+
+    // The spring batch being evaluated, read by springTask so that no loop body is allocated per step
+    private int[] batchOrder;
+    private int batchBase;
+    private final RangeTask itemTask = this::applyItemForces;
+    private final RangeTask springTask = (from, to) ->
+            applySpringForces(batchOrder, batchBase + from, batchBase + to, springSafe, springBulk);
+
+    /**
+     * A loop body over the index range [from, to).
+     */
+    public interface RangeTask {
+        void run(int from, int to);
+    }
     
     /**
      * Create a new, empty ForceSimulator. A RungeKuttaIntegrator is used
@@ -60,14 +95,22 @@ public class ForceSimulator {
      * @param integrator the Integrator to use
      */
     public ForceSimulator(Integrator integrator, StateMonitor monitor) {
+        this(new SimulationState(), integrator, monitor);
+    }
+
+    /**
+     * Create a new ForceSimulator operating on a pre-built simulation state.
+     * @param state the packed item and spring state to simulate
+     * @param integrator the Integrator to use
+     */
+    public ForceSimulator(SimulationState state, Integrator integrator, StateMonitor monitor) {
+        this.state = state;
         this.integrator = integrator;
         this.monitor = monitor;
         iforces = new Force[5];
         sforces = new Force[5];
         iflen = 0;
         sflen = 0;
-        items = new ArrayList<>();
-        springs = new ArrayList<>();
     }
 
     /**
@@ -104,19 +147,83 @@ public class ForceSimulator {
         integrator = intgr;
     }
     
+    /**
+     * Get the pool used for parallel simulation steps.
+     * @return the pool, or null if the simulation runs on a single thread
+     */
+    public ForkJoinPool getPool() {
+        return pool;
+    }
+
+    /**
+     * Set the pool used for parallel simulation steps.
+     * @param pool the pool to use, or null to run on the calling thread only
+     */
+    public void setPool(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Returns true if simulation steps are split across multiple threads.
+     */
+    public boolean isParallel() {
+        return pool != null && pool.getParallelism() > 1;
+    }
+
+    /**
+     * Run the given loop body over the range [0, n). In parallel mode the range
+     * is split into chunks that run concurrently, otherwise the body is run
+     * once on the calling thread.
+     * @param n the length of the range
+     * @param task the loop body
+     */
+    public void forEachRange(int n, RangeTask task) {
+        forEachRange(n, MIN_CHUNK_SIZE, task);
+    }
+
+    /**
+     * Run the given loop body over the range [0, n), as with
+     * {@link #forEachRange(int, RangeTask)}, but with a custom lower bound
+     * on the size of the chunks. Coarse loops, e.g. over blocks of items,
+     * can use a chunk size of one.
+     * @param n the length of the range
+     * @param minChunkSize the smallest number of iterations run in one chunk
+     * @param task the loop body
+     */
+    public void forEachRange(int n, int minChunkSize, RangeTask task) {
+        if (!isParallel() || n < 2 * minChunkSize) {
+            task.run(0, n);
+            return;
+        }
+        int chunks = Math.min(pool.getParallelism() * 4, n / minChunkSize);
+        List<ForkJoinTask<?>> tasks = new ArrayList<>(chunks);
+        for (int c = 0; c < chunks; c++) {
+            int from = (int) ((long) n * c / chunks);
+            int to = (int) ((long) n * (c + 1) / chunks);
+            tasks.add(ForkJoinTask.adapt(() -> task.run(from, to)));
+        }
+        pool.invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                invokeAll(tasks);
+            }
+        });
+    }
+
+    /**
+     * Get the packed state of the items and springs in this simulator.
+     * @return the simulation state
+     */
+    public SimulationState getState() {
+        return state;
+    }
+
     /**
      * Clear this simulator, removing all ForceItem and Spring instances
      * for the simulator.
      */
     public void clear() {
-		items.clear();
-		Iterator<Spring> siter = springs.iterator();
-		Spring.SpringFactory f = Spring.getFactory();
-		
-		while (siter.hasNext())
-			f.reclaim((Spring) siter.next());
-		
-		springs.clear();
+		state.clear();
 	}
 
     /**
@@ -145,6 +252,8 @@ public class ForceSimulator {
 			
 			sforces[sflen++] = f;
 		}
+		
+		itemBulk = null; // select the forces again
     }
     
     /**
@@ -160,19 +269,39 @@ public class ForceSimulator {
 	}
     
     /**
-     * Add a ForceItem to the simulation.
+     * Add a ForceItem to the simulation. The values of the item are moved
+     * into the packed state of this simulator.
      * @param item the ForceItem to add
      */
     public void addItem(ForceItem item) {
-        items.add(item);
+        if (item.state != state)
+            state.adopt(item);
+    }
+
+    /**
+     * Add a new ForceItem to the simulation.
+     * @param x the initial x-coordinate
+     * @param y the initial y-coordinate
+     * @param mass the mass of the item
+     * @return the ForceItem added to the simulation
+     */
+    public ForceItem addItem(float x, float y, float mass) {
+        return state.addItem(x, y, mass);
     }
     
     /**
-     * Remove a ForceItem to the simulation.
+     * Remove a ForceItem to the simulation, along with its springs.
      * @param item the ForceItem to remove
      */
     public boolean removeItem(ForceItem item) {
-        return items.remove(item);
+        return state.removeItem(item);
+    }
+
+    /**
+     * Get the number of registered ForceItems.
+     */
+    public int getItemCount() {
+        return state.getItemCount();
     }
 
     /**
@@ -180,7 +309,10 @@ public class ForceSimulator {
      * @return an iterator over the ForceItems.
      */
     public Iterator<ForceItem> getItems() {
-        return items.iterator();
+        ForceItem[] views = new ForceItem[state.getItemCount()];
+        for (int i = 0; i < views.length; i++)
+            views[i] = state.getItem(i);
+        return Arrays.asList(views).iterator();
     }
     
     /**
@@ -216,10 +348,14 @@ public class ForceSimulator {
 		if (item1 == null || item2 == null)
 			throw new IllegalArgumentException("ForceItems must be non-null");
 		
-		Spring s = Spring.getFactory().getSpring(item1, item2, coeff, length);
-		springs.add(s);
-		
-		return s;
+		return state.addSpring(item1, item2, coeff, length);
+    }
+
+    /**
+     * Get the number of registered Springs.
+     */
+    public int getSpringCount() {
+        return state.getSpringCount();
     }
     
     /**
@@ -227,7 +363,10 @@ public class ForceSimulator {
      * @return an iterator over the Springs.
      */
     public Iterator<Spring> getSprings() {
-        return springs.iterator();
+        Spring[] views = new Spring[state.getSpringCount()];
+        for (int i = 0; i < views.length; i++)
+            views[i] = state.getSpring(i);
+        return Arrays.asList(views).iterator();
     }
     
     /**
@@ -252,30 +391,147 @@ public class ForceSimulator {
 			sforces[i].init(this);
 		
 		// Update forces
-		updateForceItems(items);
-		updateSprings(springs);
+		updateForceItems();
+		updateSprings();
     }
 
-	private void updateForceItems(Collection<ForceItem> list) {
-		for (ForceItem item : list) {
+	/**
+	 * Splits the forces by how they are evaluated, once for every set of
+	 * forces and whenever the simulation switches between one and more threads.
+	 */
+	private void selectForces() {
+		boolean parallel = isParallel();
+		if (itemBulk != null && selectedParallel == parallel)
+			return;
+		
+		itemBulk = selectForces(iforces, iflen, ForceSimulator::isBulk);
+		itemSafe = selectForces(iforces, iflen, f -> !isBulk(f) && (!parallel || f.isThreadSafe()));
+		itemUnsafe = parallel ? selectForces(iforces, iflen, f -> !isBulk(f) && !f.isThreadSafe()) : NO_FORCES;
+		springBulk = selectForces(sforces, sflen, ForceSimulator::isBulk);
+		springSafe = selectForces(sforces, sflen, f -> !isBulk(f) && parallel && f.isThreadSafe());
+		springUnsafe = selectForces(sforces, sflen, f -> !isBulk(f) && !(parallel && f.isThreadSafe()));
+		selectedParallel = parallel;
+	}
+
+	private void updateForceItems() {
+		int n = state.getItemCount();
+		selectForces();
+		Force[] unsafe = itemUnsafe;
+		
+		forEachRange(n, itemTask);
+		
+		if (unsafe.length > 0) {
+			for (int j = 0; j < n; j++) {
+				if (monitor.isCancelled())
+					return;
+				
+				ForceItem item = state.getItem(j);
+				
+				for (Force f : unsafe)
+					f.getForce(item);
+			}
+		}
+	}
+	
+	private void applyItemForces(int from, int to) {
+		float[] fx = state.fx, fy = state.fy;
+		Force[] forces = itemSafe, bulk = itemBulk;
+		
+		for (int j = from; j < to; j++) {
 			if (monitor.isCancelled())
 				return;
 			
-			item.force[0] = 0.0f;
-			item.force[1] = 0.0f;
+			fx[j] = 0.0f;
+			fy[j] = 0.0f;
+			ForceItem item = state.getItem(j);
 			
-			for (int i = 0; i < iflen && !monitor.isCancelled(); i++)
-				iforces[i].getForce(item);
+			for (Force f : forces)
+				f.getForce(item);
 		}
+		
+		for (int i = 0; i < bulk.length && !monitor.isCancelled(); i++)
+			bulk[i].getForces(state, from, to);
 	}
 	
-	private void updateSprings(Collection<Spring> list) {
-		for (Spring s : list) {
-			if (monitor.isCancelled())
-				return;
+	private void updateSprings() {
+		int n = state.getSpringCount();
+		selectForces();
+		Force[] bulk = springBulk, safe = springSafe, unsafe = springUnsafe;
+		
+		if (bulk.length > 0 || safe.length > 0) {
+			// Bulk forces always go through the batches, even on a single
+			// thread, so that they never see two springs with the same endpoint
+			SpringBatches batches = getSpringBatches();
+			int[] order = batches.order;
 			
-			for (int i = 0; i < sflen && !monitor.isCancelled(); i++)
-				sforces[i].getForce(s);
+			batchOrder = order;
+			for (int b = 0; b < batches.getBatchCount(); b++) {
+				if (monitor.isCancelled())
+					return;
+				
+				batchBase = batches.start[b];
+				forEachRange(batches.start[b + 1] - batchBase, springTask);
+			}
+			
+			// The springs left over may conflict, so bulk forces take them one at a time
+			applySpringForces(order, batches.getSerialStart(), n, safe, NO_FORCES);
+			applySpringForces(order, batches.getSerialStart(), n, bulk, NO_FORCES);
 		}
+		
+		if (unsafe.length > 0) {
+			for (int j = 0; j < n; j++) {
+				if (monitor.isCancelled())
+					return;
+				
+				Spring s = state.getSpring(j);
+				
+				for (Force f : unsafe)
+					f.getForce(s);
+			}
+		}
+	}
+	
+	private void applySpringForces(int[] order, int from, int to, Force[] forces, Force[] bulk) {
+		if (forces.length > 0) {
+			for (int j = from; j < to; j++) {
+				if (monitor.isCancelled())
+					return;
+				
+				Spring s = state.getSpring(order[j]);
+				
+				for (Force f : forces)
+					f.getForce(s);
+			}
+		}
+		
+		for (int i = 0; i < bulk.length && !monitor.isCancelled(); i++)
+			bulk[i].getSpringForces(state, order, from, to);
+	}
+	
+	private SpringBatches getSpringBatches() {
+		if (springBatches == null || springBatches.version != state.getTopologyVersion())
+			springBatches = new SpringBatches(state);
+		return springBatches;
+	}
+	
+	private static Force[] selectForces(Force[] forces, int len, Predicate<Force> filter) {
+		int count = 0;
+		for (int i = 0; i < len; i++)
+			if (filter.test(forces[i]))
+				count++;
+		Force[] selected = new Force[count];
+		count = 0;
+		for (int i = 0; i < len; i++)
+			if (filter.test(forces[i]))
+				selected[count++] = forces[i];
+		return selected;
+	}
+	
+	/**
+	 * Bulk forces are only evaluated by range if they are also thread-safe,
+	 * since the ranges may run concurrently.
+	 */
+	private static boolean isBulk(Force f) {
+		return f.isBulkForce() && f.isThreadSafe();
 	}
 }
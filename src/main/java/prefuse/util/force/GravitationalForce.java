@@ -79,6 +79,14 @@ public class GravitationalForce extends AbstractForce {
         return true;
     }
 
+    /**
+     * Returns true.
+     * @see prefuse.util.force.Force#isThreadSafe()
+     */
+    public boolean isThreadSafe() {
+        return true;
+    }
+
     /**
      * @see prefuse.util.force.AbstractForce#getParameterNames()
      */
@@ -91,10 +99,9 @@ public class GravitationalForce extends AbstractForce {
      */
     public void getForce(ForceItem item) {
         float theta = params[DIRECTION];
-        float coeff = params[GRAVITATIONAL_CONST]*item.mass;
+        float coeff = params[GRAVITATIONAL_CONST]*item.getMass();
         
-        item.force[0] += Math.cos(theta)*coeff;
-        item.force[1] += Math.sin(theta)*coeff;
+        item.addForce((float)Math.cos(theta)*coeff, (float)Math.sin(theta)*coeff);
     }
 
 } // end of class GravitationalForce
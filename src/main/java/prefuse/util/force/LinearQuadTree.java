@@ -0,0 +1,406 @@
+package prefuse.util.force;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinTask;
+
+/*
+ * #%L
+ * Cytoscape Prefuse Layout Impl (layout-prefuse-impl)
+ * $Id:$
+ * $HeadURL:$
+ * %%
+ * Copyright (C) 2006 - 2021 The Cytoscape Consortium
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+
+/**
+ * Array-backed quadtree over the items of a {@link SimulationState}, with
+ * aggregated mass and center of mass values for each node.
+ * <p>
+ * Items are sorted by the Morton code of their quantized location, so that
+ * every node of the tree covers a contiguous range of the sorted items. The
+ * tree is then built top-down with an explicit stack, and the masses are
+ * accumulated bottom-up by walking the nodes in reverse creation order.
+ * Items that fall into the same cell at the deepest level, or that all share
+ * the same cell, are kept together in a single leaf rather than being split
+ * any further.
+ * <p>
+ * When the simulator runs in parallel, the bounds, Morton codes and sort are
+ * computed across the simulator's pool. The top of the tree is then built on
+ * the calling thread until the remaining subtrees are small, and those
+ * subtrees are built, aggregated and copied into place concurrently.
+ * <p>
+ * The arrays are reused between builds, so rebuilding the tree on every
+ * simulation step does not create garbage once the capacity has settled.
+ */
+final class LinearQuadTree {
+
+    /** Number of bits used to quantize each coordinate, and maximum depth of the tree */
+    static final int MAX_DEPTH = 15;
+    /** Marker for a missing child */
+    static final int NONE = -1;
+    /** Smallest number of items for which the tree is built in parallel */
+    static final int PARALLEL_MIN_ITEMS = 8 * ForceSimulator.MIN_CHUNK_SIZE;
+    /** Number of items per block when computing the bounds in parallel */
+    private static final int BOUNDS_BLOCK = 4096;
+
+    /** Lower left corner and side length of the (square) root cell */
+    float xMin, yMin, size;
+    /** Number of nodes in the tree, the root being node 0 */
+    int nodeCount;
+
+    /** Child node indices, four per node in the order top left, top right, bottom left, bottom right */
+    int[] child = new int[4 * 64];
+    /** Depth of each node, the root being at depth 0 */
+    int[] level = new int[64];
+    /** Each node covers order[first[n]] to order[last[n]-1] */
+    int[] first = new int[64], last = new int[64];
+    /** True for nodes without children */
+    boolean[] leaf = new boolean[64];
+    /** Total mass and center of mass of each node */
+    float[] mass = new float[64], comX = new float[64], comY = new float[64];
+
+    /** Item indices, sorted by Morton code */
+    int[] order = new int[16];
+    /** Morton codes, in the same order as {@link #order} */
+    int[] codes = new int[16];
+    /** Position of each item within {@link #order} */
+    int[] rank = new int[16];
+
+    private long[] keys = new long[16];
+    /** Bounds of the items when computed on a single thread, which allocates nothing */
+    private final float[] bounds = new float[4];
+    private int[] stack = new int[4 * (MAX_DEPTH + 1)];
+
+    /** Nodes left for a subtree build, and the trees those subtrees are built in */
+    private int[] deferred = new int[16];
+    private int deferredCount;
+    private LinearQuadTree[] subtrees = new LinearQuadTree[0];
+
+    /**
+     * Rebuild the tree for the current locations of the simulator's items.
+     * @param fsim the simulator, whose pool is used if it runs in parallel
+     * @param monitor checked for cancellation while building
+     * @return false if the build was cancelled, in which case the tree is empty
+     */
+    boolean build(ForceSimulator fsim, StateMonitor monitor) {
+        nodeCount = 0;
+        SimulationState st = fsim.getState();
+        int n = st.getItemCount();
+        if (n == 0)
+            return true;
+
+        boolean parallel = fsim.isParallel() && n >= PARALLEL_MIN_ITEMS;
+        computeBounds(fsim, parallel);
+        sortItems(fsim, parallel);
+        if (monitor.isCancelled())
+            return false;
+
+        if (!parallel) {
+            buildNodes(codes, newNode(0, n, 0), 0);
+            computeMass(st, order, nodeCount);
+            return true;
+        }
+
+        // Build the top of the tree here, leaving the subtrees for the pool
+        int limit = Math.max(ForceSimulator.MIN_CHUNK_SIZE, n / (8 * fsim.getPool().getParallelism()));
+        deferredCount = 0;
+        buildNodes(codes, newNode(0, n, 0), limit);
+        int top = nodeCount;
+        prepareSubtrees();
+
+        fsim.forEachRange(deferredCount, 1, (from, to) -> {
+            for (int k = from; k < to; k++) {
+                LinearQuadTree sub = subtrees[k];
+                int node = deferred[k];
+                sub.nodeCount = 0;
+                sub.buildNodes(codes, sub.newNode(first[node], last[node], level[node]), 0);
+                sub.computeMass(st, order, sub.nodeCount);
+            }
+        });
+        if (monitor.isCancelled()) {
+            nodeCount = 0;
+            return false;
+        }
+
+        // Every subtree root replaces its deferred node, the other nodes are appended
+        int[] offset = new int[deferredCount + 1];
+        offset[0] = top;
+        for (int k = 0; k < deferredCount; k++)
+            offset[k + 1] = offset[k] + subtrees[k].nodeCount - 1;
+        ensureCapacity(offset[deferredCount]);
+        nodeCount = offset[deferredCount];
+
+        fsim.forEachRange(deferredCount, 1, (from, to) -> {
+            for (int k = from; k < to; k++)
+                copySubtree(subtrees[k], deferred[k], offset[k]);
+        });
+
+        computeMass(st, order, top);
+        return true;
+    }
+
+    /**
+     * Returns the side length of the cells at the given depth.
+     */
+    float getCellSize(int depth) {
+        return size / (1 << depth);
+    }
+
+    private void computeBounds(ForceSimulator fsim, boolean parallel) {
+        SimulationState st = fsim.getState();
+        int n = st.getItemCount();
+        int blocks = parallel ? (n + BOUNDS_BLOCK - 1) / BOUNDS_BLOCK : 1;
+        float[] bounds = parallel ? new float[4 * blocks] : this.bounds;
+
+        if (parallel) {
+            fsim.forEachRange(blocks, 1, (from, to) -> {
+                for (int b = from; b < to; b++) {
+                    int lo = (int) ((long) n * b / blocks);
+                    int hi = (int) ((long) n * (b + 1) / blocks);
+                    blockBounds(st.x, st.y, lo, hi, bounds, 4 * b);
+                }
+            });
+        } else {
+            blockBounds(st.x, st.y, 0, n, bounds, 0);
+        }
+
+        float x1 = Float.MAX_VALUE, y1 = Float.MAX_VALUE;
+        float x2 = -Float.MAX_VALUE, y2 = -Float.MAX_VALUE;
+        for (int b = 0; b < 4 * blocks; b += 4) {
+            x1 = Math.min(x1, bounds[b]);
+            y1 = Math.min(y1, bounds[b + 1]);
+            x2 = Math.max(x2, bounds[b + 2]);
+            y2 = Math.max(y2, bounds[b + 3]);
+        }
+
+        xMin = x1;
+        yMin = y1;
+        size = Math.max(x2 - x1, y2 - y1);
+        if (!(size > 0)) // all items in one place
+            size = 1;
+    }
+
+    private static void blockBounds(float[] x, float[] y, int lo, int hi, float[] bounds, int at) {
+        float x1 = Float.MAX_VALUE, y1 = Float.MAX_VALUE;
+        float x2 = -Float.MAX_VALUE, y2 = -Float.MAX_VALUE;
+
+        for (int i = lo; i < hi; i++) {
+            if (x[i] < x1) x1 = x[i];
+            if (y[i] < y1) y1 = y[i];
+            if (x[i] > x2) x2 = x[i];
+            if (y[i] > y2) y2 = y[i];
+        }
+
+        bounds[at] = x1;
+        bounds[at + 1] = y1;
+        bounds[at + 2] = x2;
+        bounds[at + 3] = y2;
+    }
+
+    private void sortItems(ForceSimulator fsim, boolean parallel) {
+        SimulationState st = fsim.getState();
+        float[] x = st.x, y = st.y;
+        int n = st.getItemCount();
+        if (keys.length < n) {
+            int cap = Math.max(n, keys.length + (keys.length >> 1));
+            keys = new long[cap];
+            order = new int[cap];
+            codes = new int[cap];
+            rank = new int[cap];
+        }
+
+        long[] keys = this.keys;
+        float scale = (1 << MAX_DEPTH) / size;
+        if (parallel) {
+            fsim.forEachRange(n, (from, to) -> computeKeys(x, y, scale, from, to));
+            fsim.getPool().invoke(ForkJoinTask.adapt(() -> Arrays.parallelSort(keys, 0, n)));
+            fsim.forEachRange(n, this::unpackKeys);
+        } else {
+            // no loop bodies are allocated on a single thread
+            computeKeys(x, y, scale, 0, n);
+            Arrays.sort(keys, 0, n);
+            unpackKeys(0, n);
+        }
+    }
+
+    private void computeKeys(float[] x, float[] y, float scale, int from, int to) {
+        for (int i = from; i < to; i++)
+            keys[i] = ((long) mortonCode(x[i], y[i], scale) << 32) | i;
+    }
+
+    private void unpackKeys(int from, int to) {
+        for (int i = from; i < to; i++) {
+            order[i] = (int) keys[i];
+            codes[i] = (int) (keys[i] >>> 32);
+            rank[order[i]] = i;
+        }
+    }
+
+    private int mortonCode(float x, float y, float scale) {
+        int max = (1 << MAX_DEPTH) - 1;
+        int qx = Math.min(max, Math.max(0, (int) ((x - xMin) * scale)));
+        int qy = Math.min(max, Math.max(0, (int) ((y - yMin) * scale)));
+        return spread(qx) | (spread(qy) << 1);
+    }
+
+    /** Interleave the lower 16 bits of the value with zeros */
+    private static int spread(int v) {
+        v &= 0x0000ffff;
+        v = (v | (v << 8)) & 0x00ff00ff;
+        v = (v | (v << 4)) & 0x0f0f0f0f;
+        v = (v | (v << 2)) & 0x33333333;
+        v = (v | (v << 1)) & 0x55555555;
+        return v;
+    }
+
+    /**
+     * Build the subtree below the given node of this tree. Nodes covering at
+     * most deferLimit items are recorded in {@link #deferred} rather than
+     * split, unless deferLimit is zero.
+     * @param codes the sorted Morton codes of the items
+     * @param root the node to start from
+     * @param deferLimit the size of the subtrees to leave for later, or zero
+     */
+    private void buildNodes(int[] codes, int root, int deferLimit) {
+        int sp = 0;
+        stack[sp++] = root;
+
+        while (sp > 0) {
+            int node = stack[--sp];
+            int lo = first[node], hi = last[node], depth = level[node];
+
+            // Single items, and items that share the deepest cell, stay in one leaf
+            if (hi - lo == 1 || depth == MAX_DEPTH || codes[lo] == codes[hi - 1]) {
+                leaf[node] = true;
+                continue;
+            }
+
+            if (hi - lo <= deferLimit) {
+                if (deferredCount == deferred.length)
+                    deferred = Arrays.copyOf(deferred, 2 * deferred.length);
+                deferred[deferredCount++] = node;
+                continue;
+            }
+
+            // Split the range by the two code bits of the next level
+            int shift = 2 * (MAX_DEPTH - 1 - depth);
+            int start = lo;
+            for (int q = 0; q < 4 && start < hi; q++) {
+                int end = start;
+                while (end < hi && ((codes[end] >>> shift) & 3) == q)
+                    end++;
+                if (end > start) {
+                    int c = newNode(start, end, depth + 1);
+                    child[4 * node + q] = c;
+                    stack[sp++] = c;
+                }
+                start = end;
+            }
+        }
+    }
+
+    private int newNode(int lo, int hi, int depth) {
+        int node = nodeCount++;
+        ensureCapacity(nodeCount);
+        Arrays.fill(child, 4 * node, 4 * node + 4, NONE);
+        level[node] = depth;
+        first[node] = lo;
+        last[node] = hi;
+        leaf[node] = false;
+        return node;
+    }
+
+    private void ensureCapacity(int nodes) {
+        if (nodes > level.length) {
+            int cap = Math.max(nodes, level.length + (level.length >> 1));
+            child = Arrays.copyOf(child, 4 * cap);
+            level = Arrays.copyOf(level, cap);
+            first = Arrays.copyOf(first, cap);
+            last = Arrays.copyOf(last, cap);
+            leaf = Arrays.copyOf(leaf, cap);
+            mass = Arrays.copyOf(mass, cap);
+            comX = Arrays.copyOf(comX, cap);
+            comY = Arrays.copyOf(comY, cap);
+        }
+    }
+
+    private void prepareSubtrees() {
+        if (subtrees.length < deferredCount) {
+            int old = subtrees.length;
+            subtrees = Arrays.copyOf(subtrees, deferredCount);
+            for (int k = old; k < deferredCount; k++)
+                subtrees[k] = new LinearQuadTree();
+        }
+    }
+
+    /**
+     * Copy a subtree built for the given deferred node into this tree. The
+     * subtree root is written over the deferred node, and the remaining
+     * nodes are placed from the given offset on.
+     */
+    private void copySubtree(LinearQuadTree sub, int node, int offset) {
+        for (int k = 0; k < sub.nodeCount; k++) {
+            int to = k == 0 ? node : offset + k - 1;
+            for (int q = 0; q < 4; q++) {
+                int c = sub.child[4 * k + q];
+                child[4 * to + q] = c == NONE ? NONE : offset + c - 1;
+            }
+            level[to] = sub.level[k];
+            first[to] = sub.first[k];
+            last[to] = sub.last[k];
+            leaf[to] = sub.leaf[k];
+            mass[to] = sub.mass[k];
+            comX[to] = sub.comX[k];
+            comY[to] = sub.comY[k];
+        }
+    }
+
+    /**
+     * Compute the mass and center of mass of the first count nodes, relying
+     * on children always being created after their parent.
+     */
+    private void computeMass(SimulationState st, int[] order, int count) {
+        float[] x = st.x, y = st.y, m = st.mass;
+
+        for (int node = count - 1; node >= 0; node--) {
+            float total = 0, xcom = 0, ycom = 0;
+
+            if (leaf[node]) {
+                for (int k = first[node]; k < last[node]; k++) {
+                    int i = order[k];
+                    total += m[i];
+                    xcom += m[i] * x[i];
+                    ycom += m[i] * y[i];
+                }
+            } else {
+                for (int q = 0; q < 4; q++) {
+                    int c = child[4 * node + q];
+                    if (c != NONE) {
+                        total += mass[c];
+                        xcom += mass[c] * comX[c];
+                        ycom += mass[c] * comY[c];
+                    }
+                }
+            }
+
+            mass[node] = total;
+            comX[node] = xcom / total;
+            comY[node] = ycom / total;
+        }
+    }
+}
@@ -1,10 +1,5 @@
 package prefuse.util.force;
 
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Iterator;
-import java.util.Random;
-
 /*
  * #%L
  * Cytoscape Prefuse Layout Impl (layout-prefuse-impl)
@@ -46,17 +41,17 @@ import java.util.Random;
  *   <li><a href="http://www.ifa.hawaii.edu/~barnes/treecode/treeguide.html">Joshua Barnes' recent implementation</a>
  * </ul></p>
  * 
+ * <p>The quadtree is a flat, array-backed {@link LinearQuadTree} that is
+ * rebuilt on every call to {@link #init(ForceSimulator)} without creating
+ * new objects. Once built it is only read, so the force on different items
+ * may be computed concurrently.
+ * Items at the same location are separated by a jitter derived from the
+ * item and the tree cell, instead of a shared random number generator.</p>
+ * 
  * @author <a href="http://jheer.org">jeffrey heer</a>
  */
 public class NBodyForce extends AbstractForce {
 
-    /* 
-     * The indexing scheme for quadtree child nodes goes row by row.
-     *   0 | 1    0 -> top left,    1 -> top right
-     *  -------
-     *   2 | 3    2 -> bottom left, 3 -> bottom right
-     */
-
     private static String[] pnames = new String[] { "GravitationalConstant", 
             "Distance", "BarnesHutTheta"  };
     
@@ -76,14 +71,16 @@ public class NBodyForce extends AbstractForce {
     public static final int MIN_DISTANCE = 1;
     public static final int BARNES_HUT_THETA = 2;
     
-    private float xMin, xMax, yMin, yMax;
-    private QuadTreeNodeFactory factory = new QuadTreeNodeFactory();
-    private QuadTreeNode root;
+    private final LinearQuadTree tree = new LinearQuadTree();
     
-    private Random rand; // deterministic randomness
+    private int generation; // varies the jitter between evaluations
 
     private final StateMonitor monitor;
     
+    /** Traversal stack for each thread evaluating the force */
+    private static final ThreadLocal<int[]> STACK =
+            ThreadLocal.withInitial(() -> new int[4 * (LinearQuadTree.MAX_DEPTH + 1)]);
+    
     /**
      * Create a new NBodyForce with default parameters.
      */
@@ -108,8 +105,6 @@ public class NBodyForce extends AbstractForce {
 		params = new float[] { gravConstant, minDistance, theta };
 		minValues = new float[] { DEFAULT_MIN_GRAV_CONSTANT, DEFAULT_MIN_DISTANCE, DEFAULT_MIN_THETA };
 		maxValues = new float[] { DEFAULT_MAX_GRAV_CONSTANT, DEFAULT_MAX_DISTANCE, DEFAULT_MAX_THETA };
-		root = factory.getQuadTreeNode();
-		rand = new Random(12345678L); // deterministic randomness
 	}
 
     /**
@@ -120,40 +115,26 @@ public class NBodyForce extends AbstractForce {
         return true;
     }
     
+    /**
+     * Returns true. The quadtree is only read by {@link #getForce(ForceItem)},
+     * which writes to the given item alone.
+     * @see Force#isThreadSafe()
+     */
+    @Override
+    public boolean isThreadSafe() {
+        return true;
+    }
+    
     @Override
     protected String[] getParameterNames() {
         return pnames;
     } 
     
-    /**
-     * Set the bounds of the region for which to compute the n-body simulation
-     * @param xMin the minimum x-coordinate
-     * @param yMin the minimum y-coordinate
-     * @param xMax the maximum x-coordinate
-     * @param yMax the maximum y-coordinate
-     */
-    private void setBounds(float xMin, float yMin, float xMax, float yMax) {
-        this.xMin = xMin;
-        this.yMin = yMin;
-        this.xMax = xMax;
-        this.yMax = yMax;
-    }
-
     /**
      * Clears the quadtree of all entries.
      */
 	public void clear() {
-		clearHelper(root);
-		root = factory.getQuadTreeNode();
-	}
-
-	private void clearHelper(QuadTreeNode n) {
-		for (int i = 0; i < n.children.length; i++) {
-			if (n.children[i] != null)
-				clearHelper(n.children[i]);
-		}
-		
-		factory.reclaim(n);
+		tree.nodeCount = 0;
 	}
 
 	/**
@@ -165,246 +146,87 @@ public class NBodyForce extends AbstractForce {
 	 */
     @Override
     public void init(ForceSimulator fsim) {
-        clear(); // clear internal state
-        
-        // compute and squarify bounds of quadtree
-        float x1 = Float.MAX_VALUE, y1 = Float.MAX_VALUE;
-        float x2 = Float.MIN_VALUE, y2 = Float.MIN_VALUE;
-        Iterator<ForceItem> itemIter = fsim.getItems();
-		
-        while (itemIter.hasNext()) {
-        	if (monitor.isCancelled())
-        		return;
-        	
-			ForceItem item = itemIter.next();
-			float x = item.location[0];
-            float y = item.location[1];
-			if (x < x1) x1 = x;
-			if (y < y1) y1 = y;
-			if (x > x2) x2 = x;
-			if (y > y2) y2 = y;
-        }
-		
-		float dx = x2 - x1, dy = y2 - y1;
-		
-		if (dx > dy)
-			y2 = y1 + dx;
-		else
-			x2 = x1 + dy;
-		
-		setBounds(x1, y1, x2, y2);
-		
-		// insert items into quadtree
-		itemIter = fsim.getItems();
-
-		while (itemIter.hasNext()) {
-			if (monitor.isCancelled())
-        		return;
-			
-			ForceItem item = itemIter.next();
-			insert(item);
-		}
-
-		// calculate magnitudes and centers of mass
-		calcMass(root, fsim);
-	}
-
-	/**
-     * Inserts an item into the quadtree.
-     * @param item the ForceItem to add.
-     * @throws IllegalStateException if the current location of the item is
-     *  outside the bounds of the quadtree
-     */
-    public void insert(ForceItem item) {
-        // insert item into the quadtrees
-        insert(item, root, xMin, yMin, xMax, yMax);
+        generation++;
+        tree.build(fsim, monitor);
     }
 
-	private void insert(ForceItem p, QuadTreeNode n, float x1, float y1, float x2, float y2) {
-        // try to insert particle p at node n in the quadtree
-        // by construction, each leaf will contain either 1 or 0 particles
-		if (n.hasChildren) {
-			// n contains more than 1 particle
-			insertHelper(p, n, x1, y1, x2, y2);
-		} else if (n.value != null) {
-			// n contains 1 particle
-			if (isSameLocation(n.value, p)) {
-				insertHelper(p, n, x1, y1, x2, y2);
-			} else {
-				ForceItem v = n.value;
-				n.value = null;
-				insertHelper(v, n, x1, y1, x2, y2);
-				insertHelper(p, n, x1, y1, x2, y2);
-			}
-		} else {
-			// n is empty, so is a leaf
-			n.value = p;
-		}
-	}
-
-	private static boolean isSameLocation(ForceItem f1, ForceItem f2) {
-		float dx = Math.abs(f1.location[0] - f2.location[0]);
-		float dy = Math.abs(f1.location[1] - f2.location[1]);
-		
-		return dx < 0.01 && dy < 0.01;
-	}
-    
-	private void insertHelper(ForceItem p, QuadTreeNode n, float x1, float y1, float x2, float y2) {
-		float x = p.location[0], y = p.location[1];
-		float splitx = (x1 + x2) / 2;
-		float splity = (y1 + y2) / 2;
-		int i = (x >= splitx ? 1 : 0) + (y >= splity ? 2 : 0);
-
-		// create new child node, if necessary
-		if (n.children[i] == null) {
-			n.children[i] = factory.getQuadTreeNode();
-			n.hasChildren = true;
-		}
-
-		// update bounds
-		if (i == 1 || i == 3)
-			x1 = splitx;
-		else
-			x2 = splitx;
-
-		if (i > 1)
-			y1 = splity;
-		else
-			y2 = splity;
-
-		// recurse
-		insert(p, n.children[i], x1, y1, x2, y2);
-	}
-
-	private void calcMass(QuadTreeNode n, ForceSimulator fsim) {
-		float xcom = 0, ycom = 0;
-		n.mass = 0;
-
-		if (n.hasChildren) {
-			for (int i = 0; i < n.children.length; i++) {
-				if (monitor.isCancelled())
-					return;
-
-				if (n.children[i] != null) {
-					calcMass(n.children[i], fsim);
-					n.mass += n.children[i].mass;
-					xcom += n.children[i].mass * n.children[i].com[0];
-					ycom += n.children[i].mass * n.children[i].com[1];
-				}
-			}
-		}
-
-		if (n.value != null) {
-			n.mass += n.value.mass;
-			xcom += n.value.mass * n.value.location[0];
-			ycom += n.value.mass * n.value.location[1];
-		}
-
-		n.com[0] = xcom / n.mass;
-		n.com[1] = ycom / n.mass;
-	}
-
     /**
      * Calculates the force vector acting on the given item.
      * @param item the ForceItem for which to compute the force
      */
     @Override
     public void getForce(ForceItem item) {
-		forceHelper(item, root, xMin, yMin, xMax, yMax);
-    }
-    
-	private void forceHelper(ForceItem item, QuadTreeNode n, float x1, float y1, float x2, float y2) {
-		float dx = n.com[0] - item.location[0];
-		float dy = n.com[1] - item.location[1];
-		float r = (float) Math.sqrt(dx * dx + dy * dy);
-		boolean same = false;
-        
-		if (r == 0.0f) {
-			// if items are in the exact same place, add some noise
-			dx = (rand.nextFloat() - 0.5f) / 50.0f;
-			dy = (rand.nextFloat() - 0.5f) / 50.0f;
-			r = (float) Math.sqrt(dx * dx + dy * dy);
-			same = true;
-		}
+		LinearQuadTree t = tree;
+		if (t.nodeCount == 0)
+			return;
 		
-        boolean minDist = params[MIN_DISTANCE]>0f && r>params[MIN_DISTANCE];
-        
-        // the Barnes-Hut approximation criteria is if the ratio of the size of the quadtree box
-        // to the distance between the point and the box's center of mass is beneath some threshold theta.
-		if ((!n.hasChildren && n.value != item) || (!same && (x2 - x1) / r < params[BARNES_HUT_THETA])) {
-			if (minDist)
-				return;
-			
-			// either only 1 particle or we meet criteria for Barnes-Hut approximation, so calc force
-			float v = params[GRAVITATIONAL_CONST] * item.mass * n.mass / (r * r * r);
-			item.force[0] += v * dx;
-			item.force[1] += v * dy;
-		} else if (n.hasChildren) {
-			// recurse for more accurate calculation
-			float splitx = (x1 + x2) / 2;
-			float splity = (y1 + y2) / 2;
+		SimulationState st = item.getState();
+		int self = item.getIndex();
+		int rank = t.rank[self];
+		float x = st.x[self], y = st.y[self], m = st.mass[self];
+		float g = params[GRAVITATIONAL_CONST] * m;
+		float minDistance = params[MIN_DISTANCE];
+		float theta = params[BARNES_HUT_THETA];
+		float cellSize = t.getCellSize(LinearQuadTree.MAX_DEPTH);
+		float fx = 0, fy = 0;
+		
+		int[] stack = STACK.get();
+		int sp = 0;
+		stack[sp++] = 0;
+		
+		while (sp > 0) {
+			int n = stack[--sp];
+			float mass = t.mass[n], cx = t.comX[n], cy = t.comY[n];
+			boolean leaf = t.leaf[n];
+			boolean own = leaf && t.first[n] <= rank && rank < t.last[n];
 			
-			for (int i = 0; i < n.children.length; i++) {
-				if (n.children[i] != null) {
-					forceHelper(item, n.children[i], (i == 1 || i == 3 ? splitx : x1), (i > 1 ? splity : y1),
-							(i == 1 || i == 3 ? x2 : splitx), (i > 1 ? y2 : splity));
-				}
+			if (own) {
+				// the leaf holding this item, which only shares it with items in the same deepest cell
+				float rest = mass - m;
+				if (t.last[n] - t.first[n] == 1 || rest <= 0f)
+					continue;
+				
+				cx = (mass * cx - m * x) / rest;
+				cy = (mass * cy - m * y) / rest;
+				mass = rest;
 			}
 			
-			if (minDist)
-				return;
+			float dx = cx - x;
+			float dy = cy - y;
+			float r = (float) Math.sqrt(dx * dx + dy * dy);
+			boolean same = false;
 			
-			if (n.value != null && n.value != item) {
-				float v = params[GRAVITATIONAL_CONST] * item.mass * n.value.mass / (r * r * r);
-				item.force[0] += v * dx;
-				item.force[1] += v * dy;
+			if (r == 0.0f || (own && r < cellSize)) {
+				// if items are in the (nearly) same place, add some noise
+				// keyed on the node's item range rather than its index, which depends on how the tree was built
+				long cell = (long) t.first[n] << 4 | t.level[n];
+				long key = ((long) self << 32) ^ ((long) generation << 48) ^ (cell * 0x9e3779b97f4a7c15L);
+				dx = jitter(key);
+				dy = jitter(~key);
+				r = (float) Math.sqrt(dx * dx + dy * dy);
+				same = true;
+			}
+			
+			// the Barnes-Hut approximation criteria is if the ratio of the size of the quadtree box
+			// to the distance between the point and the box's center of mass is beneath some threshold theta.
+			// Leaves only hold items from a single deepest cell, so they are always approximated.
+			if (leaf || (!same && t.getCellSize(t.level[n]) / r < theta)) {
+				if (minDistance > 0f && r > minDistance)
+					continue;
+				
+				float v = g * mass / (r * r * r);
+				fx += v * dx;
+				fy += v * dy;
+			} else {
+				// descend for a more accurate calculation
+				for (int q = 3; q >= 0; q--) {
+					int c = t.child[4 * n + q];
+					if (c != LinearQuadTree.NONE)
+						stack[sp++] = c;
+				}
 			}
 		}
-	}
-
-    /**
-	 * Represents a node in the quadtree.
-	 */
-	public static final class QuadTreeNode {
-
-		public QuadTreeNode() {
-			com = new float[] { 0.0f, 0.0f };
-			children = new QuadTreeNode[4];
-		}
-
-		boolean hasChildren = false;
-		float mass; // total mass held by this node
-		float[] com; // center of mass of this node
-		ForceItem value; // ForceItem in this node, null if node has children
-		QuadTreeNode[] children; // children nodes
-	}
-
-    /**
-     * Helper class to minimize number of object creations across multiple
-     * uses of the quadtree.
-     */
-    public static final class QuadTreeNodeFactory {
-
-		private int maxNodes = 50000;
-		private ArrayList<QuadTreeNode> nodes = new ArrayList<>();
-
-		public QuadTreeNode getQuadTreeNode() {
-			if (nodes.size() > 0)
-				return (QuadTreeNode) nodes.remove(nodes.size() - 1);
-			else
-				return new QuadTreeNode();
-		}
-
-		public void reclaim(QuadTreeNode n) {
-			n.mass = 0;
-			n.com[0] = 0.0f;
-			n.com[1] = 0.0f;
-			n.value = null;
-			n.hasChildren = false;
-			Arrays.fill(n.children, null);
-
-			if (nodes.size() < maxNodes)
-				nodes.add(n);
-		}
-	}
+		
+		item.addForce(fx, fy);
+    }
 }
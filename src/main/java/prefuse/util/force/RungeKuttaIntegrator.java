@@ -1,7 +1,5 @@
 package prefuse.util.force;
 
-import java.util.Iterator;
-
 /*
  * #%L
  * Cytoscape Prefuse Layout Impl (layout-prefuse-impl)
@@ -30,6 +28,8 @@ import java.util.Iterator;
  * Updates velocity and position data using the 4th-Order Runge-Kutta method.
  * It is slower but more accurate than other techniques such as Euler's Method.
  * The technique requires re-evaluating forces 4 times for a given timestep.
+ * An instance holds the arguments of the step it is running, so it must not
+ * be shared between simulators that run at the same time.
  *
  * @author <a href="http://jheer.org">jeffrey heer</a>
  */
@@ -37,143 +37,56 @@ public class RungeKuttaIntegrator implements Integrator {
     
 	private final StateMonitor monitor;
 	
+	// The arguments of the current step, kept here so that no loop body is allocated per step
+	private SimulationState st;
+	private long timestep;
+	private float speedLimit;
+	private final ForceSimulator.RangeTask start, stage1, stage2, finish;
+	
 	public RungeKuttaIntegrator(StateMonitor monitor) {
 		this.monitor = monitor;
+		start = (from, to) -> {
+			if (!monitor.isCancelled())
+				ForceKernels.INSTANCE.rungeKuttaStart(st, timestep, from, to);
+		};
+		stage1 = (from, to) -> {
+			if (!monitor.isCancelled())
+				ForceKernels.INSTANCE.rungeKuttaStage(st, timestep, 1, .5f, .5f, speedLimit, from, to);
+		};
+		stage2 = (from, to) -> {
+			if (!monitor.isCancelled())
+				ForceKernels.INSTANCE.rungeKuttaStage(st, timestep, 2, .5f, .5f, speedLimit, from, to);
+		};
+		finish = (from, to) -> {
+			if (!monitor.isCancelled())
+				ForceKernels.INSTANCE.rungeKuttaFinish(st, timestep, speedLimit, from, to);
+		};
 	}
 	
 	@Override
     public void integrate(ForceSimulator sim, long timestep) {
-        float speedLimit = sim.getSpeedLimit();
-        float vx, vy, v, coeff;
-        float[][] k, l;
+        this.speedLimit = sim.getSpeedLimit();
         
-		Iterator<ForceItem> iter = sim.getItems();
+		this.st = sim.getState();
+		this.timestep = timestep;
+		st.ensureRungeKuttaScratch();
+		int n = st.getItemCount();
 		
-		while (iter.hasNext()) {
-			if (monitor.isCancelled())
-				return;
-			
-			ForceItem item = iter.next();
-			coeff = timestep / item.mass;
-			k = item.k;
-			l = item.l;
-			item.plocation[0] = item.location[0];
-			item.plocation[1] = item.location[1];
-			k[0][0] = timestep * item.velocity[0];
-			k[0][1] = timestep * item.velocity[1];
-			l[0][0] = coeff * item.force[0];
-			l[0][1] = coeff * item.force[1];
-
-			// Set the position to the new predicted position
-			item.location[0] += 0.5f * k[0][0];
-			item.location[1] += 0.5f * k[0][1];
-		}
+		sim.forEachRange(n, start);
 
 		// recalculate forces
 		sim.accumulate();
 
-		iter = sim.getItems();
-
-		while (iter.hasNext()) {
-			if (monitor.isCancelled())
-				return;
-			
-			ForceItem item = iter.next();
-			coeff = timestep / item.mass;
-			k = item.k;
-			l = item.l;
-			vx = item.velocity[0] + .5f * l[0][0];
-			vy = item.velocity[1] + .5f * l[0][1];
-			v = (float) Math.sqrt(vx * vx + vy * vy);
-			
-			if (v > speedLimit) {
-				vx = speedLimit * vx / v;
-				vy = speedLimit * vy / v;
-			}
-			
-			k[1][0] = timestep * vx;
-			k[1][1] = timestep * vy;
-			l[1][0] = coeff * item.force[0];
-			l[1][1] = coeff * item.force[1];
-
-			// Set the position to the new predicted position
-			item.location[0] = item.plocation[0] + 0.5f * k[1][0];
-			item.location[1] = item.plocation[1] + 0.5f * k[1][1];
-		}
+		sim.forEachRange(n, stage1);
 
 		// recalculate forces
 		sim.accumulate();
 
-		iter = sim.getItems();
-
-		while (iter.hasNext()) {
-			if (monitor.isCancelled())
-				return;
-			
-			ForceItem item = iter.next();
-			coeff = timestep / item.mass;
-			k = item.k;
-			l = item.l;
-			vx = item.velocity[0] + .5f * l[1][0];
-			vy = item.velocity[1] + .5f * l[1][1];
-			v = (float) Math.sqrt(vx * vx + vy * vy);
-			
-			if (v > speedLimit) {
-				vx = speedLimit * vx / v;
-				vy = speedLimit * vy / v;
-			}
-			
-			k[2][0] = timestep * vx;
-			k[2][1] = timestep * vy;
-			l[2][0] = coeff * item.force[0];
-			l[2][1] = coeff * item.force[1];
-
-			// Set the position to the new predicted position
-			item.location[0] = item.plocation[0] + 0.5f * k[2][0];
-			item.location[1] = item.plocation[1] + 0.5f * k[2][1];
-		}
+		sim.forEachRange(n, stage2);
 
 		// recalculate forces
 		sim.accumulate();
 
-		iter = sim.getItems();
-		
-		while (iter.hasNext()) {
-			if (monitor.isCancelled())
-				return;
-			
-			ForceItem item = iter.next();
-			coeff = timestep / item.mass;
-			k = item.k;
-			l = item.l;
-			float[] p = item.plocation;
-			vx = item.velocity[0] + l[2][0];
-			vy = item.velocity[1] + l[2][1];
-			v = (float) Math.sqrt(vx * vx + vy * vy);
-			
-			if (v > speedLimit) {
-				vx = speedLimit * vx / v;
-				vy = speedLimit * vy / v;
-			}
-			
-			k[3][0] = timestep * vx;
-			k[3][1] = timestep * vy;
-			l[3][0] = coeff * item.force[0];
-			l[3][1] = coeff * item.force[1];
-			item.location[0] = p[0] + (k[0][0] + k[3][0]) / 6.0f + (k[1][0] + k[2][0]) / 3.0f;
-			item.location[1] = p[1] + (k[0][1] + k[3][1]) / 6.0f + (k[1][1] + k[2][1]) / 3.0f;
-
-			vx = (l[0][0] + l[3][0]) / 6.0f + (l[1][0] + l[2][0]) / 3.0f;
-			vy = (l[0][1] + l[3][1]) / 6.0f + (l[1][1] + l[2][1]) / 3.0f;
-			v = (float) Math.sqrt(vx * vx + vy * vy);
-			
-			if (v > speedLimit) {
-				vx = speedLimit * vx / v;
-				vy = speedLimit * vy / v;
-			}
-			
-			item.velocity[0] += vx;
-			item.velocity[1] += vy;
-		}
+		sim.forEachRange(n, finish);
 	}
 }
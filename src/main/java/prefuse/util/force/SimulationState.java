@@ -0,0 +1,371 @@
+package prefuse.util.force;
+
+import java.util.Arrays;
+
+/*
+ * #%L
+ * Cytoscape Prefuse Layout Impl (layout-prefuse-impl)
+ * $Id:$
+ * $HeadURL:$
+ * %%
+ * Copyright (C) 2006 - 2021 The Cytoscape Consortium
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+
+/**
+ * Packed structure-of-arrays storage for the state of a force simulation.
+ * Every item occupies one slot in each of the item columns, and every spring
+ * one slot in each of the spring columns. {@link ForceItem} and {@link Spring}
+ * instances are thin views onto a slot of this state.
+ * <p>
+ * The columns are only valid up to {@link #getItemCount()} and
+ * {@link #getSpringCount()}. Integrator scratch space is not allocated
+ * until an integrator asks for it.
+ */
+public final class SimulationState {
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    /** Number of Runge-Kutta stages stored in the scratch columns. */
+    public static final int RK_STAGES = 4;
+
+    private int itemCount;
+    private int springCount;
+    private int topologyVersion;
+
+    /** Item locations */
+    public float[] x, y;
+    /** Item velocities */
+    public float[] vx, vy;
+    /** Forces accumulated on the items */
+    public float[] fx, fy;
+    /** Item masses */
+    public float[] mass;
+    /** Previous item locations, null until {@link #ensurePreviousLocation()} is called */
+    public float[] px, py;
+    /** Runge-Kutta scratch, indexed [stage][item], null until {@link #ensureRungeKuttaScratch()} is called */
+    public float[][] kx, ky, lx, ly;
+
+    /** Index of the first endpoint of each spring */
+    public int[] source;
+    /** Index of the second endpoint of each spring */
+    public int[] target;
+    /** Spring tension co-efficients, negative to use the force default */
+    public float[] coeff;
+    /** Spring resting lengths, negative to use the force default */
+    public float[] length;
+
+    private ForceItem[] items;
+    private Spring[] springs;
+
+    /**
+     * Create an empty state with a small default capacity.
+     */
+    public SimulationState() {
+        this(DEFAULT_CAPACITY, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Create an empty state, pre-allocating room for the given number of
+     * items and springs.
+     * @param itemCapacity the expected number of items
+     * @param springCapacity the expected number of springs
+     */
+    public SimulationState(int itemCapacity, int springCapacity) {
+        itemCapacity = Math.max(1, itemCapacity);
+        springCapacity = Math.max(1, springCapacity);
+        x = new float[itemCapacity];
+        y = new float[itemCapacity];
+        vx = new float[itemCapacity];
+        vy = new float[itemCapacity];
+        fx = new float[itemCapacity];
+        fy = new float[itemCapacity];
+        mass = new float[itemCapacity];
+        items = new ForceItem[itemCapacity];
+        source = new int[springCapacity];
+        target = new int[springCapacity];
+        coeff = new float[springCapacity];
+        length = new float[springCapacity];
+        springs = new Spring[springCapacity];
+    }
+
+    /**
+     * Get the number of items in this state.
+     */
+    public int getItemCount() {
+        return itemCount;
+    }
+
+    /**
+     * Get the number of springs in this state.
+     */
+    public int getSpringCount() {
+        return springCount;
+    }
+
+    /**
+     * Get a counter that changes whenever springs are added or removed,
+     * or items are moved to a different slot.
+     */
+    public int getTopologyVersion() {
+        return topologyVersion;
+    }
+
+    /**
+     * Get the view of the item stored at the given index.
+     */
+    public ForceItem getItem(int index) {
+        return items[index];
+    }
+
+    /**
+     * Get the view of the spring stored at the given index.
+     */
+    public Spring getSpring(int index) {
+        return springs[index];
+    }
+
+    /**
+     * Add a new item to this state.
+     * @param x the initial x-coordinate
+     * @param y the initial y-coordinate
+     * @param mass the mass of the item
+     * @return the view of the new item
+     */
+    public ForceItem addItem(float x, float y, float mass) {
+        int i = allocateItem();
+        this.x[i] = x;
+        this.y[i] = y;
+        this.mass[i] = mass;
+        ForceItem item = new ForceItem(this, i);
+        items[i] = item;
+        return item;
+    }
+
+    /**
+     * Move an existing or standalone item into this state, keeping the identity
+     * of the view. All values of the item are copied into a new slot of this state.
+     */
+    void adopt(ForceItem item) {
+        SimulationState old = item.state;
+        int j = item.index;
+        int i = allocateItem();
+        if (old == null) {
+            float[] v = item.values;
+            x[i] = v[ForceItem.X];
+            y[i] = v[ForceItem.Y];
+            vx[i] = v[ForceItem.VX];
+            vy[i] = v[ForceItem.VY];
+            fx[i] = v[ForceItem.FX];
+            fy[i] = v[ForceItem.FY];
+            mass[i] = v[ForceItem.MASS];
+            if (px != null) {
+                px[i] = x[i];
+                py[i] = y[i];
+            }
+        } else {
+            x[i] = old.x[j];
+            y[i] = old.y[j];
+            vx[i] = old.vx[j];
+            vy[i] = old.vy[j];
+            fx[i] = old.fx[j];
+            fy[i] = old.fy[j];
+            mass[i] = old.mass[j];
+            if (old.px != null) {
+                ensurePreviousLocation();
+                px[i] = old.px[j];
+                py[i] = old.py[j];
+            }
+        }
+        item.state = this;
+        item.index = i;
+        item.values = null;
+        items[i] = item;
+    }
+
+    private int allocateItem() {
+        if (itemCount == x.length) {
+            int cap = x.length + (x.length >> 1) + 1;
+            x = Arrays.copyOf(x, cap);
+            y = Arrays.copyOf(y, cap);
+            vx = Arrays.copyOf(vx, cap);
+            vy = Arrays.copyOf(vy, cap);
+            fx = Arrays.copyOf(fx, cap);
+            fy = Arrays.copyOf(fy, cap);
+            mass = Arrays.copyOf(mass, cap);
+            items = Arrays.copyOf(items, cap);
+            if (px != null) {
+                px = Arrays.copyOf(px, cap);
+                py = Arrays.copyOf(py, cap);
+            }
+            if (kx != null) {
+                for (int s = 0; s < RK_STAGES; s++) {
+                    kx[s] = Arrays.copyOf(kx[s], cap);
+                    ky[s] = Arrays.copyOf(ky[s], cap);
+                    lx[s] = Arrays.copyOf(lx[s], cap);
+                    ly[s] = Arrays.copyOf(ly[s], cap);
+                }
+            }
+        }
+        int i = itemCount++;
+        x[i] = y[i] = 0;
+        vx[i] = vy[i] = 0;
+        fx[i] = fy[i] = 0;
+        return i;
+    }
+
+    /**
+     * Remove an item from this state. The last item is moved into the freed
+     * slot, and any springs attached to the removed item are removed as well.
+     * The removed view becomes a standalone item that keeps its values.
+     * @return true if the item was part of this state
+     */
+    public boolean removeItem(ForceItem item) {
+        if (item == null || item.state != this)
+            return false;
+        int i = item.index;
+
+        // Remove attached springs, iterating backwards since springs are swapped in from the end
+        for (int s = springCount - 1; s >= 0; s--) {
+            if (source[s] == i || target[s] == i)
+                removeSpring(s);
+        }
+
+        // Detach the removed view so it keeps its values
+        item.detach();
+
+        int last = itemCount - 1;
+        if (i != last) {
+            moveItem(last, i);
+            for (int s = 0; s < springCount; s++) {
+                if (source[s] == last) source[s] = i;
+                if (target[s] == last) target[s] = i;
+            }
+        }
+        items[last] = null;
+        itemCount--;
+        topologyVersion++;
+        return true;
+    }
+
+    private void moveItem(int from, int to) {
+        x[to] = x[from];
+        y[to] = y[from];
+        vx[to] = vx[from];
+        vy[to] = vy[from];
+        fx[to] = fx[from];
+        fy[to] = fy[from];
+        mass[to] = mass[from];
+        if (px != null) {
+            px[to] = px[from];
+            py[to] = py[from];
+        }
+        if (kx != null) {
+            for (int s = 0; s < RK_STAGES; s++) {
+                kx[s][to] = kx[s][from];
+                ky[s][to] = ky[s][from];
+                lx[s][to] = lx[s][from];
+                ly[s][to] = ly[s][from];
+            }
+        }
+        items[to] = items[from];
+        items[to].index = to;
+    }
+
+    /**
+     * Add a new spring between two items of this state.
+     * @param item1 the first endpoint of the spring
+     * @param item2 the second endpoint of the spring
+     * @param coeff the spring coefficient, negative to use the default
+     * @param length the spring length, negative to use the default
+     * @return the view of the new spring
+     */
+    public Spring addSpring(ForceItem item1, ForceItem item2, float coeff, float length) {
+        if (item1.state != this || item2.state != this)
+            throw new IllegalArgumentException("ForceItems must belong to this simulation state");
+        if (springCount == source.length) {
+            int cap = source.length + (source.length >> 1) + 1;
+            source = Arrays.copyOf(source, cap);
+            target = Arrays.copyOf(target, cap);
+            this.coeff = Arrays.copyOf(this.coeff, cap);
+            this.length = Arrays.copyOf(this.length, cap);
+            springs = Arrays.copyOf(springs, cap);
+        }
+        int s = springCount++;
+        topologyVersion++;
+        source[s] = item1.index;
+        target[s] = item2.index;
+        this.coeff[s] = coeff;
+        this.length[s] = length;
+        Spring spring = new Spring(this, s);
+        springs[s] = spring;
+        return spring;
+    }
+
+    private void removeSpring(int s) {
+        int last = springCount - 1;
+        springs[s].index = -1;
+        if (s != last) {
+            source[s] = source[last];
+            target[s] = target[last];
+            coeff[s] = coeff[last];
+            length[s] = length[last];
+            springs[s] = springs[last];
+            springs[s].index = s;
+        }
+        springs[last] = null;
+        springCount--;
+        topologyVersion++;
+    }
+
+    /**
+     * Allocate the previous location columns, if not already allocated.
+     */
+    public void ensurePreviousLocation() {
+        if (px == null) {
+            px = new float[x.length];
+            py = new float[x.length];
+        }
+    }
+
+    /**
+     * Allocate the Runge-Kutta scratch columns and the previous location
+     * columns, if not already allocated.
+     */
+    public void ensureRungeKuttaScratch() {
+        ensurePreviousLocation();
+        if (kx == null) {
+            kx = new float[RK_STAGES][x.length];
+            ky = new float[RK_STAGES][x.length];
+            lx = new float[RK_STAGES][x.length];
+            ly = new float[RK_STAGES][x.length];
+        }
+    }
+
+    /**
+     * Remove all items and springs from this state. Existing views
+     * are no longer valid after this call.
+     */
+    public void clear() {
+        Arrays.fill(items, 0, itemCount, null);
+        Arrays.fill(springs, 0, springCount, null);
+        itemCount = 0;
+        springCount = 0;
+        topologyVersion++;
+    }
+
+}
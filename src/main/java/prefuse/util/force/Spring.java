@@ -25,81 +25,66 @@ package prefuse.util.force;
  */
 
 
-import java.util.ArrayList;
-
 /**
- * Represents a spring in a force simulation.
+ * Represents a spring in a force simulation. The endpoints, tension and
+ * length are stored in a packed {@link SimulationState}; a Spring is only
+ * a view onto one slot of it.
  *
  * @author <a href="http://jheer.org">jeffrey heer</a>
  */
 public class Spring {
-    private static SpringFactory s_factory = new SpringFactory();
-    
+
+    /** The state holding the values of this Spring. */
+    final SimulationState state;
+    /** The slot of this Spring within the state, -1 once removed. */
+    int index;
+
     /**
-     * Retrieve the SpringFactory instance, which serves as an object pool
-     * for Spring instances.
-     * @return the Spring Factory
+     * Create a view onto an existing spring slot of a simulation state.
      */
-    public static SpringFactory getFactory() {
-        return s_factory;
+    Spring(SimulationState state, int index) {
+        this.state = state;
+        this.index = index;
     }
-    
-    /**
-     * Create a new Spring instance
-     * @param fi1 the first ForceItem endpoint
-     * @param fi2 the second ForceItem endpoint
-     * @param k the spring tension co-efficient
-     * @param len the spring's resting length
-     */
-    public Spring(ForceItem fi1, ForceItem fi2, float k, float len) {
-        item1 = fi1;
-        item2 = fi2;
-        coeff = k;
-        length = len;
+
+    /** Returns the simulation state holding the values of this Spring. */
+    public SimulationState getState() {
+        return state;
+    }
+
+    /** Returns the slot of this Spring within its simulation state. */
+    public int getIndex() {
+        return index;
+    }
+
+    /** Returns the first ForceItem endpoint */
+    public ForceItem getItem1() {
+        return state.getItem(state.source[index]);
+    }
+
+    /** Returns the second ForceItem endpoint */
+    public ForceItem getItem2() {
+        return state.getItem(state.target[index]);
+    }
+
+    /** Returns the spring's resting length */
+    public float getLength() {
+        return state.length[index];
+    }
+
+    /** Sets the spring's resting length */
+    public void setLength(float length) {
+        state.length[index] = length;
+    }
+
+    /** Returns the spring tension co-efficient */
+    public float getCoeff() {
+        return state.coeff[index];
+    }
+
+    /** Sets the spring tension co-efficient */
+    public void setCoeff(float coeff) {
+        state.coeff[index] = coeff;
     }
-    
-    /** The first ForceItem endpoint */
-    public ForceItem item1;
-    /** The second ForceItem endpoint */
-    public ForceItem item2;
-    /** The spring's resting length */
-    public float length;
-    /** The spring tension co-efficient */
-    public float coeff;
-    
-    /**
-     * The SpringFactory is responsible for generating Spring instances
-     * and maintaining an object pool of Springs to reduce garbage collection
-     * overheads while force simulations are running.
-     */
-    public static final class SpringFactory {
-        private int maxSprings = 10000;
-        private ArrayList springs = new ArrayList();
-        
-        /**
-         * Get a Spring instance and set it to the given parameters.
-         */
-        public Spring getSpring(ForceItem f1, ForceItem f2, float k, float length) {
-            if ( springs.size() > 0 ) {
-                Spring s = (Spring)springs.remove(springs.size()-1);
-                s.item1 = f1;
-                s.item2 = f2;
-                s.coeff = k;
-                s.length = length;
-                return s;
-            } else {
-                return new Spring(f1,f2,k,length);
-            }
-        }
-        /**
-         * Reclaim a Spring into the object pool.
-         */
-        public void reclaim(Spring s) {
-            s.item1 = null;
-            s.item2 = null;
-            if ( springs.size() < maxSprings )
-                springs.add(s);
-        }
-    } // end of inner class SpringFactory
 
 } // end of class Spring
@@ -0,0 +1,86 @@
+package prefuse.util.force;
+
+/*
+ * #%L
+ * Cytoscape Prefuse Layout Impl (layout-prefuse-impl)
+ * $Id:$
+ * $HeadURL:$
+ * %%
+ * Copyright (C) 2006 - 2021 The Cytoscape Consortium
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+
+/**
+ * Groups the springs of a {@link SimulationState} into batches in which no
+ * two springs share an endpoint, using a greedy edge colouring. The springs
+ * of one batch can therefore write to their endpoints concurrently.
+ * Springs that do not fit in any of the colours (e.g. around very high
+ * degree hubs) are left in a final batch that must run on a single thread.
+ */
+final class SpringBatches {
+
+    /** Maximum number of conflict-free batches */
+    static final int MAX_COLOURS = 64;
+
+    /** Topology version of the state this colouring was computed for */
+    final int version;
+    /** Spring indices, grouped by batch */
+    final int[] order;
+    /** Batch b spans order[start[b]] to order[start[b+1]-1]; the last batch is serial */
+    final int[] start;
+
+    SpringBatches(SimulationState st) {
+        version = st.getTopologyVersion();
+        int m = st.getSpringCount();
+        int[] source = st.source, target = st.target;
+        long[] used = new long[st.getItemCount()];
+        int[] colour = new int[m];
+        int[] count = new int[MAX_COLOURS + 1];
+
+        for (int s = 0; s < m; s++) {
+            int a = source[s], b = target[s];
+            long taken = used[a] | used[b];
+            int c = taken == -1L ? MAX_COLOURS : Long.numberOfTrailingZeros(~taken);
+            if (c < MAX_COLOURS) {
+                used[a] |= 1L << c;
+                used[b] |= 1L << c;
+            }
+            colour[s] = c;
+            count[c]++;
+        }
+
+        // Counting sort of the springs by colour, keeping their original order within a batch
+        start = new int[MAX_COLOURS + 2];
+        for (int c = 0; c <= MAX_COLOURS; c++)
+            start[c + 1] = start[c] + count[c];
+        int[] next = new int[MAX_COLOURS + 1];
+        System.arraycopy(start, 0, next, 0, MAX_COLOURS + 1);
+        order = new int[m];
+        for (int s = 0; s < m; s++)
+            order[next[colour[s]]++] = s;
+    }
+
+    /** Returns the number of conflict-free batches, excluding the serial one */
+    int getBatchCount() {
+        return MAX_COLOURS;
+    }
+
+    /** Returns the start of the serial batch within {@link #order} */
+    int getSerialStart() {
+        return start[MAX_COLOURS];
+    }
+}
@@ -24,7 +24,6 @@ package prefuse.util.force;
  * #L%
  */
 
-import java.util.Random;
 
 /**
  * Force function that computes the force acting on ForceItems due to a
@@ -37,8 +36,6 @@ public class SpringForce extends AbstractForce {
     private static String[] pnames 
         = new String[] { "SpringCoefficient", "DefaultSpringLength" };
 
-    private Random rand = null; // deterministic randomness
-    
     public static final float DEFAULT_SPRING_COEFF = 1E-4f;
     public static final float DEFAULT_MAX_SPRING_COEFF = 1E-3f;
     public static final float DEFAULT_MIN_SPRING_COEFF = 1E-5f;
@@ -61,7 +58,6 @@ public class SpringForce extends AbstractForce {
             { DEFAULT_MIN_SPRING_COEFF, DEFAULT_MIN_SPRING_LENGTH };
         maxValues = new float[] 
             { DEFAULT_MAX_SPRING_COEFF, DEFAULT_MAX_SPRING_LENGTH };
-    		rand = new Random(12345678L); // deterministic randomness
     }
     
     /**
@@ -78,6 +74,22 @@ public class SpringForce extends AbstractForce {
     public boolean isSpringForce() {
         return true;
     }
+
+    /**
+     * Returns true.
+     * @see prefuse.util.force.Force#isThreadSafe()
+     */
+    public boolean isThreadSafe() {
+        return true;
+    }
+
+    /**
+     * Returns true.
+     * @see prefuse.util.force.Force#isBulkForce()
+     */
+    public boolean isBulkForce() {
+        return true;
+    }
     
     /**
      * @see prefuse.util.force.AbstractForce#getParameterNames()
@@ -92,24 +104,14 @@ public class SpringForce extends AbstractForce {
      * @see prefuse.util.force.Force#getForce(prefuse.util.force.Spring)
      */
     public void getForce(Spring s) {
-        ForceItem item1 = s.item1;
-        ForceItem item2 = s.item2;
-        float length = (s.length < 0 ? params[SPRING_LENGTH] : s.length);
-        float x1 = item1.location[0], y1 = item1.location[1];
-        float x2 = item2.location[0], y2 = item2.location[1];
-        float dx = x2-x1, dy = y2-y1;
-        float r  = (float)Math.sqrt(dx*dx+dy*dy);
-        if ( r == 0.0 ) {
-            dx = (rand.nextFloat()-0.5f) / 50.0f;
-            dy = (rand.nextFloat()-0.5f) / 50.0f;
-            r  = (float)Math.sqrt(dx*dx+dy*dy);
-        }
-        float d  = r-length;
-        float coeff = (s.coeff < 0 ? params[SPRING_COEFF] : s.coeff)*d/r;
-        item1.force[0] += coeff*dx;
-        item1.force[1] += coeff*dy;
-        item2.force[0] += -coeff*dx;
-        item2.force[1] += -coeff*dy;
+        ForceKernels.spring(s.state, s.index, params[SPRING_COEFF], params[SPRING_LENGTH]);
+    }
+
+    /**
+     * @see prefuse.util.force.Force#getSpringForces(prefuse.util.force.SimulationState, int[], int, int)
+     */
+    public void getSpringForces(SimulationState state, int[] springs, int from, int to) {
+        ForceKernels.INSTANCE.springs(state, springs, from, to, params[SPRING_COEFF], params[SPRING_LENGTH]);
     }
     
 } // end of class SpringForce
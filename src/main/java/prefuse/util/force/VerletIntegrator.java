@@ -0,0 +1,92 @@
+package prefuse.util.force;
+
+/*
+ * #%L
+ * Cytoscape Prefuse Layout Impl (layout-prefuse-impl)
+ * $Id:$
+ * $HeadURL:$
+ * %%
+ * Copyright (C) 2006 - 2021 The Cytoscape Consortium
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+
+/**
+ * <p>Updates velocity and position data using the velocity Verlet method,
+ * in its leapfrog form. Like Euler's method it needs only one force
+ * evaluation per step, but being symplectic it does not pump energy into
+ * stiff springs, so it stays stable at much larger timesteps.</p>
+ *
+ * <p>The forces of each step are used twice: to finish the velocity update
+ * of the previous step, and to start the one of the current step. The
+ * velocities stored in between are the half-step velocities. An optional
+ * damping removes a fraction of the velocity every step, on top of any
+ * {@link DragForce}.</p>
+ *
+ * <p>Each instance remembers the previous timestep, so an integrator must
+ * not be shared between simulators.</p>
+ *
+ * @see RungeKuttaIntegrator
+ * @see EulerIntegrator
+ */
+public class VerletIntegrator implements Integrator {
+
+	public static final float DEFAULT_DAMPING = 0.1f;
+
+	private final StateMonitor monitor;
+	private final float damping;
+	private long lastTimestep;
+
+	// The arguments of the current step, kept here so that no loop body is allocated per step
+	private SimulationState st;
+	private long timestep;
+	private float closing, opening, keep, speedLimit;
+	private final ForceSimulator.RangeTask step;
+
+	public VerletIntegrator(StateMonitor monitor) {
+		this(DEFAULT_DAMPING, monitor);
+	}
+
+	/**
+	 * @param damping the fraction of the velocity removed every step, from 0 to 1
+	 * @param monitor
+	 */
+	public VerletIntegrator(float damping, StateMonitor monitor) {
+		if (!(damping >= 0 && damping < 1))
+			throw new IllegalArgumentException("Damping must be at least 0 and less than 1");
+		this.damping = damping;
+		this.monitor = monitor;
+		step = (from, to) -> {
+			if (!monitor.isCancelled())
+				ForceKernels.INSTANCE.verlet(st, timestep, closing, opening, keep, speedLimit, from, to);
+		};
+	}
+
+	@Override
+	public void integrate(ForceSimulator sim, long timestep) {
+		this.speedLimit = sim.getSpeedLimit();
+		this.st = sim.getState();
+		this.timestep = timestep;
+
+		// the second half of the previous step's kick, and the first half of this one
+		closing = 0.5f * lastTimestep;
+		opening = 0.5f * timestep;
+		keep = 1 - damping;
+
+		sim.forEachRange(st.getItemCount(), step);
+		lastTimestep = timestep;
+	}
+}
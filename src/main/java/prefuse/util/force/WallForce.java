@@ -99,15 +99,15 @@ public class WallForce extends AbstractForce {
      * @see prefuse.util.force.Force#getForce(prefuse.util.force.ForceItem)
      */
     public void getForce(ForceItem item) {
-        float[] n = item.location;
+        float[] n = { item.getX(), item.getY() };
         int ccw = Line2D.relativeCCW(x1,y1,x2,y2,n[0],n[1]);
         float r = (float)Line2D.ptSegDist(x1,y1,x2,y2,n[0],n[1]);
         if ( r == 0.0 ) r = (float)Math.random() / 100.0f;
-        float v = params[GRAVITATIONAL_CONST]*item.mass / (r*r*r);
+        float v = params[GRAVITATIONAL_CONST]*item.getMass() / (r*r*r);
         if ( n[0] >= Math.min(x1,x2) && n[0] <= Math.max(x1,x2) )
-            item.force[1] += ccw*v*dx;
+            item.addForce(0, ccw*v*dx);
         if ( n[1] >= Math.min(y1,y2) && n[1] <= Math.max(y1,y2) )
-            item.force[0] += -1*ccw*v*dy;
+            item.addForce(-1*ccw*v*dy, 0);
     }
 
 } // end of class WallForce
@@ -0,0 +1,88 @@
+package ca.usask.vga.layout.magnetic.force;
+
+import ca.usask.vga.layout.magnetic.util.PoleClassifier;
+import ca.usask.vga.layout.magnetic.util.PoleClassifiers;
+import prefuse.util.force.*;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+/**
+ * Measures the bytes allocated by single-threaded simulation steps, to check that
+ * the simulator, the integrators and the layout forces run without allocating.
+ * This is a plain program, not a unit test. Run it with the test classpath, e.g.
+ * <pre>
+ * java -cp target/classes:target/test-classes ca.usask.vga.layout.magnetic.force.ForceAllocationCheck [items] [steps]
+ * </pre>
+ * It exits with status 1 if any integrator allocates in every round of measured steps.
+ * <p>
+ * The forces are those of the magnetic layout, including the pole forces with a
+ * compiled pole classifier. This is not run by the build.
+ */
+public class ForceAllocationCheck {
+
+    private static final int WARMUP_STEPS = 300;
+    private static final int ROUNDS = 3;
+
+    public static void main(String[] args) {
+        int items = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        int steps = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        boolean allocates = false;
+
+        StateMonitor monitor = new StateMonitor();
+        Integrator[] integrators = { new EulerIntegrator(monitor), new RungeKuttaIntegrator(monitor),
+                new VerletIntegrator(monitor) };
+        for (Integrator integrator : integrators) {
+            ForceSimulator sim = newSimulation(items, integrator, monitor);
+            for (int i = 0; i < WARMUP_STEPS; i++)
+                sim.runSimulator(100L);
+
+            // the smallest round, leaving out the objects a late deoptimization may materialize once
+            long perStep = Long.MAX_VALUE;
+            for (int round = 0; round < ROUNDS; round++) {
+                long before = threads.getThreadAllocatedBytes(thread);
+                for (int i = 0; i < steps; i++)
+                    sim.runSimulator(100L);
+                perStep = Math.min(perStep, (threads.getThreadAllocatedBytes(thread) - before) / steps);
+            }
+
+            System.out.println(integrator.getClass().getSimpleName() + ": " + perStep + " B per step");
+            allocates |= perStep > 0;
+        }
+        System.exit(allocates ? 1 : 0);
+    }
+
+    /**
+     * Builds a random network with the forces of the magnetic layout, both without
+     * poles and with a few poles given by a compiled pole classifier.
+     */
+    private static ForceSimulator newSimulation(int items, Integrator integrator, StateMonitor monitor) {
+        Random random = new Random(42);
+        SimulationState state = new SimulationState(items, 2 * items);
+        ForceSimulator sim = new ForceSimulator(state, integrator, monitor);
+
+        ForceItem[] item = new ForceItem[items];
+        for (int i = 0; i < items; i++)
+            item[i] = state.addItem(random.nextFloat() * 1000, random.nextFloat() * 1000, 1);
+        for (int i = 1; i < items; i++) {
+            sim.addSpring(item[i], item[random.nextInt(i)], 1e-4f, 80);
+            if (i % 2 == 0)
+                sim.addSpring(item[i], item[random.nextInt(i)], 1e-4f, 80);
+        }
+
+        sim.addForce(new NBodyForce(monitor));
+        sim.addForce(new SpringForce());
+        sim.addForce(new DragForce());
+        sim.addForce(new MagneticForce(FieldType.VERTICAL, 1e-4f, 1, 1));
+
+        PoleClassifier classifier = PoleClassifiers.byHopDistance(state, 0, items / 3, 2 * items / 3);
+        sim.addForce(new MagneticForce(classifier, 1e-4f, 1, 1));
+        sim.addForce(new HierarchyForce(classifier, HierarchyForce.Type.BASED_ON_HOP_DISTANCE, 1e-3f, 50));
+        sim.addForce(new PoleGravityForce(classifier, 0.1f));
+        sim.addForce(new PinForce(classifier));
+        return sim;
+    }
+}
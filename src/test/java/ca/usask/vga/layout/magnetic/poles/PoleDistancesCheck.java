@@ -0,0 +1,266 @@
+package ca.usask.vga.layout.magnetic.poles;
+
+import org.cytoscape.model.CyEdge;
+import org.cytoscape.model.CyNetwork;
+import org.cytoscape.model.CyNode;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.*;
+
+/**
+ * Checks that {@link PoleDistances} stays equal to a fresh computation while nodes, edges and poles
+ * of a small network are added and removed at random. After every edit, the closest poles, the
+ * distances and the class of every node are compared with those of a new {@link PoleDistances}
+ * of a new {@link NetworkAdjacency}. The distances from individual poles are kept within a tiny
+ * budget, so that they are evicted and computed again as they are asked for.
+ * <p>
+ * This is a plain program, not a unit test. Run it with the test classpath, e.g.
+ * <pre>
+ * java -cp target/classes:target/test-classes ca.usask.vga.layout.magnetic.poles.PoleDistancesCheck [edits] [seed]
+ * </pre>
+ * It exits with status 1 at the first edit after which the two disagree.
+ */
+public class PoleDistancesCheck {
+
+    private static final int NODES = 40, EDGES = 70, POLES = 4;
+
+    public static void main(String[] args) {
+        int edits = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : 1;
+        Random random = new Random(seed);
+
+        Network net = new Network();
+        for (int i = 0; i < NODES; i++)
+            net.addNode();
+        for (int i = 0; i < EDGES; i++)
+            net.addEdge(net.randomNode(random), net.randomNode(random), random.nextInt(10) > 0);
+        List<CyNode> poles = new ArrayList<>();
+        Set<CyNode> outwards = new HashSet<>();
+        while (poles.size() < POLES) {
+            CyNode node = net.randomNode(random);
+            if (poles.contains(node))
+                continue;
+            poles.add(node);
+            if (random.nextBoolean())
+                outwards.add(node);
+        }
+        List<CyNode> removed = new ArrayList<>();
+
+        // A budget of a single node keeps the distances of one pole at a time
+        PoleDistances distances = new PoleDistances(new NetworkAdjacency(net.network), poles, outwards::contains, 1);
+        for (int edit = 0; edit < edits; edit++) {
+            String change = edit(distances, net, poles, outwards, removed, random);
+            String difference = compare(distances, net, poles, outwards, removed);
+            if (difference != null) {
+                System.out.println("After edit " + edit + " (" + change + "): " + difference);
+                System.exit(1);
+            }
+        }
+        System.out.println(edits + " edits, no differences");
+    }
+
+    /**
+     * Makes a random change to the network or the poles, and passes it on as the pole manager would.
+     * @return a description of the change
+     */
+    private static String edit(PoleDistances distances, Network net, List<CyNode> poles, Set<CyNode> outwards,
+                               List<CyNode> removed, Random random) {
+        int count = 1 + random.nextInt(3);
+        switch (random.nextInt(10)) {
+            case 0: case 1: {
+                List<CyNode> nodes = new ArrayList<>();
+                for (int i = 0; i < count; i++)
+                    nodes.add(net.addNode());
+                distances.addNodes(nodes);
+                return "add " + nodes;
+            }
+            case 2: {
+                if (net.nodes.size() < NODES / 2)
+                    return "none";
+                Set<CyNode> nodes = new LinkedHashSet<>();
+                for (int i = 0; i < count; i++)
+                    nodes.add(net.randomNode(random));
+                // The pole manager hears of the removal before the network makes it
+                distances.removeNodes(net.network, nodes);
+                for (CyNode node : nodes)
+                    net.removeNode(node);
+                removed.addAll(nodes);
+                return "remove " + nodes;
+            }
+            case 3: case 4: case 5: {
+                List<CyEdge> edges = new ArrayList<>();
+                for (int i = 0; i < count; i++) {
+                    // An edge may also bring a node that was not announced on its own
+                    CyNode source = random.nextInt(8) == 0 ? net.addNode() : net.randomNode(random);
+                    edges.add(net.addEdge(source, net.randomNode(random), random.nextInt(10) > 0));
+                }
+                distances.addEdges(edges);
+                return "add " + edges;
+            }
+            case 6: case 7: {
+                if (net.edges.isEmpty())
+                    return "none";
+                Set<CyEdge> edges = new LinkedHashSet<>();
+                for (int i = 0; i < count; i++)
+                    edges.add(net.edges.get(random.nextInt(net.edges.size())));
+                distances.removeEdges(edges);
+                for (CyEdge edge : edges)
+                    net.removeEdge(edge);
+                return "remove " + edges;
+            }
+            default: {
+                String change;
+                CyNode node = net.randomNode(random);
+                int kind = random.nextInt(4);
+                if (kind == 0 && !poles.contains(node)) {
+                    poles.add(random.nextInt(poles.size() + 1), node);
+                    change = "add pole " + node;
+                } else if (kind == 1 && !poles.isEmpty()) {
+                    change = "remove pole " + poles.remove(random.nextInt(poles.size()));
+                } else if (kind == 2 && !poles.isEmpty()) {
+                    CyNode pole = poles.get(random.nextInt(poles.size()));
+                    if (!outwards.remove(pole))
+                        outwards.add(pole);
+                    change = "turn pole " + pole;
+                } else {
+                    Collections.shuffle(poles, random);
+                    change = "reorder poles";
+                }
+                distances.setPoles(new ArrayList<>(poles), outwards::contains);
+                return change;
+            }
+        }
+    }
+
+    /**
+     * Returns the first difference between the given distances and a fresh computation, or null.
+     */
+    private static String compare(PoleDistances distances, Network net, List<CyNode> poles, Set<CyNode> outwards,
+                                  List<CyNode> removed) {
+        PoleDistances fresh = new PoleDistances(new NetworkAdjacency(net.network), poles, outwards::contains);
+        List<CyNode> nodes = new ArrayList<>(net.nodes);
+        nodes.addAll(removed);
+        for (CyNode node : nodes) {
+            if (!distances.getClosestPoles(node).equals(fresh.getClosestPoles(node)))
+                return "closest poles of " + node + ": " + distances.getClosestPoles(node) + " instead of " + fresh.getClosestPoles(node);
+            if (distances.getClosestPoleDistance(node) != fresh.getClosestPoleDistance(node))
+                return "closest pole distance of " + node + ": " + distances.getClosestPoleDistance(node)
+                        + " instead of " + fresh.getClosestPoleDistance(node);
+            if (distances.getNodeClass(node) != fresh.getNodeClass(node))
+                return "class of " + node + ": " + distances.getNodeClass(node) + " instead of " + fresh.getNodeClass(node);
+            if (distances.getClosestPole(node) != fresh.getClosestPole(node))
+                return "closest pole of " + node + ": " + distances.getClosestPole(node) + " instead of " + fresh.getClosestPole(node);
+            for (CyNode pole : poles) {
+                if (distances.getDistance(pole, node) != fresh.getDistance(pole, node))
+                    return "distance from " + pole + " to " + node + ": " + distances.getDistance(pole, node)
+                            + " instead of " + fresh.getDistance(pole, node);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * A network in memory, of which the nodes, edges and the network itself are proxies
+     * of the Cytoscape interfaces that implement only what {@link NetworkAdjacency} uses.
+     */
+    static final class Network implements InvocationHandler {
+        final List<CyNode> nodes = new ArrayList<>();
+        final List<CyEdge> edges = new ArrayList<>();
+        final CyNetwork network = proxy(CyNetwork.class, this);
+        private long nextSUID = 1;
+
+        CyNode addNode() {
+            CyNode node = proxy(CyNode.class, new Element("n", nextSUID++, null, null, true));
+            nodes.add(node);
+            return node;
+        }
+
+        CyEdge addEdge(CyNode source, CyNode target, boolean directed) {
+            CyEdge edge = proxy(CyEdge.class, new Element("e", nextSUID++, source, target, directed));
+            edges.add(edge);
+            return edge;
+        }
+
+        void removeNode(CyNode node) {
+            edges.removeIf(e -> e.getSource() == node || e.getTarget() == node);
+            nodes.remove(node);
+        }
+
+        void removeEdge(CyEdge edge) {
+            edges.remove(edge);
+        }
+
+        CyNode randomNode(Random random) {
+            return nodes.get(random.nextInt(nodes.size()));
+        }
+
+        private List<CyEdge> adjacentEdges(CyNode node, CyEdge.Type type) {
+            List<CyEdge> list = new ArrayList<>();
+            for (CyEdge e : edges) {
+                if (e.getSource() != node && e.getTarget() != node)
+                    continue;
+                if (type == CyEdge.Type.ANY || (type == CyEdge.Type.UNDIRECTED) != e.isDirected())
+                    list.add(e);
+                else if (type != CyEdge.Type.UNDIRECTED && type != CyEdge.Type.DIRECTED)
+                    throw new UnsupportedOperationException("Edge type " + type);
+            }
+            return list;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            switch (method.getName()) {
+                case "getNodeList": return new ArrayList<>(nodes);
+                case "getEdgeList": return new ArrayList<>(edges);
+                case "getNodeCount": return nodes.size();
+                case "getEdgeCount": return edges.size();
+                case "getAdjacentEdgeIterable":
+                case "getAdjacentEdgeList": return adjacentEdges((CyNode) args[0], (CyEdge.Type) args[1]);
+                case "getSUID": return 0L;
+                case "hashCode": return System.identityHashCode(proxy);
+                case "equals": return proxy == args[0];
+                case "toString": return "network";
+                default: throw new UnsupportedOperationException(method.getName());
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+            return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, handler);
+        }
+    }
+
+    /**
+     * A node, or an edge if it has ends.
+     */
+    private static final class Element implements InvocationHandler {
+        private final String prefix;
+        private final long suid;
+        private final CyNode source, target;
+        private final boolean directed;
+
+        Element(String prefix, long suid, CyNode source, CyNode target, boolean directed) {
+            this.prefix = prefix;
+            this.suid = suid;
+            this.source = source;
+            this.target = target;
+            this.directed = directed;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            switch (method.getName()) {
+                case "getSUID": return suid;
+                case "getSource": return source;
+                case "getTarget": return target;
+                case "isDirected": return directed;
+                case "hashCode": return Long.hashCode(suid);
+                case "equals": return proxy == args[0];
+                case "toString": return prefix + suid;
+                default: throw new UnsupportedOperationException(method.getName());
+            }
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package ca.usask.vga.layout.magnetic.util;
+
+import ca.usask.vga.layout.magnetic.poles.PoleManager;
+import prefuse.util.force.ForceItem;
+import prefuse.util.force.SimulationState;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Builds {@link CompiledPoleClassifier}s straight from a {@link SimulationState}, for checks
+ * that run the pole forces without a Cytoscape network or a {@link PoleManager}.
+ */
+public class PoleClassifiers {
+
+    private static final int MULTIPLE = -2;
+
+    /**
+     * Classifies the items of the state by their hop distance to the given poles, following the
+     * springs in both directions. Poles at index {@code i} are outwards if {@code i} is odd.
+     * Queries that need the network, i.e. {@link PoleClassifier#getPoleListSorted}, are not supported.
+     */
+    public static CompiledPoleClassifier byHopDistance(SimulationState state, int... poles) {
+        int n = state.getItemCount(), m = state.getSpringCount();
+
+        // adjacency of the springs, in both directions
+        int[] start = new int[n + 1], adjacent = new int[2 * m];
+        for (int s = 0; s < m; s++) {
+            start[state.source[s] + 1]++;
+            start[state.target[s] + 1]++;
+        }
+        for (int i = 0; i < n; i++)
+            start[i + 1] += start[i];
+        int[] fill = Arrays.copyOf(start, n);
+        for (int s = 0; s < m; s++) {
+            adjacent[fill[state.source[s]]++] = state.target[s];
+            adjacent[fill[state.target[s]]++] = state.source[s];
+        }
+
+        // breadth-first search from all poles at once, marking items reached from several poles
+        int[] distance = new int[n], closestPole = new int[n], queue = new int[n];
+        Arrays.fill(distance, PoleManager.UNREACHABLE_NODE);
+        Arrays.fill(closestPole, -1);
+        boolean[] isPole = new boolean[n], isPoleOutwards = new boolean[n];
+        List<ForceItem> poleList = new ArrayList<>();
+        int head = 0, tail = 0;
+        for (int p = 0; p < poles.length; p++) {
+            int i = poles[p];
+            distance[i] = 0;
+            closestPole[i] = i;
+            isPole[i] = true;
+            isPoleOutwards[i] = p % 2 == 1;
+            poleList.add(state.getItem(i));
+            queue[tail++] = i;
+        }
+        while (head < tail) {
+            int u = queue[head++];
+            for (int k = start[u]; k < start[u + 1]; k++) {
+                int v = adjacent[k];
+                if (distance[v] == PoleManager.UNREACHABLE_NODE) {
+                    distance[v] = distance[u] + 1;
+                    closestPole[v] = closestPole[u];
+                    queue[tail++] = v;
+                } else if (distance[v] == distance[u] + 1 && closestPole[v] != closestPole[u]) {
+                    closestPole[v] = MULTIPLE;
+                }
+            }
+        }
+
+        byte[] itemClass = new byte[n];
+        for (int i = 0; i < n; i++) {
+            if (closestPole[i] == MULTIPLE) {
+                itemClass[i] = CompiledPoleClassifier.CLOSEST_TO_MULTIPLE;
+                closestPole[i] = -1;
+            } else if (closestPole[i] >= 0) {
+                itemClass[i] = CompiledPoleClassifier.CLOSEST_TO_ONE;
+            }
+        }
+
+        int[] springPole = new int[m];
+        byte[] springClass = new byte[m];
+        Arrays.fill(springPole, -1);
+        for (int s = 0; s < m; s++) {
+            int a = state.source[s], b = state.target[s];
+            if (itemClass[a] == CompiledPoleClassifier.DISCONNECTED || itemClass[b] == CompiledPoleClassifier.DISCONNECTED)
+                continue;
+            if (closestPole[a] >= 0 && closestPole[a] == closestPole[b]) {
+                springClass[s] = CompiledPoleClassifier.CLOSEST_TO_ONE;
+                springPole[s] = closestPole[a];
+            } else {
+                springClass[s] = CompiledPoleClassifier.CLOSEST_TO_MULTIPLE;
+            }
+        }
+
+        return new CompiledPoleClassifier(state, null, poleList, closestPole, distance,
+                itemClass, isPole, isPoleOutwards, springPole, springClass);
+    }
+}
@@ -0,0 +1,88 @@
+package prefuse.util.force;
+
+import java.util.Random;
+
+/**
+ * Compares the forces of a {@link FastMultipoleForce} with the direct sum of the
+ * same 1/r force over all pairs of items, for one expansion order. This is a plain
+ * program, not a unit test. Run it with the test classpath, e.g.
+ * <pre>
+ * java -cp target/classes:target/test-classes prefuse.util.force.FastMultipoleAccuracyCheck [items] [order]
+ * </pre>
+ * The order defaults to that of the layout, {@link FastMultipoleForce#DEFAULT_ORDER}.
+ * It exits with status 1 if the relative error is above the bound for the order.
+ */
+public class FastMultipoleAccuracyCheck {
+
+    public static void main(String[] args) {
+        int items = args.length > 0 ? Integer.parseInt(args[0]) : 4000;
+        int order = args.length > 1 ? Integer.parseInt(args[1]) : FastMultipoleForce.DEFAULT_ORDER;
+
+        boolean inaccurate = false;
+        for (boolean clustered : new boolean[] { false, true }) {
+            double error = relativeError(items, order, clustered);
+            double bound = bound(order);
+            System.out.printf("%s, order %d: relative error %.2e (bound %.2e)%n",
+                    clustered ? "Clustered" : "Uniform", order, error, bound);
+            inaccurate |= !(error <= bound);
+        }
+        System.exit(inaccurate ? 1 : 0);
+    }
+
+    /**
+     * The error expected of the expansions: the ratio of the distance of the items from
+     * their box center to the distance of the nearest well separated box is at most
+     * sqrt(2)/(4-sqrt(2)), and the error falls with its power of the order. The forces
+     * are summed in single precision, so the error never gets much below 1e-6.
+     */
+    static double bound(int order) {
+        return Math.max(Math.pow(Math.sqrt(2) / (4 - Math.sqrt(2)), order + 1), 1e-5);
+    }
+
+    /**
+     * Returns the root mean square of the error of the forces, relative to the root
+     * mean square of the directly summed forces.
+     */
+    static double relativeError(int items, int order, boolean clustered) {
+        Random random = new Random(7);
+        StateMonitor monitor = new StateMonitor();
+        SimulationState state = new SimulationState(items, 0);
+        ForceSimulator sim = new ForceSimulator(state, new EulerIntegrator(monitor), monitor);
+        for (int i = 0; i < items; i++) {
+            float x, y;
+            if (clustered) { // a few dense clusters, as in a layout of several communities
+                int c = random.nextInt(5);
+                x = c * 300 + (float) random.nextGaussian() * 20;
+                y = c * c * 50 + (float) random.nextGaussian() * 20;
+            } else {
+                x = random.nextFloat() * 1000;
+                y = random.nextFloat() * 1000;
+            }
+            state.addItem(x, y, 1 + random.nextInt(3));
+        }
+
+        FastMultipoleForce force = new FastMultipoleForce(FastMultipoleForce.DEFAULT_GRAV_CONSTANT,
+                FastMultipoleForce.DEFAULT_DISTANCE_SCALE, order, monitor);
+        force.init(sim);
+        for (int i = 0; i < items; i++)
+            force.getForce(state.getItem(i));
+
+        double g0 = FastMultipoleForce.DEFAULT_GRAV_CONSTANT / FastMultipoleForce.DEFAULT_DISTANCE_SCALE;
+        double error = 0, total = 0;
+        for (int i = 0; i < items; i++) {
+            double fx = 0, fy = 0;
+            for (int j = 0; j < items; j++) {
+                if (j == i)
+                    continue;
+                double dx = state.x[i] - state.x[j], dy = state.y[i] - state.y[j];
+                double v = -g0 * state.mass[i] * state.mass[j] / (dx * dx + dy * dy);
+                fx += v * dx;
+                fy += v * dy;
+            }
+            double ex = state.fx[i] - fx, ey = state.fy[i] - fy;
+            error += ex * ex + ey * ey;
+            total += fx * fx + fy * fy;
+        }
+        return Math.sqrt(error / total);
+    }
+}